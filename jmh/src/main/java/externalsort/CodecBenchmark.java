@@ -0,0 +1,120 @@
+package externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// -------------------------------------------------------------------------
+/**
+ * Decoding one sorted compressed run (see RunCodec) from the page cache,
+ * reported in raw records and bytes per second through Throughput. The
+ * raw byte rate is the disk rate below which compressed runs pay off; the
+ * compressed size of the run is printed when it is written.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class CodecBenchmark {
+    /**
+     * records in the run: one 8 KiB block, or 64 MiB
+     */
+    @Param({ "512", "4194304" })
+    public int records;
+
+    /**
+     * KeyDistribution option name of the keys
+     */
+    @Param({ "uniform", "zipf", "sorted", "duplicates" })
+    public String dist;
+
+    private File file;
+    private RandomAccessFile run;
+    private int blockSize;
+
+    /**
+     * Write the sorted run, compressed
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void generate() throws IOException {
+        KeyDistribution keys = KeyDistribution.fromOptionName(dist);
+        KeyOrder order = KeyOrder.UNSIGNED_BITS;
+        Random random = new Random(1);
+        Record[] input = new Record[records];
+        for (int i = 0; i < records; i++) {
+            input[i] = new Record(random.nextInt(records), keys.key(1, i,
+                records));
+        }
+        Arrays.sort(input, (a, b) -> order.compareRecords(a.getID(), a
+            .getKeyBits(), b.getID(), b.getKeyBits()));
+        blockSize = Math.max(SortConfig.DEFAULT_BLOCK_SIZE,
+            RunCodec.MIN_BLOCK_SIZE);
+        file = File.createTempFile("jmh_codec_" + dist + "_", ".bin");
+        run = new RandomAccessFile(file, "rw");
+        try (BlockWriter writer = BlockWriter.compressed(run.getChannel(), 0,
+            blockSize, 1, order)) {
+            for (Record record : input) {
+                writer.write(record.getID(), record.getKeyBits());
+            }
+        }
+        System.out.printf("%d compressed bytes, %.1f%% of the records%n", run
+            .length(), 100.0 * run.length() / ((long)records * Record.BYTES));
+    }
+
+
+    /**
+     * Close and delete the run
+     *
+     * @throws IOException
+     */
+    @TearDown
+    public void delete() throws IOException {
+        run.close();
+        file.delete();
+    }
+
+
+    /**
+     * Decode the whole run
+     *
+     * @param throughput
+     *            where the records are counted
+     * @return the sum of the key bits
+     * @throws IOException
+     */
+    @Benchmark
+    public long decode(Throughput throughput) throws IOException {
+        long sum = 0;
+        try (BlockReader reader = BlockReader.compressed(run.getChannel(), 0,
+            file.length(), blockSize, 1, KeyOrder.UNSIGNED_BITS)) {
+            while (reader.hasNext()) {
+                reader.next();
+                sum += reader.keyBits();
+            }
+        }
+        throughput.add(records);
+        return sum;
+    }
+}
@@ -0,0 +1,114 @@
+package externalsort;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// -------------------------------------------------------------------------
+/**
+ * MinHeap of Records, for each heap arity:
+ * <ul>
+ * <li>insertRemove: insert every record into an empty heap, then
+ * removeMin every record, which is all siftUp and siftDown</li>
+ * <li>replaceMin: replace the smallest record of a full heap with the
+ * next record, one siftDown from the root per operation, as replacement
+ * selection does</li>
+ * </ul>
+ * insertRemove reports records per second through Throughput.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MinHeapBenchmark {
+    /**
+     * records in the heap, a power of two: one 8 KiB block, or 64 MiB
+     */
+    @Param({ "512", "4194304" })
+    public int records;
+
+    /**
+     * KeyDistribution option name of the keys
+     */
+    @Param({ "uniform", "zipf", "sorted", "duplicates" })
+    public String dist;
+
+    /**
+     * children per heap node
+     */
+    @Param({ "2", "4", "8" })
+    public int arity;
+
+    private Record[] input;
+    private Record[] array;
+    private MinHeap<Record> full; // a full heap for replaceMin
+    private int next;
+
+    /**
+     * Generate the records and fill the heap replaceMin works on
+     */
+    @Setup
+    public void generate() {
+        KeyDistribution keys = KeyDistribution.fromOptionName(dist);
+        Random random = new Random(1);
+        input = new Record[records];
+        for (int i = 0; i < records; i++) {
+            input[i] = new Record(random.nextLong(), keys.key(1, i, records));
+        }
+        array = new Record[records];
+        full = new MinHeap<>(new Record[records], 0, records, null, arity);
+        for (Record record : input) {
+            full.insert(record);
+        }
+    }
+
+
+    /**
+     * Insert every record, then remove every record
+     *
+     * @param throughput
+     *            where the records are counted
+     * @return the sum of the IDs removed
+     */
+    @Benchmark
+    public long insertRemove(Throughput throughput) {
+        MinHeap<Record> heap = new MinHeap<>(array, 0, records, null, arity);
+        for (Record record : input) {
+            heap.insert(record);
+        }
+        long sum = 0;
+        while (heap.heapSize() > 0) {
+            sum += heap.removeMin().getID();
+        }
+        throughput.add(records);
+        return sum;
+    }
+
+
+    /**
+     * Replace the smallest record with the next input record
+     *
+     * @return the record replaced
+     */
+    @Benchmark
+    public Record replaceMin() {
+        Record record = input[next];
+        next = (next + 1) & (records - 1);
+        return full.replaceMin(record);
+    }
+}
@@ -0,0 +1,74 @@
+package externalsort;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// -------------------------------------------------------------------------
+/**
+ * Record.compareTo on neighbouring records of a generated array, one
+ * comparison per operation, so the operation rate is comparisons per
+ * second. The array is a block or many megabytes, to show the cost of
+ * comparing records that are no longer in cache.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RecordBenchmark {
+    /**
+     * records in the array, a power of two: one 8 KiB block, or 64 MiB
+     */
+    @Param({ "512", "4194304" })
+    public int records;
+
+    /**
+     * KeyDistribution option name of the keys
+     */
+    @Param({ "uniform", "zipf", "sorted", "duplicates" })
+    public String dist;
+
+    private Record[] array;
+    private int next;
+
+    /**
+     * Generate the records
+     */
+    @Setup
+    public void generate() {
+        KeyDistribution keys = KeyDistribution.fromOptionName(dist);
+        Random random = new Random(1);
+        array = new Record[records + 1];
+        for (int i = 0; i <= records; i++) {
+            array[i] = new Record(random.nextLong(), keys.key(1, i, records));
+        }
+    }
+
+
+    /**
+     * Compare the next pair of neighbours
+     *
+     * @return the comparison
+     */
+    @Benchmark
+    public int compareTo() {
+        int i = next;
+        next = (i + 1) & (records - 1);
+        return array[i].compareTo(array[i + 1]);
+    }
+}
@@ -0,0 +1,204 @@
+package externalsort;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// -------------------------------------------------------------------------
+/**
+ * The in-memory work of the run engines, with no file I/O: replacement
+ * selection through RecordHeap with a binary, 4-ary or 8-ary heap
+ * ("heap2", "heap4", "heap8"), RecordSort chunks ("introsort") and
+ * RadixSort chunks ("radix"). Each engine sees the same records and a
+ * heap or chunk of the same size. Records per second come through
+ * Throughput, and the heap engines also count their comparisons, so
+ * comparisons per record are the two counters' ratio. The d-ary heaps
+ * make more comparisons but touch fewer cache lines per sift; run with
+ * "-prof perfnorm" to see the second effect directly.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class RunEngineBenchmark {
+    /**
+     * records sorted per operation
+     */
+    @Param({ "4194304" })
+    public int records;
+
+    /**
+     * records per heap or chunk
+     */
+    @Param({ "1048576" })
+    public int chunk;
+
+    /**
+     * KeyDistribution option name of the keys
+     */
+    @Param({ "uniform", "zipf", "sorted", "duplicates" })
+    public String dist;
+
+    /**
+     * heap2, heap4, heap8, introsort or radix
+     */
+    @Param({ "heap2", "heap4", "heap8", "introsort", "radix" })
+    public String engine;
+
+    private long[] keys; // key bits, in unsigned bit order
+    private long[] ids;
+    private long[] chunkKeys;
+    private long[] chunkIDs;
+    private long[] scratchKeys;
+    private long[] scratchIDs;
+
+    /**
+     * Heap comparisons, which JMH reports next to the operation rate
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Comparisons {
+        /**
+         * heap comparisons made in this iteration
+         */
+        public long comparisons;
+
+        /**
+         * Start every iteration from zero
+         */
+        @Setup(Level.Iteration)
+        public void clear() {
+            comparisons = 0;
+        }
+    }
+
+    /**
+     * Generate the records and the chunk buffers
+     */
+    @Setup
+    public void generate() {
+        KeyDistribution distribution = KeyDistribution.fromOptionName(dist);
+        Random random = new Random(1);
+        keys = new long[records];
+        ids = new long[records];
+        for (int i = 0; i < records; i++) {
+            ids[i] = random.nextLong();
+            keys[i] = Double.doubleToLongBits(distribution.key(1, i,
+                records));
+        }
+        chunkKeys = new long[chunk];
+        chunkIDs = new long[chunk];
+        scratchKeys = new long[chunk];
+        scratchIDs = new long[chunk];
+    }
+
+
+    /**
+     * Form the runs of every record with the engine
+     *
+     * @param throughput
+     *            where the records are counted
+     * @param counted
+     *            where the heap comparisons are counted
+     * @return number of runs formed
+     */
+    @Benchmark
+    public long formRuns(Throughput throughput, Comparisons counted) {
+        throughput.add(records);
+        switch (engine) {
+            case "introsort":
+                return chunks(false);
+            case "radix":
+                return chunks(true);
+            default:
+                return selection(Integer.parseInt(engine.substring(4)),
+                    counted);
+        }
+    }
+
+
+    /**
+     * Stream the records through replacement selection
+     *
+     * @param arity
+     *            children per heap node
+     * @param counted
+     *            where the heap comparisons are counted
+     * @return number of runs formed
+     */
+    private long selection(int arity, Comparisons counted) {
+        RecordHeap heap = new RecordHeap(chunk, KeyOrder.UNSIGNED_BITS,
+            arity);
+        int next = 0;
+        while (heap.deferredCount() < chunk && next < records) {
+            heap.defer(ids[next], keys[next]);
+            next++;
+        }
+        heap.startNewRun();
+        long runs = 0;
+        while (heap.heapSize() > 0) {
+            if (next < records) {
+                if (KeyOrder.UNSIGNED_BITS.compareRecords(ids[next],
+                    keys[next], heap.minID(), heap.minKeyBits()) > 0) {
+                    heap.replaceMin(ids[next], keys[next]);
+                }
+                else {
+                    heap.deferMin(ids[next], keys[next]);
+                }
+                next++;
+            }
+            else {
+                heap.removeMin();
+            }
+            if (heap.heapSize() == 0) {
+                runs++;
+                heap.startNewRun();
+            }
+        }
+        counted.comparisons += heap.comparisons();
+        return runs;
+    }
+
+
+    /**
+     * Sort the records chunk by chunk
+     *
+     * @param radix
+     *            true for RadixSort, false for RecordSort
+     * @return number of runs formed
+     */
+    private long chunks(boolean radix) {
+        long runs = 0;
+        for (int from = 0; from < records; from += chunk) {
+            int count = Math.min(chunk, records - from);
+            System.arraycopy(keys, from, chunkKeys, 0, count);
+            System.arraycopy(ids, from, chunkIDs, 0, count);
+            if (radix) {
+                RadixSort.sort(chunkKeys, chunkIDs, scratchKeys, scratchIDs,
+                    count);
+            }
+            else {
+                RecordSort.sort(chunkKeys, chunkIDs, 0, count);
+            }
+            runs++;
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,152 @@
+package externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// -------------------------------------------------------------------------
+/**
+ * ByteFile.createSortedRuns and ByteFile.mergeSortedRuns on a file made
+ * by DataGenerator, reported in records and bytes per second through
+ * Throughput.
+ *
+ * The input is generated once per fork, and the runs the merge reads are
+ * formed once too, so each operation times one phase only. Sizes go from
+ * one block to as many gigabytes as the disk holds, e.g. "-p size=4g";
+ * the files go in java.io.tmpdir unless "-p dir=path" says otherwise.
+ * Sort options, such as "-p options='--engine radix --compress'", are
+ * parsed by SortConfig.fromOptions, so engines and I/O modes can be
+ * tracked with the same harness.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SortFileBenchmark {
+    /**
+     * input size, as SortConfig.parseSize reads it
+     */
+    @Param({ "8k", "16m", "256m" })
+    public String size;
+
+    /**
+     * KeyDistribution option name of the keys
+     */
+    @Param({ "uniform", "zipf", "sorted", "duplicates" })
+    public String dist;
+
+    /**
+     * sort options, space separated
+     */
+    @Param({ "" })
+    public String options;
+
+    /**
+     * directory for the input, run and output files, or "" for the
+     * default temporary directory
+     */
+    @Param({ "" })
+    public String dir;
+
+    private long records;
+    private File input;
+    private ByteFile byteFile;
+    private RandomAccessFile inputFile;
+    private RandomAccessFile runFile;
+    private String outputName;
+
+    /**
+     * Generate the input and form the runs the merge reads
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void generate() throws IOException {
+        // one line per merge pass would drown the results
+        Logger.getLogger("").setLevel(Level.WARNING);
+        records = SortConfig.parseSize(size) / Record.BYTES;
+        File directory = new File(dir.isEmpty()
+            ? System.getProperty("java.io.tmpdir")
+            : dir);
+        input = File.createTempFile("jmh_" + dist + "_", ".bin", directory);
+        DataGenerator.generate(input, records, KeyDistribution
+            .fromOptionName(dist), 1, Runtime.getRuntime()
+                .availableProcessors());
+        String trimmed = options.trim();
+        SortConfig config = SortConfig.fromOptions(trimmed.isEmpty()
+            ? new String[0]
+            : trimmed.split("\\s+"));
+        byteFile = new ByteFile(input.getPath(), 0, config);
+        inputFile = new RandomAccessFile(input, "r");
+        runFile = new RandomAccessFile(input.getPath() + "_runfile.dat",
+            "rw");
+        outputName = input.getPath() + "_sorted.bin";
+        byteFile.createSortedRuns(inputFile, runFile);
+    }
+
+
+    /**
+     * Close and delete every file the benchmark made
+     *
+     * @throws IOException
+     */
+    @TearDown
+    public void delete() throws IOException {
+        inputFile.close();
+        runFile.close();
+        String name = input.getPath();
+        for (String file : new String[] { name, name + "_runfile.dat",
+            outputName, SparseIndex.fileName(outputName), byteFile
+                .getRunDirectoryName() }) {
+            new File(file).delete();
+        }
+    }
+
+
+    /**
+     * Form the sorted runs of the input
+     *
+     * @param throughput
+     *            where the records are counted
+     * @throws IOException
+     */
+    @Benchmark
+    public void createSortedRuns(Throughput throughput) throws IOException {
+        byteFile.createSortedRuns(inputFile, runFile);
+        throughput.add(records);
+    }
+
+
+    /**
+     * Merge the runs into the output
+     *
+     * @param throughput
+     *            where the records are counted
+     * @throws IOException
+     */
+    @Benchmark
+    public void mergeSortedRuns(Throughput throughput) throws IOException {
+        byteFile.mergeSortedRuns(runFile, outputName);
+        throughput.add(records);
+    }
+}
@@ -0,0 +1,50 @@
+package externalsort;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// -------------------------------------------------------------------------
+/**
+ * Records and bytes handled by a benchmark, which JMH reports per second
+ * next to the operation rate, with the same error bars.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+    /**
+     * records handled in this iteration
+     */
+    public long records;
+
+    /**
+     * bytes of records handled in this iteration
+     */
+    public long bytes;
+
+    /**
+     * Start every iteration from zero
+     */
+    @Setup(Level.Iteration)
+    public void clear() {
+        records = 0;
+        bytes = 0;
+    }
+
+
+    /**
+     * Count records handled by one operation
+     *
+     * @param count
+     *            number of records
+     */
+    void add(long count) {
+        records += count;
+        bytes += count * Record.BYTES;
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// -------------------------------------------------------------------------
+/**
+ * The background threads that prefetch blocks for BlockReader and write
+ * them behind for BlockWriter. Threads are daemons, so an idle pool never
+ * keeps the program alive.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+final class AsyncIO {
+    /**
+     * shared pool for block reads and writes
+     */
+    private static final ExecutorService EXECUTOR = Executors
+        .newFixedThreadPool(Math.max(4, Runtime.getRuntime()
+            .availableProcessors()), task -> {
+                Thread thread = new Thread(task, "block-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Utility class; not instantiated
+     */
+    private AsyncIO() {
+        // static methods only
+    }
+
+
+    /**
+     * Return the shared I/O pool
+     *
+     * @return the executor
+     */
+    static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+
+    /**
+     * Wait for a block transfer, rethrowing its IOException
+     *
+     * @param <T>
+     *            result type
+     * @param transfer
+     *            the pending read or write
+     * @return its result
+     * @throws IOException
+     *             if the transfer failed or the wait was interrupted
+     */
+    static <T> T await(Future<T> transfer) throws IOException {
+        try {
+            return transfer.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for I/O");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
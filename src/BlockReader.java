@@ -0,0 +1,473 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+
+// -------------------------------------------------------------------------
+/**
+ * Reads the records in a byte range of a file one block at a time.
+ * Each block is fetched with a single positional FileChannel read and the
+ * records are decoded straight out of the block buffer, so reading a
+ * record never touches the disk or allocates.
+ *
+ * Positional reads leave the channel's own position alone, which lets
+ * several readers share one channel (one per run during a merge).
+ *
+ * With a depth above one, the reader keeps up to depth - 1 further blocks
+ * being read ahead on the AsyncIO threads while the caller works through
+ * the current block, and waits only if a block is not in yet. A reader
+ * given up before its end must be closed, so that no read ahead is still
+ * running when the caller closes or reuses the channel.
+ *
+ * A reader made by mapped() instead maps the range a window at a time with
+ * FileChannel.map and decodes records in place in the page cache, with no
+ * copy into the Java heap. All offsets are 64-bit, so ranges may be far
+ * beyond 2 GB. Java has no call to unmap a window, so unmapping is left
+ * to the GC; the reader drops each window as soon as its last record is
+ * read, so windows of long multi-pass merges can be unmapped as the merge
+ * goes instead of staying reachable until the reader is.
+ *
+ * Given a BufferPool, blocks are read through the pool instead of
+ * straight from the channel, so blocks read before may come from memory.
+ *
+ * A reader made by compressed() decodes a run written in the RunCodec
+ * block format. Blocks are fetched the same way, and the record count at
+ * the head of each block says where its padding starts.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class BlockReader implements Closeable {
+    /**
+     * stands in for a mapped window that has been used up
+     */
+    private static final ByteBuffer USED_UP = ByteBuffer.allocate(0);
+
+    private FileChannel channel;
+    private ByteBuffer buffer; // the current block
+    private long filePos; // file offset of the next block to fetch
+    private long end; // file offset just past the last record
+    private int blockSize; // bytes fetched or mapped at a time
+    private long id; // ID of the current record
+    private long keyBits; // key bits of the current record
+    // read-ahead state, only used when depth > 1
+    private ArrayDeque<Future<ByteBuffer>> pending;
+    private ArrayDeque<ByteBuffer> spare;
+    private boolean mapped; // true if blocks are mapped windows
+    private SortMetrics metrics; // null if not counted
+    private BufferPool pool; // null to read the channel directly
+    // compressed state, only used when codecOrder is set
+    private KeyOrder codecOrder;
+    private int blockLeft; // records of the current block not yet decoded
+    private long lastSortable; // sortable key bits of the current record
+    private int at; // index in the buffer's array of the next varint
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new BlockReader object that reads synchronously.
+     *
+     * @param channel
+     *            channel to read from
+     * @param start
+     *            file offset of the first record
+     * @param end
+     *            file offset just past the last record
+     * @param blockSize
+     *            number of bytes fetched per read, a multiple of
+     *            Record.BYTES
+     */
+    BlockReader(FileChannel channel, long start, long end, int blockSize) {
+        this(channel, start, end, blockSize, 1);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new BlockReader object.
+     *
+     * @param channel
+     *            channel to read from
+     * @param start
+     *            file offset of the first record
+     * @param end
+     *            file offset just past the last record
+     * @param blockSize
+     *            number of bytes fetched per read, a multiple of
+     *            Record.BYTES
+     * @param depth
+     *            number of block buffers; above one, blocks are read ahead
+     */
+    BlockReader(
+        FileChannel channel,
+        long start,
+        long end,
+        int blockSize,
+        int depth) {
+        assert blockSize % Record.BYTES == 0 : "Block size must hold whole"
+            + " records";
+        this.channel = channel;
+        this.filePos = start;
+        this.end = end;
+        this.blockSize = blockSize;
+        buffer = ByteBuffer.allocate(blockSize);
+        buffer.limit(0);
+        if (depth > 1) {
+            pending = new ArrayDeque<>(depth);
+            spare = new ArrayDeque<>(depth);
+            for (int i = 1; i < depth; i++) {
+                spare.add(ByteBuffer.allocate(blockSize));
+            }
+        }
+    }
+
+
+    /**
+     * Create a BlockReader that maps the range instead of reading it
+     *
+     * @param channel
+     *            channel to read from
+     * @param start
+     *            file offset of the first record
+     * @param end
+     *            file offset just past the last record
+     * @param window
+     *            bytes mapped at a time, a multiple of Record.BYTES
+     * @return the reader
+     */
+    static BlockReader mapped(
+        FileChannel channel,
+        long start,
+        long end,
+        int window) {
+        BlockReader reader = new BlockReader(channel, start, end,
+            Record.BYTES);
+        reader.blockSize = window;
+        reader.mapped = true;
+        return reader;
+    }
+
+
+    /**
+     * Create a BlockReader that decodes a compressed run
+     *
+     * @param channel
+     *            channel to read from
+     * @param start
+     *            file offset of the first block
+     * @param end
+     *            file offset just past the last block
+     * @param blockSize
+     *            the block size the run was written with
+     * @param depth
+     *            number of block buffers; above one, blocks are read ahead
+     * @param order
+     *            ordering of the keys the run was written with
+     * @return the reader
+     */
+    static BlockReader compressed(
+        FileChannel channel,
+        long start,
+        long end,
+        int blockSize,
+        int depth,
+        KeyOrder order) {
+        BlockReader reader = new BlockReader(channel, start, end, blockSize,
+            depth);
+        reader.codecOrder = order;
+        return reader;
+    }
+
+
+    /**
+     * Create a reader for a byte range, in the I/O mode of a configuration
+     *
+     * @param channel
+     *            channel to read from
+     * @param start
+     *            file offset of the first record
+     * @param end
+     *            file offset just past the last record
+     * @param config
+     *            sort configuration
+     * @return the reader
+     */
+    static BlockReader open(
+        FileChannel channel,
+        long start,
+        long end,
+        SortConfig config) {
+        BlockReader reader = config.isMapped()
+            ? mapped(channel, start, end, config.getMapWindow())
+            : new BlockReader(channel, start, end, config.getBlockSize(),
+                config.getIOBuffers());
+        reader.setMetrics(config.getMetrics());
+        if (!config.isMapped()) {
+            reader.setBufferPool(config.getBufferPool());
+        }
+        return reader;
+    }
+
+
+    /**
+     * Create a reader for a sorted run in the I/O mode of a configuration,
+     * decoding it if it is compressed
+     *
+     * @param run
+     *            the run
+     * @param config
+     *            sort configuration
+     * @return the reader
+     */
+    static BlockReader openRun(Run run, SortConfig config) {
+        if (!run.isCompressed()) {
+            return open(run.getChannel(), run.getStart(), run.getEnd(),
+                config);
+        }
+        BlockReader reader = compressed(run.getChannel(), run.getStart(), run
+            .getEnd(), config.getBlockSize(), config.getIOBuffers(), config
+                .getKeyOrder());
+        reader.setMetrics(config.getMetrics());
+        reader.setBufferPool(config.getBufferPool());
+        return reader;
+    }
+
+
+    /**
+     * Report every block read from now on
+     *
+     * @param metrics
+     *            where to count blocks and I/O waits
+     */
+    public void setMetrics(SortMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Read blocks through a buffer pool from now on. Mapped readers do
+     * not use the pool.
+     *
+     * @param bufferPool
+     *            the pool, or null to read the channel directly
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        pool = bufferPool;
+    }
+
+
+    /**
+     * Return true if there is another record to read
+     *
+     * @return true if next() can be called
+     */
+    public boolean hasNext() {
+        boolean inBlock = codecOrder != null
+            ? blockLeft > 0
+            : buffer.hasRemaining();
+        return inBlock || filePos < end || (pending != null
+            && !pending.isEmpty());
+    }
+
+
+    /**
+     * Advance to the next record, reading a new block if needed
+     *
+     * @throws IOException
+     */
+    public void next() throws IOException {
+        if (codecOrder != null) {
+            decode();
+            return;
+        }
+        if (!buffer.hasRemaining()) {
+            long start = System.nanoTime();
+            if (mapped) {
+                int length = nextLength();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, filePos,
+                    length);
+                filePos += length;
+            }
+            else if (pending == null) {
+                fill(buffer, filePos, nextLength());
+                filePos += buffer.limit();
+            }
+            else {
+                readAhead();
+            }
+            if (metrics != null) {
+                metrics.blockRead(buffer.limit(), buffer.limit()
+                    / Record.BYTES, System.nanoTime() - start);
+            }
+        }
+        id = buffer.getLong();
+        // through double so that NaN keys get their canonical bits
+        keyBits = Double.doubleToLongBits(buffer.getDouble());
+        if (mapped && !buffer.hasRemaining()) {
+            buffer = USED_UP; // the GC may unmap the window now
+        }
+    }
+
+
+    /**
+     * Decode the next record of a compressed run, reading a new block if
+     * needed
+     *
+     * @throws IOException
+     */
+    private void decode() throws IOException {
+        if (blockLeft == 0) {
+            long start = System.nanoTime();
+            if (pending == null) {
+                fill(buffer, filePos, nextLength());
+                filePos += buffer.limit();
+            }
+            else {
+                readAhead();
+            }
+            blockLeft = buffer.getInt();
+            at = buffer.arrayOffset() + buffer.position();
+            lastSortable = 0;
+            id = 0;
+            if (metrics != null) {
+                metrics.blockRead(buffer.limit(), blockLeft, System.nanoTime()
+                    - start);
+            }
+        }
+        lastSortable += varLong();
+        keyBits = codecOrder.fromSortableBits(lastSortable);
+        id += RunCodec.unzigzag(varLong());
+        blockLeft--;
+    }
+
+
+    /**
+     * Decode a varint (see RunCodec.putVarLong) straight from the block
+     * buffer's array
+     *
+     * @return the value
+     */
+    private long varLong() {
+        byte[] bytes = buffer.array();
+        long value = 0;
+        int shift = 0;
+        byte b = bytes[at++];
+        while (b < 0) {
+            value |= (long)(b & 0x7f) << shift;
+            shift += 7;
+            b = bytes[at++];
+        }
+        return value | (long)b << shift;
+    }
+
+
+    /**
+     * Return the ID of the current record
+     *
+     * @return record ID
+     */
+    public long id() {
+        return id;
+    }
+
+
+    /**
+     * Return the key bits of the current record
+     *
+     * @return record key bits
+     */
+    public long keyBits() {
+        return keyBits;
+    }
+
+
+    /**
+     * Wait for every block still being read ahead, so that no read of the
+     * channel outlives the reader, and drop any mapped window. The blocks
+     * are dropped, and a failed read is not reported, since its records
+     * are no longer wanted.
+     */
+    @Override
+    public void close() {
+        if (mapped) {
+            buffer = USED_UP;
+        }
+        if (pending == null) {
+            return;
+        }
+        while (!pending.isEmpty()) {
+            try {
+                spare.add(AsyncIO.await(pending.poll()));
+            }
+            catch (InterruptedIOException e) {
+                pending.clear(); // the interrupt flag is set again
+            }
+            catch (IOException e) {
+                // an abandoned block
+            }
+        }
+    }
+
+
+    /**
+     * Swap in the oldest prefetched block and start reads into every spare
+     * buffer
+     *
+     * @throws IOException
+     */
+    private void readAhead() throws IOException {
+        spare.add(buffer);
+        while (!spare.isEmpty() && filePos < end) {
+            ByteBuffer block = spare.poll();
+            long pos = filePos;
+            int length = nextLength();
+            filePos += length;
+            pending.add(AsyncIO.executor().submit(() -> {
+                fill(block, pos, length);
+                return block;
+            }));
+        }
+        buffer = AsyncIO.await(pending.poll());
+    }
+
+
+    /**
+     * Return the length of the next block of the range
+     *
+     * @return bytes left, up to one block
+     */
+    private int nextLength() {
+        return (int)Math.min(blockSize, end - filePos);
+    }
+
+
+    /**
+     * Read part of the file into a buffer, ready for decoding
+     *
+     * @param block
+     *            the buffer
+     * @param pos
+     *            file offset to read from
+     * @param length
+     *            number of bytes to read
+     * @throws IOException
+     */
+    private void fill(ByteBuffer block, long pos, int length)
+        throws IOException {
+        block.clear();
+        block.limit(length);
+        while (block.hasRemaining()) {
+            long at = pos + block.position();
+            int read = pool != null
+                ? pool.read(channel, at, block)
+                : channel.read(block, at);
+            if (read < 0) {
+                throw new EOFException("Run ends before offset " + end);
+            }
+        }
+        block.flip();
+    }
+}
@@ -0,0 +1,642 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+// -------------------------------------------------------------------------
+/**
+ * Writes records to a file one block at a time.
+ * Records are encoded into a block buffer and the buffer is written with a
+ * single positional FileChannel write when it fills up, or on flush().
+ *
+ * With a depth above one, a full block is handed to the AsyncIO threads
+ * and the writer carries on filling a spare buffer. When every buffer is
+ * waiting to be written, the writer blocks until the oldest write is done.
+ *
+ * A writer made by mapped() instead maps the file a window at a time and
+ * encodes records straight into the page cache. Mapping extends the file,
+ * so close() truncates it back to the last record written; a mapped
+ * writer must own the end of its file. Java has no call to unmap a
+ * window, so unmapping is left to the GC: the writer drops each window as
+ * soon as it is full, and the last one on close(), so that no more than
+ * one window per writer stays reachable. FileChannel.force() is not
+ * promised to write back pages dirtied through a mapping, so a durable
+ * writer forces each window itself before dropping it, and force() then
+ * only has the current window left to do.
+ *
+ * Given a BufferPool, blocks are written into the pool's frames, and
+ * reach the file when the pool evicts them or when the writer is flushed.
+ *
+ * A writer made by compressed() encodes records in the RunCodec block
+ * format instead. A block is handed over when the next record might not
+ * fit, padded to the full block size, and endRun() hands over the last,
+ * shorter block of each run, so that every run starts on a block of its
+ * own and its blocks can be read back one at a time.
+ *
+ * A writer given a RecordReducer passes records through it, so duplicate
+ * keys are collapsed as a run is written. The reducer holds back the last
+ * record it was given, which endRun() and flush() write out.
+ *
+ * A checksummed writer also keeps a CRC32C of the bytes written since the
+ * last call to checksum(), so callers can checksum each run as it is
+ * written. Blocks are summed in bulk as they are handed over.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class BlockWriter implements Closeable {
+    private FileChannel channel;
+    private ByteBuffer buffer; // the block being filled
+    private long filePos; // file offset where the buffer will be written
+    // write-behind state, only used when depth > 1
+    private ArrayDeque<Future<ByteBuffer>> pending;
+    private ArrayDeque<ByteBuffer> spare;
+    private int window; // bytes per mapped window, or 0 if not mapped
+    private boolean durable; // true to force each window before dropping it
+    private SortMetrics metrics; // null if not counted
+    private BufferPool pool; // null to write the channel directly
+    private CRC32C checksum; // null unless checksummed
+    private int summed; // bytes at the front of the buffer already summed
+    // compressed state, only used when codecOrder is set
+    private KeyOrder codecOrder;
+    private int blockRecords; // records encoded in the current block
+    private long lastSortable; // sortable key bits of the last record
+    private long lastID;
+    private RecordReducer reducer; // null unless duplicates are collapsed
+    private long appended; // records written since the last run ended
+    private long firstKey; // key bits of the run's first record
+    private long lastKey; // key bits of the run's last record
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new BlockWriter object that writes synchronously.
+     *
+     * @param channel
+     *            channel to write to
+     * @param start
+     *            file offset of the first record
+     * @param blockSize
+     *            number of bytes written per write, a multiple of
+     *            Record.BYTES
+     */
+    BlockWriter(FileChannel channel, long start, int blockSize) {
+        this(channel, start, blockSize, 1);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new BlockWriter object.
+     *
+     * @param channel
+     *            channel to write to
+     * @param start
+     *            file offset of the first record
+     * @param blockSize
+     *            number of bytes written per write, a multiple of
+     *            Record.BYTES
+     * @param depth
+     *            number of block buffers; above one, blocks are written
+     *            behind
+     */
+    BlockWriter(FileChannel channel, long start, int blockSize, int depth) {
+        assert blockSize % Record.BYTES == 0 : "Block size must hold whole"
+            + " records";
+        this.channel = channel;
+        this.filePos = start;
+        buffer = ByteBuffer.allocate(blockSize);
+        if (depth > 1) {
+            pending = new ArrayDeque<>(depth);
+            spare = new ArrayDeque<>(depth);
+            for (int i = 1; i < depth; i++) {
+                spare.add(ByteBuffer.allocate(blockSize));
+            }
+        }
+    }
+
+
+    /**
+     * Create a BlockWriter that maps the file instead of writing to it
+     *
+     * @param channel
+     *            channel to write to
+     * @param start
+     *            file offset of the first record
+     * @param window
+     *            bytes mapped at a time, a multiple of Record.BYTES
+     * @return the writer
+     */
+    static BlockWriter mapped(FileChannel channel, long start, int window) {
+        BlockWriter writer = new BlockWriter(channel, start, Record.BYTES);
+        writer.buffer.limit(0); // the first write maps the first window
+        writer.window = window;
+        return writer;
+    }
+
+
+    /**
+     * Create a BlockWriter that writes compressed runs
+     *
+     * @param channel
+     *            channel to write to
+     * @param start
+     *            file offset of the first block
+     * @param blockSize
+     *            number of bytes per block, at least
+     *            RunCodec.MIN_BLOCK_SIZE
+     * @param depth
+     *            number of block buffers; above one, blocks are written
+     *            behind
+     * @param order
+     *            ordering of the keys, which must rise within each run
+     * @return the writer
+     */
+    static BlockWriter compressed(
+        FileChannel channel,
+        long start,
+        int blockSize,
+        int depth,
+        KeyOrder order) {
+        BlockWriter writer = new BlockWriter(channel, start, blockSize,
+            depth);
+        writer.codecOrder = order;
+        return writer;
+    }
+
+
+    /**
+     * Create a writer in the I/O mode of a configuration
+     *
+     * @param channel
+     *            channel to write to
+     * @param start
+     *            file offset of the first record
+     * @param config
+     *            sort configuration
+     * @return the writer
+     */
+    static BlockWriter open(
+        FileChannel channel,
+        long start,
+        SortConfig config) {
+        BlockWriter writer = config.isMapped()
+            ? mapped(channel, start, config.getMapWindow())
+            : new BlockWriter(channel, start, config.getBlockSize(), config
+                .getIOBuffers());
+        writer.setMetrics(config.getMetrics());
+        if (!config.isMapped()) {
+            writer.setBufferPool(config.getBufferPool());
+        }
+        if (config.isDurable()) {
+            writer.setDurable();
+        }
+        return writer;
+    }
+
+
+    /**
+     * Create a writer for sorted runs: compressed if the configuration
+     * asks for it, otherwise as open() would, and collapsing duplicate
+     * keys if the configuration has a Reducer
+     *
+     * @param channel
+     *            channel to write to
+     * @param start
+     *            file offset of the first run
+     * @param config
+     *            sort configuration
+     * @return the writer
+     */
+    static BlockWriter openRun(
+        FileChannel channel,
+        long start,
+        SortConfig config) {
+        BlockWriter writer;
+        if (!config.isCompressed()) {
+            writer = open(channel, start, config);
+        }
+        else {
+            writer = compressed(channel, start, config.getBlockSize(), config
+                .getIOBuffers(), config.getKeyOrder());
+            writer.setMetrics(config.getMetrics());
+            writer.setBufferPool(config.getBufferPool());
+        }
+        if (config.getReducer() != Reducer.NONE) {
+            writer.setReducer(new RecordReducer(config.getReducer(), true));
+        }
+        return writer;
+    }
+
+
+    /**
+     * Report every block written from now on
+     *
+     * @param metrics
+     *            where to count blocks and I/O waits
+     */
+    public void setMetrics(SortMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Write blocks through a buffer pool from now on. Mapped writers do
+     * not use the pool.
+     *
+     * @param bufferPool
+     *            the pool, or null to write the channel directly
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        pool = bufferPool;
+    }
+
+
+    /**
+     * Force each mapped window to disk before letting go of it, so that
+     * force() makes every window written durable. Writers whose output a
+     * checkpoint records are made durable; the others leave write-back to
+     * the OS.
+     */
+    public void setDurable() {
+        durable = true;
+    }
+
+
+    /**
+     * Collapse duplicate keys through a reducer from now on. Records must
+     * then be written in sorted order within each run.
+     *
+     * @param recordReducer
+     *            the reducer, or null to write every record
+     */
+    public void setReducer(RecordReducer recordReducer) {
+        reducer = recordReducer;
+    }
+
+
+    /**
+     * Start keeping a checksum of everything written from now on
+     */
+    public void setChecksummed() {
+        checksum = new CRC32C();
+        summed = buffer.position();
+    }
+
+
+    /**
+     * Return the CRC32C of the bytes written since the last call, or
+     * since setChecksummed(), and start a new one
+     *
+     * @return the checksum
+     */
+    public long checksum() {
+        sumBuffer();
+        long value = checksum.getValue();
+        checksum.reset();
+        return value;
+    }
+
+
+    /**
+     * Append a record, writing out the block if it is full
+     *
+     * @param id
+     *            record ID
+     * @param keyBits
+     *            record key bits
+     * @throws IOException
+     */
+    public void write(long id, long keyBits) throws IOException {
+        if (reducer == null) {
+            append(id, keyBits);
+        }
+        else if (reducer.add(id, keyBits)) {
+            append(reducer.id(), reducer.keyBits());
+        }
+    }
+
+
+    /**
+     * Append a record as it is
+     *
+     * @param id
+     *            record ID
+     * @param keyBits
+     *            record key bits
+     * @throws IOException
+     */
+    private void append(long id, long keyBits) throws IOException {
+        if (appended++ == 0) {
+            firstKey = keyBits;
+        }
+        lastKey = keyBits;
+        if (codecOrder != null) {
+            encode(id, keyBits);
+            return;
+        }
+        if (!buffer.hasRemaining()) {
+            writeBlock();
+        }
+        buffer.putLong(id);
+        buffer.putLong(keyBits);
+    }
+
+
+    /**
+     * Append a record to the current compressed block, handing the block
+     * over once another record might not fit
+     *
+     * @param id
+     *            record ID
+     * @param keyBits
+     *            record key bits
+     * @throws IOException
+     */
+    private void encode(long id, long keyBits) throws IOException {
+        if (buffer.position() == 0) {
+            buffer.putInt(0); // the count goes here when the block is done
+            blockRecords = 0;
+            lastSortable = 0;
+            lastID = 0;
+        }
+        long sortable = codecOrder.sortableBits(keyBits);
+        RunCodec.putVarLong(buffer, sortable - lastSortable);
+        RunCodec.putVarLong(buffer, RunCodec.zigzag(id - lastID));
+        lastSortable = sortable;
+        lastID = id;
+        blockRecords++;
+        if (buffer.remaining() < RunCodec.MAX_RECORD_BYTES) {
+            buffer.putInt(0, blockRecords);
+            buffer.position(buffer.limit()); // pad to a whole block
+            writeBlock();
+        }
+    }
+
+
+    /**
+     * End a run and describe it. A compressed writer hands over the run's
+     * last block here, so the next run starts on a block of its own.
+     *
+     * @param start
+     *            file offset where the run began
+     * @param records
+     *            number of records in the run, ignored if a reducer
+     *            collapsed them
+     * @param minKeyBits
+     *            key bits of the first record
+     * @param maxKeyBits
+     *            key bits of the last record
+     * @return the run, ending at the writer's position
+     * @throws IOException
+     */
+    public Run endRun(
+        long start,
+        long records,
+        long minKeyBits,
+        long maxKeyBits)
+        throws IOException {
+        if (reducer != null && reducer.finish()) {
+            append(reducer.id(), reducer.keyBits());
+        }
+        long written = reducer == null ? records : appended;
+        appended = 0;
+        if (codecOrder == null) {
+            return new Run(channel, start, position(), minKeyBits, maxKeyBits);
+        }
+        sealBlock();
+        return new Run(channel, start, position(), written, minKeyBits,
+            maxKeyBits);
+    }
+
+
+    /**
+     * Return the key bits of the first record written since the last run
+     * ended, which is the run's smallest key
+     *
+     * @return key bits, or 0 if there is no record yet
+     */
+    public long firstKeyBits() {
+        return appended == 0 ? 0 : firstKey;
+    }
+
+
+    /**
+     * Return the key bits of the last record written, which is the
+     * run's largest key so far
+     *
+     * @return key bits, or 0 if there is no record yet
+     */
+    public long lastKeyBits() {
+        return appended == 0 ? 0 : lastKey;
+    }
+
+
+    /**
+     * Return the file offset just past the last record appended
+     *
+     * @return the logical end of the written data
+     */
+    public long position() {
+        return filePos + buffer.position();
+    }
+
+
+    /**
+     * Write out any buffered records and wait for every pending write,
+     * then have the buffer pool, if any, write back the file's blocks.
+     * A compressed writer ends its current block, so it should only be
+     * flushed between runs.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (reducer != null && reducer.finish()) {
+            append(reducer.id(), reducer.keyBits());
+        }
+        if (window > 0) {
+            return; // mapped windows are written back by the OS
+        }
+        if (codecOrder != null) {
+            sealBlock();
+        }
+        else if (buffer.position() > 0) {
+            writeBlock();
+        }
+        if (pending != null) {
+            while (!pending.isEmpty()) {
+                spare.add(AsyncIO.await(pending.poll()));
+            }
+        }
+        if (pool != null) {
+            pool.flush(channel);
+        }
+    }
+
+
+    /**
+     * Flush, then make everything written so far durable on disk
+     *
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        flush();
+        forceWindow();
+        channel.force(false);
+    }
+
+
+    /**
+     * Force the current mapped window to disk, if there is one
+     */
+    private void forceWindow() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer)buffer).force();
+        }
+    }
+
+
+    /**
+     * Flush the last block. The channel itself is left open.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (window > 0 && buffer.position() > 0) {
+            // the last window
+            count(buffer.position(), buffer.position() / Record.BYTES,
+                System.nanoTime());
+        }
+        if (window > 0 && channel.size() > position()) {
+            channel.truncate(position()); // drop the unused mapped tail
+        }
+        if (window > 0) {
+            // let go of the last window, so the GC can unmap it
+            if (durable) {
+                forceWindow();
+            }
+            filePos = position();
+            buffer = ByteBuffer.allocate(0);
+        }
+    }
+
+
+    /**
+     * Fill in the record count of the current compressed block, if it
+     * has any records, and write it out as it is
+     *
+     * @throws IOException
+     */
+    private void sealBlock() throws IOException {
+        if (buffer.position() > 0) {
+            buffer.putInt(0, blockRecords);
+            writeBlock();
+        }
+    }
+
+
+    /**
+     * Write out the current block, in the background if there are spare
+     * buffers, and start a new one
+     *
+     * @throws IOException
+     */
+    private void writeBlock() throws IOException {
+        long start = System.nanoTime();
+        sumBuffer();
+        summed = 0;
+        if (window > 0) {
+            if (buffer.position() > 0) {
+                count(buffer.position(), buffer.position() / Record.BYTES,
+                    start);
+            }
+            if (durable) {
+                forceWindow(); // no one can force it once it is dropped
+            }
+            filePos += buffer.position();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, filePos,
+                window);
+            return;
+        }
+        buffer.flip();
+        long pos = filePos;
+        int length = buffer.remaining();
+        int records = codecOrder != null
+            ? blockRecords
+            : length / Record.BYTES;
+        filePos += length;
+        if (pending == null) {
+            drain(buffer, pos);
+            buffer.clear();
+            count(length, records, start);
+            return;
+        }
+        ByteBuffer block = buffer;
+        pending.add(AsyncIO.executor().submit(() -> {
+            drain(block, pos);
+            return block;
+        }));
+        if (spare.isEmpty()) {
+            spare.add(AsyncIO.await(pending.poll())); // back-pressure
+        }
+        buffer = spare.poll();
+        buffer.clear();
+        count(length, records, start);
+    }
+
+
+    /**
+     * Add the buffered bytes not summed yet to the checksum, if there is
+     * one
+     */
+    private void sumBuffer() {
+        if (checksum != null && summed < buffer.position()) {
+            ByteBuffer fresh = buffer.duplicate();
+            fresh.flip();
+            fresh.position(summed);
+            checksum.update(fresh);
+            summed = buffer.position();
+        }
+    }
+
+
+    /**
+     * Report a block to the metrics, if there are any
+     *
+     * @param bytes
+     *            size of the block
+     * @param records
+     *            records in the block
+     * @param start
+     *            System.nanoTime() when the writer began handing it over
+     */
+    private void count(int bytes, int records, long start) {
+        if (metrics != null) {
+            metrics.blockWritten(bytes, records, System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Write all of a buffer at a file offset
+     *
+     * @param block
+     *            the buffer, flipped for reading
+     * @param pos
+     *            file offset to write at
+     * @throws IOException
+     */
+    private void drain(ByteBuffer block, long pos) throws IOException {
+        long at = pos;
+        while (block.hasRemaining()) {
+            at += pool != null
+                ? pool.write(channel, at, block)
+                : channel.write(block, at);
+        }
+    }
+}
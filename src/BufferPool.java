@@ -0,0 +1,512 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+// -------------------------------------------------------------------------
+/**
+ * A fixed set of block-sized frames caching blocks of any number of files,
+ * with clock eviction, pin counts and dirty write-back.
+ *
+ * A block is named by a file channel and a block number; block n covers
+ * bytes [n * frameSize, (n + 1) * frameSize) of its file. pin() returns
+ * the block's frame, reading it in on a miss, and keeps it in memory until
+ * the matching unpin(). A frame unpinned as dirty is written back when it
+ * is evicted or when its file is flushed. On a miss, the clock hand sweeps
+ * the frames, skipping pinned ones and giving each recently used one a
+ * second chance, so hot blocks stay while a long scan cycles through the
+ * rest.
+ *
+ * read() and write() move any byte range through the pool, a frame at a
+ * time, with the same meaning as the positional FileChannel calls; this is
+ * how BlockReader and BlockWriter use it. The pool is safe to share
+ * between threads. Misses are read under the pool's lock, so the pool
+ * trades some I/O concurrency for simplicity.
+ *
+ * Writes that bypass the pool are not seen by it: a file that is
+ * truncated or written directly must be discard()ed first.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class BufferPool {
+    private static final Logger LOG = Logger.getLogger(BufferPool.class
+        .getName());
+
+    private int frameSize;
+    private Frame[] frames;
+    private Map<PageKey, Frame> table = new HashMap<>();
+    private int hand; // next frame the clock looks at
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    /**
+     * One frame of the pool, holding one block while it is pinned
+     */
+    public static class Frame {
+        private ByteBuffer buffer;
+        private int length; // bytes of the block that exist
+        private PageKey key; // null while the frame is free
+        private int pins;
+        private boolean referenced; // used since the clock last passed
+        private boolean dirty;
+
+        // ----------------------------------------------------------
+        /**
+         * Create a new, free Frame object.
+         *
+         * @param frameSize
+         *            bytes per frame
+         */
+        Frame(int frameSize) {
+            buffer = ByteBuffer.allocate(frameSize);
+        }
+
+
+        /**
+         * Return the frame's buffer, for absolute gets and puts
+         *
+         * @return the buffer, as big as a frame
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+
+        /**
+         * Return the number of bytes of the block that exist; less than
+         * a frame for the last block of a file
+         *
+         * @return valid bytes
+         */
+        public int length() {
+            return length;
+        }
+
+
+        /**
+         * Set the number of valid bytes after writing into the frame
+         *
+         * @param length
+         *            valid bytes, at most a frame
+         */
+        public void setLength(int length) {
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * The name of a block: a file channel, compared by identity, and a
+     * block number
+     */
+    private static class PageKey {
+        private FileChannel channel;
+        private long block;
+
+        // ----------------------------------------------------------
+        /**
+         * Create a new PageKey object.
+         *
+         * @param channel
+         *            channel of the file
+         * @param block
+         *            block number
+         */
+        PageKey(FileChannel channel, long block) {
+            this.channel = channel;
+            this.block = block;
+        }
+
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PageKey)) {
+                return false;
+            }
+            PageKey key = (PageKey)other;
+            return channel == key.channel && block == key.block;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(channel) * 31 + Long.hashCode(
+                block);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new BufferPool object.
+     *
+     * @param frameCount
+     *            number of frames, at least 1
+     * @param frameSize
+     *            bytes per frame, a positive multiple of Record.BYTES
+     */
+    public BufferPool(int frameCount, int frameSize) {
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("Need at least one frame, not "
+                + frameCount);
+        }
+        if (frameSize <= 0 || frameSize % Record.BYTES != 0) {
+            throw new IllegalArgumentException("Frame size must be a positive"
+                + " multiple of " + Record.BYTES + ", not " + frameSize);
+        }
+        this.frameSize = frameSize;
+        frames = new Frame[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            frames[i] = new Frame(frameSize);
+        }
+    }
+
+
+    /**
+     * Return the size of a frame
+     *
+     * @return bytes per frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+
+    /**
+     * Pin a block, reading it in if it is not in the pool
+     *
+     * @param channel
+     *            channel of the file
+     * @param block
+     *            block number
+     * @return the block's frame, to be passed to unpin()
+     * @throws IOException
+     * @throws IllegalStateException
+     *             if every frame is pinned
+     */
+    public Frame pin(FileChannel channel, long block) throws IOException {
+        return pin(channel, block, false);
+    }
+
+
+    /**
+     * Pin a block
+     *
+     * @param channel
+     *            channel of the file
+     * @param block
+     *            block number
+     * @param overwrite
+     *            true if the caller will overwrite the whole block, so
+     *            that a miss need not read it
+     * @return the block's frame, to be passed to unpin()
+     * @throws IOException
+     * @throws IllegalStateException
+     *             if every frame is pinned
+     */
+    public synchronized Frame pin(
+        FileChannel channel,
+        long block,
+        boolean overwrite)
+        throws IOException {
+        PageKey key = new PageKey(channel, block);
+        Frame frame = table.get(key);
+        if (frame != null) {
+            hits++;
+        }
+        else {
+            misses++;
+            frame = victim();
+            if (frame.key != null) {
+                evictions++;
+                if (frame.dirty) {
+                    writeBack(frame);
+                }
+                table.remove(frame.key);
+            }
+            frame.key = key;
+            frame.dirty = false;
+            frame.length = overwrite ? 0 : load(frame);
+            table.put(key, frame);
+        }
+        frame.pins++;
+        frame.referenced = true;
+        return frame;
+    }
+
+
+    /**
+     * Release a pin
+     *
+     * @param frame
+     *            a frame returned by pin()
+     * @param dirty
+     *            true if the caller changed the frame
+     */
+    public synchronized void unpin(Frame frame, boolean dirty) {
+        if (frame.pins <= 0) {
+            throw new IllegalStateException("Frame is not pinned");
+        }
+        frame.pins--;
+        frame.dirty |= dirty;
+    }
+
+
+    /**
+     * Read bytes of a file through the pool, like FileChannel.read
+     *
+     * @param channel
+     *            channel of the file
+     * @param pos
+     *            file offset to read from
+     * @param dst
+     *            where the bytes go, up to its remaining space
+     * @return bytes read, or -1 if pos is at or past the end of the file
+     * @throws IOException
+     */
+    public int read(FileChannel channel, long pos, ByteBuffer dst)
+        throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            long at = pos + total;
+            int from = (int)(at % frameSize);
+            Frame frame = pin(channel, at / frameSize);
+            try {
+                int count = Math.min(dst.remaining(), frame.length - from);
+                if (count <= 0) {
+                    break; // end of file
+                }
+                ByteBuffer bytes = frame.buffer.duplicate();
+                bytes.limit(from + count);
+                bytes.position(from);
+                dst.put(bytes);
+                total += count;
+                if (frame.length < frameSize) {
+                    break; // the last block of the file
+                }
+            }
+            finally {
+                unpin(frame, false);
+            }
+        }
+        return total == 0 && dst.hasRemaining() ? -1 : total;
+    }
+
+
+    /**
+     * Write bytes of a file through the pool, like FileChannel.write.
+     * They reach the file when their frames are evicted or flushed.
+     *
+     * @param channel
+     *            channel of the file
+     * @param pos
+     *            file offset to write at
+     * @param src
+     *            the bytes, all of its remaining ones
+     * @return bytes written
+     * @throws IOException
+     */
+    public int write(FileChannel channel, long pos, ByteBuffer src)
+        throws IOException {
+        int total = 0;
+        while (src.hasRemaining()) {
+            long at = pos + total;
+            int from = (int)(at % frameSize);
+            int count = Math.min(src.remaining(), frameSize - from);
+            Frame frame = pin(channel, at / frameSize, count == frameSize);
+            try {
+                ByteBuffer bytes = src.duplicate();
+                bytes.limit(bytes.position() + count);
+                ByteBuffer into = frame.buffer.duplicate();
+                into.position(from);
+                into.put(bytes);
+                src.position(src.position() + count);
+                frame.length = Math.max(frame.length, from + count);
+                total += count;
+            }
+            finally {
+                unpin(frame, true);
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * Write back every dirty block of a file
+     *
+     * @param channel
+     *            channel of the file
+     * @throws IOException
+     */
+    public synchronized void flush(FileChannel channel) throws IOException {
+        for (Frame frame : frames) {
+            if (frame.dirty && frame.key.channel == channel) {
+                writeBack(frame);
+            }
+        }
+    }
+
+
+    /**
+     * Drop every block of a file without writing it back, before the file
+     * is truncated, closed or written around the pool
+     *
+     * @param channel
+     *            channel of the file
+     * @throws IllegalStateException
+     *             if one of its blocks is pinned
+     */
+    public synchronized void discard(FileChannel channel) {
+        for (Frame frame : frames) {
+            if (frame.key != null && frame.key.channel == channel) {
+                if (frame.pins > 0) {
+                    throw new IllegalStateException("Block " + frame.key.block
+                        + " is still pinned");
+                }
+                table.remove(frame.key);
+                frame.key = null;
+                frame.dirty = false;
+                frame.referenced = false;
+            }
+        }
+    }
+
+
+    /**
+     * Return the number of pins that found their block in the pool
+     *
+     * @return hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Return the number of pins that had to take a frame
+     *
+     * @return misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * Return the number of blocks pushed out to make room
+     *
+     * @return evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+
+    /**
+     * Return the number of dirty blocks written to their files
+     *
+     * @return write-backs
+     */
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+
+    /**
+     * Return the share of pins that were hits
+     *
+     * @return hit ratio, 0 if nothing was pinned
+     */
+    public synchronized double getHitRatio() {
+        long pins = hits + misses;
+        return pins == 0 ? 0 : (double)hits / pins;
+    }
+
+
+    /**
+     * Log the statistics
+     */
+    public void log() {
+        LOG.info(toString());
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return "Buffer pool: " + frames.length + " frames of " + frameSize
+            + " bytes, " + hits + " hits, " + misses + " misses ("
+            + Math.round(getHitRatio() * 100) + "% hits), " + evictions
+            + " evictions, " + writeBacks + " write-backs";
+    }
+
+
+    /**
+     * Pick a frame to reuse with the clock algorithm
+     *
+     * @return an unpinned frame
+     * @throws IllegalStateException
+     *             if every frame is pinned
+     */
+    private Frame victim() {
+        // two sweeps: one to clear reference bits, one to find a frame
+        for (int i = 0; i < 2 * frames.length; i++) {
+            Frame frame = frames[hand];
+            hand = (hand + 1) % frames.length;
+            if (frame.pins > 0) {
+                continue;
+            }
+            if (frame.key == null || !frame.referenced) {
+                return frame;
+            }
+            frame.referenced = false;
+        }
+        throw new IllegalStateException("All " + frames.length
+            + " frames are pinned");
+    }
+
+
+    /**
+     * Read a frame's block from its file
+     *
+     * @param frame
+     *            the frame, already named
+     * @return bytes read, less than a frame at the end of the file
+     * @throws IOException
+     */
+    private int load(Frame frame) throws IOException {
+        ByteBuffer into = frame.buffer.duplicate();
+        into.clear();
+        long pos = frame.key.block * frameSize;
+        while (into.hasRemaining()) {
+            if (frame.key.channel.read(into, pos + into.position()) < 0) {
+                break;
+            }
+        }
+        return into.position();
+    }
+
+
+    /**
+     * Write a dirty frame's valid bytes to its file
+     *
+     * @param frame
+     *            the frame
+     * @throws IOException
+     */
+    private void writeBack(Frame frame) throws IOException {
+        ByteBuffer from = frame.buffer.duplicate();
+        from.limit(frame.length);
+        from.position(0);
+        long pos = frame.key.block * frameSize;
+        while (from.hasRemaining()) {
+            frame.key.channel.write(from, pos + from.position());
+        }
+        frame.dirty = false;
+        writeBacks++;
+    }
+}
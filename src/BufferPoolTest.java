@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import student.TestCase;
+
+/**
+ * Tests for the block buffer pool
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class BufferPoolTest extends TestCase {
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * set up for tests: a file of 10 blocks of 32 bytes, each byte holding
+     * its block number, and a half block at the end
+     */
+    public void setUp() throws IOException {
+        file = File.createTempFile("pool", ".bin");
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        byte[] bytes = new byte[10 * 32 + 16];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)(i / 32);
+        }
+        raf.write(bytes);
+    }
+
+
+    /**
+     * clean up after tests
+     */
+    public void tearDown() throws IOException {
+        raf.close();
+        file.delete();
+    }
+
+
+    /**
+     * Pins of the same block hit, and recently used blocks survive the
+     * clock while the rest are evicted
+     *
+     * @throws IOException
+     */
+    public void testPinHitsAndEvicts() throws IOException {
+        BufferPool pool = new BufferPool(3, 32);
+        BufferPool.Frame frame = pool.pin(channel, 2);
+        assertEquals(32, frame.length());
+        assertEquals(2, frame.buffer().get(31));
+        pool.unpin(frame, false);
+        pool.unpin(pool.pin(channel, 2), false);
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+
+        // the last block is short
+        frame = pool.pin(channel, 10);
+        assertEquals(16, frame.length());
+        pool.unpin(frame, false);
+
+        // a pinned block is never evicted
+        BufferPool.Frame pinned = pool.pin(channel, 0);
+        for (int block = 3; block < 10; block++) {
+            pool.unpin(pool.pin(channel, block), false);
+        }
+        assertEquals(0, pinned.buffer().get(0));
+        pool.unpin(pool.pin(channel, 0), false);
+        assertEquals(2, pool.getHits());
+        assertTrue(pool.getEvictions() >= 6);
+
+        try {
+            pool.unpin(pool.pin(channel, 1), false);
+            pool.pin(channel, 2);
+            pool.pin(channel, 3);
+            pool.pin(channel, 4);
+            fail("Every frame was pinned");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("pinned"));
+        }
+        pool.unpin(pinned, false);
+    }
+
+
+    /**
+     * Dirty blocks reach the file when they are evicted or flushed, and
+     * discarded ones never do
+     *
+     * @throws IOException
+     */
+    public void testWriteBack() throws IOException {
+        BufferPool pool = new BufferPool(2, 32);
+        BufferPool.Frame frame = pool.pin(channel, 0);
+        frame.buffer().put(0, (byte)99);
+        pool.unpin(frame, true);
+        assertEquals(0, readByte(0));
+        pool.unpin(pool.pin(channel, 1), false);
+        pool.unpin(pool.pin(channel, 2), false);
+        pool.unpin(pool.pin(channel, 3), false);
+        assertEquals(99, readByte(0));
+        assertEquals(1, pool.getWriteBacks());
+
+        frame = pool.pin(channel, 4);
+        frame.buffer().put(5, (byte)77);
+        pool.unpin(frame, true);
+        pool.flush(channel);
+        assertEquals(77, readByte(4 * 32 + 5));
+        pool.flush(channel);
+        assertEquals(2, pool.getWriteBacks());
+
+        frame = pool.pin(channel, 5);
+        frame.buffer().put(0, (byte)55);
+        pool.unpin(frame, true);
+        pool.discard(channel);
+        pool.flush(channel);
+        assertEquals(5, readByte(5 * 32));
+        assertEquals(2, pool.getWriteBacks());
+    }
+
+
+    /**
+     * Reads and writes of any range behave like positional channel calls,
+     * including past the end of the file
+     *
+     * @throws IOException
+     */
+    public void testReadAndWriteRanges() throws IOException {
+        BufferPool pool = new BufferPool(2, 32);
+        ByteBuffer bytes = ByteBuffer.allocate(100);
+        assertEquals(100, pool.read(channel, 20, bytes));
+        for (int i = 0; i < 100; i++) {
+            assertEquals((20 + i) / 32, bytes.get(i));
+        }
+        bytes.clear();
+        assertEquals(36, pool.read(channel, 300, bytes));
+        bytes.clear();
+        assertEquals(-1, pool.read(channel, 336, bytes));
+
+        // grow the file by writing through the pool
+        ByteBuffer out = ByteBuffer.allocate(80);
+        for (int i = 0; i < 80; i++) {
+            out.put((byte)(100 + i));
+        }
+        out.flip();
+        assertEquals(80, pool.write(channel, 320, out));
+        assertFalse(out.hasRemaining());
+        bytes.clear();
+        assertEquals(100, pool.read(channel, 300, bytes));
+        assertEquals(9, bytes.get(19));
+        assertEquals(100, bytes.get(20));
+        assertEquals(179, bytes.get(99) & 0xff);
+        pool.flush(channel);
+        assertEquals(400, channel.size());
+        assertEquals(179, readByte(399) & 0xff);
+    }
+
+
+    /**
+     * Read one byte of the file without going through the pool
+     *
+     * @param pos
+     *            file offset
+     * @return the byte
+     * @throws IOException
+     */
+    private byte readByte(long pos) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        channel.read(one, pos);
+        return one.get(0);
+    }
+}
@@ -0,0 +1,292 @@
+import java.nio.ByteBuffer;
+
+// In-place sorting of 16-byte records packed in a ByteBuffer.
+// The same introsort as RecordSort, with records addressed by offset.
+
+// -------------------------------------------------------------------------
+/**
+ * Sorts records packed back to back in a buffer, each an 8-byte ID
+ * followed by 8 bytes of sortable key bits (see KeyOrder.sortableBits()).
+ * Records are compared and swapped where they lie with absolute gets and
+ * puts, in the same order as RecordSort, so a direct buffer is sorted
+ * without copying anything onto the Java heap.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class BufferSort {
+    /**
+     * ranges this short are finished with insertion sort
+     */
+    private static final int INSERTION_LIMIT = 24;
+
+    /**
+     * offset of the key within a record
+     */
+    private static final int KEY = 8;
+
+    /**
+     * Utility class; not instantiated
+     */
+    private BufferSort() {
+        // static methods only
+    }
+
+
+    /**
+     * Sort a range of records
+     *
+     * @param records
+     *            the buffer, read and written at absolute offsets
+     * @param from
+     *            index of the first record to sort
+     * @param to
+     *            index just past the last one to sort
+     */
+    public static void sort(ByteBuffer records, int from, int to) {
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        introSort(records, from, to, depth);
+    }
+
+
+    /**
+     * Quicksort a range, switching to heapsort when too deep
+     *
+     * @param records
+     *            the buffer
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     * @param depth
+     *            partitions left before falling back to heapsort
+     */
+    private static void introSort(
+        ByteBuffer records,
+        int from,
+        int to,
+        int depth) {
+        while (to - from > INSERTION_LIMIT) {
+            if (depth-- == 0) {
+                heapSort(records, from, to);
+                return;
+            }
+            int mid = partition(records, from, to);
+            // Recurse into the smaller side, loop on the larger one
+            if (mid - from < to - mid) {
+                introSort(records, from, mid, depth);
+                from = mid + 1;
+            }
+            else {
+                introSort(records, mid + 1, to, depth);
+                to = mid;
+            }
+        }
+        insertionSort(records, from, to);
+    }
+
+
+    /**
+     * Partition around the median of the first, middle and last records
+     *
+     * @param records
+     *            the buffer
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     * @return final index of the pivot
+     */
+    private static int partition(ByteBuffer records, int from, int to) {
+        int mid = (from + to) >>> 1;
+        int last = to - 1;
+        if (isLessThan(records, mid, from)) {
+            swap(records, mid, from);
+        }
+        if (isLessThan(records, last, from)) {
+            swap(records, last, from);
+        }
+        if (isLessThan(records, last, mid)) {
+            swap(records, last, mid);
+        }
+        // Park the pivot just before the last record
+        swap(records, mid, last - 1);
+        long pivotKey = key(records, last - 1);
+        long pivotID = id(records, last - 1);
+
+        int i = from;
+        int j = last - 1;
+        while (true) {
+            while (RecordSort.isLessThan(key(records, ++i), id(records, i),
+                pivotKey, pivotID)) {
+                // from holds a record no bigger than the pivot
+            }
+            while (RecordSort.isLessThan(pivotKey, pivotID, key(records, --j),
+                id(records, j))) {
+                // last holds a record no smaller than the pivot
+            }
+            if (i >= j) {
+                break;
+            }
+            swap(records, i, j);
+        }
+        swap(records, i, last - 1); // Put the pivot in its place
+        return i;
+    }
+
+
+    /**
+     * Insertion sort for short ranges
+     *
+     * @param records
+     *            the buffer
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     */
+    private static void insertionSort(ByteBuffer records, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long key = key(records, i);
+            long id = id(records, i);
+            int j = i - 1;
+            while (j >= from && RecordSort.isLessThan(key, id, key(records,
+                j), id(records, j))) {
+                put(records, j + 1, id(records, j), key(records, j));
+                j--;
+            }
+            put(records, j + 1, id, key);
+        }
+    }
+
+
+    /**
+     * Heapsort with a max-heap, the fallback for bad pivots
+     *
+     * @param records
+     *            the buffer
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     */
+    private static void heapSort(ByteBuffer records, int from, int to) {
+        int n = to - from;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(records, from, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(records, from, from + end);
+            siftDown(records, from, 0, end);
+        }
+    }
+
+
+    /**
+     * Moves an element down a max-heap stored at an offset
+     *
+     * @param records
+     *            the buffer
+     * @param base
+     *            index of the heap root
+     * @param pos
+     *            heap position to sift
+     * @param n
+     *            heap size
+     */
+    private static void siftDown(ByteBuffer records, int base, int pos, int n) {
+        while (2 * pos + 1 < n) {
+            int child = 2 * pos + 1;
+            if (child + 1 < n && isLessThan(records, base + child, base + child
+                + 1)) {
+                child++;
+            }
+            if (!isLessThan(records, base + pos, base + child)) {
+                return;
+            }
+            swap(records, base + pos, base + child);
+            pos = child;
+        }
+    }
+
+
+    /**
+     * Return the ID of a record
+     *
+     * @param records
+     *            the buffer
+     * @param i
+     *            record index
+     * @return record ID
+     */
+    private static long id(ByteBuffer records, int i) {
+        return records.getLong(i * Record.BYTES);
+    }
+
+
+    /**
+     * Return the sortable key bits of a record
+     *
+     * @param records
+     *            the buffer
+     * @param i
+     *            record index
+     * @return sortable key bits
+     */
+    private static long key(ByteBuffer records, int i) {
+        return records.getLong(i * Record.BYTES + KEY);
+    }
+
+
+    /**
+     * Store a record
+     *
+     * @param records
+     *            the buffer
+     * @param i
+     *            record index
+     * @param id
+     *            record ID
+     * @param key
+     *            sortable key bits
+     */
+    private static void put(ByteBuffer records, int i, long id, long key) {
+        records.putLong(i * Record.BYTES, id);
+        records.putLong(i * Record.BYTES + KEY, key);
+    }
+
+
+    /**
+     * Compare the records at two indexes
+     *
+     * @param records
+     *            the buffer
+     * @param i
+     *            one index
+     * @param j
+     *            another index
+     * @return true if record i sorts before record j
+     */
+    private static boolean isLessThan(ByteBuffer records, int i, int j) {
+        return RecordSort.isLessThan(key(records, i), id(records, i), key(
+            records, j), id(records, j));
+    }
+
+
+    /**
+     * swaps the records at two indexes
+     *
+     * @param records
+     *            the buffer
+     * @param i
+     *            one index
+     * @param j
+     *            another index
+     */
+    private static void swap(ByteBuffer records, int i, int j) {
+        long id = id(records, i);
+        long key = key(records, i);
+        put(records, i, id(records, j), key(records, j));
+        put(records, j, id, key);
+    }
+}
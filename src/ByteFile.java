@@ -6,13 +6,19 @@ import java.util.Random;
 import student.TestableRandom;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.text.DecimalFormat;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Basic handling of binary data files.
  * Uses a single byte array as a buffer for disc operations
  * Each record is one long, and one double. Sorting key is the double.
- * A record is 16 bytes long, and there are 512 records per block.
+ * A record is 16 bytes long, and there are 512 records per block unless
+ * a SortConfig sets another block size.
  * 
  * Can be extended in several ways (writeSortedRecords()? readBlock(int)?)
  * 
@@ -25,27 +31,19 @@ public class ByteFile {
      * the number of bytes in one record
      */
     private static final int RECORD_SIZE = 16;
-    // public final static int BYTES_PER_RECORD = 16;
-    /**
-     * the number of bytes in one block
-     */
-    private static final int BLOCK_SIZE = 8192;
-// public final static int BYTES_PER_BLOCK = BYTES_PER_RECORD
-// * RECORDS_PER_BLOCK;
 
     /**
-     * the number of records in one block
+     * characters of block summary collected before each write
      */
-    private static final int RECORDS_PER_BLOCK = BLOCK_SIZE / RECORD_SIZE;
-    // public final static int RECORDS_PER_BLOCK = 512;
-
-    /**
-     * number of blocks for heap
-     */
-    private static final int HEAP_SIZE = 8;
-
+    private static final int PRINT_CHUNK = 1 << 16;
+    // public final static int BYTES_PER_RECORD = 16;
     private String filename;
     private int numBlocks;
+    private SortConfig config;
+    private KeyOrder order;
+    private int blockSize; // bytes per block
+    private int heapRecords; // records in the replacement-selection heap
+    private SortCheckpoint checkpoint; // progress of a durable sort
 
     // ----------------------------------------------------------
     /**
@@ -57,13 +55,71 @@ public class ByteFile {
      *            the number of blocks in this file
      */
     public ByteFile(String filename, int numBlocks) {
+        this(filename, numBlocks, new SortConfig());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new ByteFile object that sorts with the given memory
+     * budget, block size and key order.
+     *
+     * @param filename
+     *            file name
+     * @param numBlocks
+     *            the number of blocks in this file
+     * @param config
+     *            sort configuration
+     */
+    public ByteFile(String filename, int numBlocks, SortConfig config) {
         this.filename = filename;
         this.numBlocks = numBlocks;
+        this.config = config;
+        order = config.getKeyOrder();
+        blockSize = config.getBlockSize();
+        heapRecords = config.getHeapRecords();
+    }
+
+
+    /**
+     * Return the name of the run directory written next to the run file
+     *
+     * @return run directory file name
+     */
+    public String getRunDirectoryName() {
+        return filename + "_runfile.dir";
+    }
+
+
+    /**
+     * Return the name of the checkpoint manifest of a durable sort
+     *
+     * @return checkpoint file name
+     */
+    public String getCheckpointName() {
+        return filename + "_sort.ckpt";
     }
 
 
     /**
-     * create sorted runs using replacement selection
+     * Create the checkpoint of a durable sort of this file
+     *
+     * @return a checkpoint that has not been restored
+     */
+    SortCheckpoint openCheckpoint() {
+        return new SortCheckpoint(new File(getCheckpointName()), new File(
+            filename), order, config.getReducer());
+    }
+
+
+    /**
+     * create sorted runs using replacement selection. A run only ends
+     * when every record left in the heap belongs to the next run, so runs
+     * average twice the heap size and presorted input becomes one run.
+     * The runs are listed in the run directory file. The parallel, radix
+     * and off-heap engines instead write one run per memory-sized chunk.
+     * A durable sort also writes one run per chunk, recording each in its
+     * checkpoint, and first restores whatever an earlier attempt left.
      * 
      * @param inputFile
      *            input file object
@@ -78,162 +134,347 @@ public class ByteFile {
         RandomAccessFile runFile)
         throws IOException {
 
-        // Initialize the heap and other variables
-
-        // Array to hold the heap
-        Record[] heap = new Record[HEAP_SIZE * RECORDS_PER_BLOCK];
-        MinHeap<Record> minHeap = new MinHeap<>(heap, 0, HEAP_SIZE
-            * RECORDS_PER_BLOCK);
-
-        int runFilesLength = 0;
-
-        long heapSize = 0;
-        int fileRecords = (int)inputFile.length() / BLOCK_SIZE
-            * RECORDS_PER_BLOCK;
-
-        if (fileRecords / (HEAP_SIZE * RECORDS_PER_BLOCK) >= 1)
-            heapSize = HEAP_SIZE * RECORDS_PER_BLOCK;
-        else
-            heapSize = fileRecords;
-
-        // Fill the heap with initial records from the input file
-        for (int i = 0; i < heapSize; i++) {
-            if (inputFile.getFilePointer() < inputFile.length()) {
-                // Assume this method reads a record from the input file
-                Record record = readRecord(inputFile);
-                minHeap.insert(record);
-            }
+        SortMetrics metrics = config.getMetrics();
+        SortPhaseEvent phase = metrics.beginPhase("runs");
+        if (config.getBufferPool() != null) {
+            // the run file is about to be cut back and rewritten
+            config.getBufferPool().discard(runFile.getChannel());
         }
+        checkpoint = config.isDurable() ? openCheckpoint() : null;
+        if (checkpoint == null || !checkpoint.restore(runFile.getChannel())) {
+            runFile.setLength(0);
+        }
+        if (checkpoint != null && checkpoint.isRunPhaseDone()) {
+            // the merge carries on from the checkpoint's runs
+            metrics.endPhase(phase);
+            return;
+        }
+        long inputEnd = inputFile.length() / RECORD_SIZE * RECORD_SIZE;
+        RunDirectory directory;
+        if (checkpoint != null) {
+            directory = config.getRunEngine() == RunEngine.OFF_HEAP
+                ? new OffHeapRunGenerator(config).generate(inputFile
+                    .getChannel(), inputEnd, runFile.getChannel(), checkpoint)
+                : new ParallelRunGenerator(config).generate(inputFile
+                    .getChannel(), inputEnd, runFile.getChannel(), checkpoint);
+            checkpoint.runPhaseCompleted();
+        }
+        else if (config.getRunEngine() == RunEngine.OFF_HEAP) {
+            directory = new OffHeapRunGenerator(config).generate(inputFile
+                .getChannel(), inputEnd, runFile.getChannel());
+        }
+        else if (config.getWorkers() > 1
+            || config.getRunEngine() == RunEngine.RADIX) {
+            directory = new ParallelRunGenerator(config).generate(inputFile
+                .getChannel(), inputEnd, runFile.getChannel());
+        }
+        else {
+            directory = replacementSelection(inputFile.getChannel(), inputEnd,
+                runFile.getChannel());
+        }
+        directory.setReducer(config.getReducer());
+        directory.write(getRunDirectoryName());
+        metrics.runsProduced(directory.getRuns());
+        metrics.endPhase(phase);
+    }
 
-        while (true) {
-
-            int otherHeapCount = 0;
-            int runFileLength = 0;
 
-            // Array to hold the heap
-            Record[] otherHeap = new Record[HEAP_SIZE * RECORDS_PER_BLOCK];
+    /**
+     * form runs with replacement selection on one thread
+     * 
+     * @param input
+     *            channel of the input file
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param runChannel
+     *            channel of the run file, written from offset 0
+     * @return the runs that were written
+     * 
+     * @throws IOException
+     */
+    private RunDirectory replacementSelection(
+        FileChannel input,
+        long inputEnd,
+        FileChannel runChannel)
+        throws IOException {
 
-            // number of file's records
-            if (runFilesLength == fileRecords)
-                break;
+        // Heap of primitive records; nothing below allocates per record
+        RecordHeap minHeap = new RecordHeap(heapRecords, order, config
+            .getHeapArity());
+        RunDirectory directory = new RunDirectory();
 
-            if ((fileRecords - runFilesLength) / (HEAP_SIZE
-                * RECORDS_PER_BLOCK) >= 1)
-                heapSize = HEAP_SIZE * RECORDS_PER_BLOCK;
-            else
-                heapSize = fileRecords - runFilesLength;
+        // Block-buffered access to both files
+        BlockReader reader = BlockReader.open(input, 0, inputEnd, config);
 
-            Record minRecord = null;
-            // Process the heap until it is empty
-            while (runFileLength < heapSize) {
+        try (BlockWriter writer = BlockWriter.openRun(runChannel, 0,
+            config)) {
 
-                // Step 3b: Read the next record from the input file
-                Record nextRecord = null;
-                if (inputFile.getFilePointer() < inputFile.length()) {
-                    nextRecord = readRecord(inputFile);
+            // Fill the heap with initial records from the input file,
+            // then build it in one pass
+            while (minHeap.deferredCount() < minHeap.capacity() && reader
+                .hasNext()) {
+                reader.next();
+                minHeap.defer(reader.id(), reader.keyBits());
+            }
+            minHeap.startNewRun();
+
+            long runStart = 0;
+            long runRecords = 0;
+            long runMin = 0;
+            boolean runEmpty = true;
+            long minID = 0;
+            long minKey = 0;
+            while (minHeap.heapSize() > 0) {
+                minID = minHeap.minID();
+                minKey = minHeap.minKeyBits();
+                if (runEmpty) {
+                    runMin = minKey;
+                    runEmpty = false;
                 }
+                writer.write(minID, minKey);
+                runRecords++;
 
-                minRecord = minHeap.removeMin();
-
-                runFileLength++;
+                // Read the next record from the input file
+                if (reader.hasNext()) {
+                    reader.next();
 
-                writeRecord(runFile, minRecord);
-                // Step 3b: Check if the next record can be added to the heap
-                if (nextRecord != null && minRecord.compareTo(
-                    nextRecord) == -1) {
-
-                    // Insert the next record into the heap
-                    minHeap.insert(nextRecord);
+                    // Check if the next record can join this run
+                    if (order.compareRecords(reader.id(), reader.keyBits(),
+                        minID, minKey) > 0) {
+                        minHeap.replaceMin(reader.id(), reader.keyBits());
+                    }
+                    else {
+                        minHeap.deferMin(reader.id(), reader.keyBits());
+                    }
                 }
                 else {
-                    if (nextRecord != null) {
-                        otherHeap[otherHeapCount] = nextRecord;
-                        otherHeapCount++;
-                    }
+                    minHeap.removeMin();
                 }
-            }
-            if (otherHeapCount > 0) {
-                for (int i = 0; i < otherHeapCount; i++) {
-                    minHeap.insert(otherHeap[i]);
+
+                // Everything left belongs to the next run
+                if (minHeap.heapSize() == 0) {
+                    directory.add(writer.endRun(runStart, runRecords, runMin,
+                        minKey));
+                    runStart = writer.position();
+                    runRecords = 0;
+                    runEmpty = true;
+                    minHeap.startNewRun();
                 }
             }
-
-            runFilesLength += runFileLength;
         }
+        // one comparison per record read, plus the heap's own
+        config.getMetrics().addComparisons(minHeap.comparisons() + Math.max(0,
+            inputEnd / RECORD_SIZE - minHeap.capacity()));
+        return directory;
     }
 
 
     /**
-     * reads a record from the input file
-     * 
-     * @param file
-     *            input file object
+     * print the first record from each block. The records come from the
+     * SparseIndex saved with the sorted file when it matches the file, and
+     * otherwise from one 16-byte positional read per block. They are
+     * formatted by a KeyFormatter and collected into large chunks, so the
+     * output costs a few big writes instead of a printf per record.
      * 
-     * @return a new Record object
+     * @param outFileName
+     *            output file name
      * 
      * @throws IOException
      */
-    public Record readRecord(RandomAccessFile file) throws IOException {
-        long id = file.readLong(); // Read the long ID
-        double key = file.readDouble(); // Read the double key
-        return new Record(id, key); // Return a new Record object
+    public void printFirstRecords(String outFileName) throws IOException {
+        SortMetrics metrics = config.getMetrics();
+        SortPhaseEvent phase = metrics.beginPhase("print");
+        try (RandomAccessFile sortedFile = new RandomAccessFile(outFileName,
+            "r")) {
+
+            FileChannel channel = sortedFile.getChannel();
+            long length = channel.size();
+            long blocks = (length + blockSize - 1) / blockSize;
+            SparseIndex index = summaryIndex(outFileName, length, blocks);
+            ByteBuffer byteBuffer = ByteBuffer.allocate(RECORD_SIZE);
+            KeyFormatter formatter = new KeyFormatter();
+            String newline = System.lineSeparator();
+            StringBuffer text = new StringBuffer(PRINT_CHUNK + 256);
+
+            for (int block = 0; block < blocks; block++) {
+                long id;
+                double key;
+                if (index != null) {
+                    id = index.getID(block);
+                    key = Double.longBitsToDouble(index.getKeyBits(block));
+                }
+                else {
+                    // One positional read of the block's first record
+                    byteBuffer.clear();
+                    long pos = (long)block * blockSize;
+                    long start = System.nanoTime();
+                    while (byteBuffer.hasRemaining() && channel.read(
+                        byteBuffer, pos + byteBuffer.position()) >= 0) {
+                        // keep reading until the first record is in
+                    }
+                    metrics.blockRead(byteBuffer.position(), byteBuffer
+                        .position() / RECORD_SIZE, System.nanoTime() - start);
+                    id = byteBuffer.getLong(0);
+                    key = byteBuffer.getDouble(Long.BYTES);
+                }
+
+                // Same text as printf("%d %s ") with DecimalFormat
+                // ("0.################E0"), which has no + sign
+                formatter.appendID(text, id);
+                text.append(' ');
+                formatter.appendKey(text, key);
+                text.append(' ');
+                if ((block + 1) % 5 == 0) {
+                    text.append(newline);
+                }
+                if (text.length() >= PRINT_CHUNK) {
+                    System.out.append(text);
+                    text.setLength(0);
+                }
+            }
+            System.out.append(text);
+            System.out.flush();
+        }
+        metrics.endPhase(phase);
     }
 
 
     /**
-     * writes a record to the run file
-     * 
-     * @param file
-     *            run file object
-     * @param record
-     *            record to write
-     * 
-     * @throws IOException
+     * Return the index saved with a sorted file, if it describes the file
+     * as it is now, block for block
+     *
+     * @param sortedName
+     *            sorted file name
+     * @param length
+     *            bytes in the sorted file
+     * @param blocks
+     *            blocks in the sorted file
+     * @return the index, or null to read the blocks instead
      */
-    public void writeRecord(RandomAccessFile file, Record record)
-        throws IOException {
-        file.writeLong(record.getID()); // Write the long ID
-        file.writeDouble(record.getKey()); // Write the double key
+    private SparseIndex summaryIndex(
+        String sortedName,
+        long length,
+        long blocks) {
+        String name = SparseIndex.fileName(sortedName);
+        if (!new File(name).exists()) {
+            return null;
+        }
+        try {
+            SparseIndex index = SparseIndex.read(name);
+            if (index.getBlockSize() == blockSize && index
+                .getFileLength() == length && index.size() == blocks) {
+                return index;
+            }
+        }
+        catch (IOException e) {
+            // unreadable or from an older version: read the blocks
+        }
+        return null;
     }
 
 
     /**
-     * print the first record from each block
-     * 
-     * @param outFileName
+     * sort only the records a top-K or key-range query needs, in one scan
+     * of the input (see PartialSorter). When the result fits in memory,
+     * it is written straight to the output with its SparseIndex and the
+     * run file is not written at all; otherwise the kept records are
+     * written as runs and merged, and the merge stops after K records.
+     *
+     * @param inputFile
+     *            input file object
+     * @param runFile
+     *            run file object, used only if the result is too big
+     * @param outputFilename
      *            output file name
-     * 
      * @throws IOException
      */
-    public void printFirstRecords(String outFileName) throws IOException {
-        try (RandomAccessFile sortedFile = new RandomAccessFile(outFileName,
-            "r")) {
-
-            byte[] buffer = new byte[BLOCK_SIZE];
-            int count = 0;
-
-            // Format without + sign
-            DecimalFormat df = new DecimalFormat("0.################E0");
+    public void selectRecords(
+        RandomAccessFile inputFile,
+        RandomAccessFile runFile,
+        String outputFilename)
+        throws IOException {
+        if (config.isDurable() || config.getMergeInto() != null || config
+            .getReducer() != Reducer.NONE) {
+            throw new IllegalArgumentException("A partial sort cannot be"
+                + " durable, incremental or reduced");
+        }
+        SortMetrics metrics = config.getMetrics();
+        // the scan takes the place of the run phase
+        SortPhaseEvent phase = metrics.beginPhase("runs");
+        if (config.getBufferPool() != null) {
+            config.getBufferPool().discard(runFile.getChannel());
+        }
+        runFile.setLength(0);
+        long inputEnd = inputFile.length() / RECORD_SIZE * RECORD_SIZE;
+        SparseIndex index = new SparseIndex(order, blockSize);
+        RunDirectory directory;
+        try (RandomAccessFile outputFile = new RandomAccessFile(
+            outputFilename, "rw")) {
+            outputFile.setLength(0);
+            directory = new PartialSorter(config).select(inputFile
+                .getChannel(), inputEnd, runFile.getChannel(), outputFile
+                    .getChannel(), index);
+            if (config.getBufferPool() != null) {
+                config.getBufferPool().discard(outputFile.getChannel());
+            }
+        }
+        metrics.endPhase(phase);
+        if (directory == null) {
+            index.write(SparseIndex.fileName(outputFilename));
+            return;
+        }
+        directory.write(getRunDirectoryName());
+        metrics.runsProduced(directory.getRuns());
+        mergeSortedRuns(runFile, outputFilename);
+    }
 
-            while (sortedFile.read(buffer) != -1) {
-                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-                long id = byteBuffer.getLong();
-                double key = byteBuffer.getDouble();
 
-                // Use DecimalFormat to format the key without the + sign
-                String keyAsString = df.format(key);
-                System.out.printf("%d %s ", id, keyAsString);
-                count++;
-                if (count % 5 == 0) {
-                    System.out.println();
-                }
-            }
+    /**
+     * Open a sorted file to merge into, after checking that its index, if
+     * it has a current one, agrees on the key order
+     *
+     * @param baseName
+     *            sorted file name
+     * @return the file, open for reading
+     * @throws IOException
+     *             if the file cannot be read or was sorted in another
+     *             order
+     */
+    private RandomAccessFile openBase(String baseName) throws IOException {
+        SparseIndex baseIndex = null;
+        try {
+            baseIndex = SparseIndex.read(SparseIndex.fileName(baseName));
+        }
+        catch (IOException e) {
+            // no usable index: take the file's order on trust
         }
+        RandomAccessFile baseFile = new RandomAccessFile(baseName, "r");
+        if (baseIndex != null && baseIndex.getFileLength() == baseFile
+            .length() && baseIndex.getKeyOrder() != order) {
+            baseFile.close();
+            throw new IOException(baseName + " is sorted in " + baseIndex
+                .getKeyOrder() + " order, not " + order);
+        }
+        return baseFile;
     }
 
 
     /**
-     * merge the sorted runs
+     * merge the sorted runs with a streaming k-way merge. The runs are
+     * read from the run directory written by createSortedRuns(). At most
+     * the configured fan-in of runs is merged at once, with one input
+     * block per run and one output block in memory, so extra passes
+     * through intermediate run files are made when there are more runs
+     * than that. A durable sort merges the runs of its checkpoint instead,
+     * resuming after the last merge pass it recorded, and removes the
+     * checkpoint once the output is on disk. A SparseIndex of the output's
+     * blocks is saved next to it, for SortedFile.
+     *
+     * If the configuration names a file to merge into, that sorted file
+     * joins the merge as one more run, so new input is merged into it
+     * without sorting it again. Being the biggest run, it is only read by
+     * the final pass. When it is also the output, the merge goes to a
+     * temporary file that then replaces it.
      * 
      * @param runFile
      *            run file object
@@ -245,103 +486,68 @@ public class ByteFile {
     public void mergeSortedRuns(RandomAccessFile runFile, String outputFilename)
         throws IOException {
 
-        // Create a MinHeap to hold the current minimum elements from each run
-        int heapCount = (int)runFile.length() / BLOCK_SIZE * RECORDS_PER_BLOCK;
-
-        Record[] heap = new Record[heapCount]; // Array to hold the heap
-        MinHeap<Record> minHeap = new MinHeap<>(heap, 0, heap.length); // Initialize
-                                                                       // the
-                                                                       // MinHeap
-
-        int runFileCount = 0;
-        if (runFile.length() % (BLOCK_SIZE * HEAP_SIZE) == 0)
-            runFileCount = (int)runFile.length() / (BLOCK_SIZE * HEAP_SIZE);
-        else
-            runFileCount = (int)runFile.length() / (BLOCK_SIZE * HEAP_SIZE) + 1;
-
-        long[] currentPosition = new long[runFileCount];
-        Record[][] block = new Record[runFileCount][RECORDS_PER_BLOCK
-            * HEAP_SIZE];
-
-        for (int i = 0; i < runFileCount; i++) {
-            // Seek to the beginning of the runFile to read the sorted runs
-            currentPosition[i] = i * RECORDS_PER_BLOCK * HEAP_SIZE;
-            int recordsRead = 0;
-
-            // Seek to the current position
-            runFile.seek(currentPosition[i] * RECORD_SIZE);
-            int heapPos = 0;
-            if (i == runFileCount - 1) {
-                heapPos = (int)runFile.length() / RECORD_SIZE;
-            }
-            else {
-                heapPos = (i + 1) * HEAP_SIZE * RECORDS_PER_BLOCK;
-            }
-
-            // Read records into the block
-            while (currentPosition[i] < heapPos) {
-                block[i][recordsRead] = readRecord(runFile); // Read a record
-                recordsRead++;
-                currentPosition[i]++; // Move to the next record
-            }
+        SortPhaseEvent phase = config.getMetrics().beginPhase("merge");
+        MergeScheduler scheduler = new MergeScheduler(config, outputFilename);
+        SparseIndex index = new SparseIndex(order, blockSize);
+        scheduler.setIndex(index);
+        if (config.getTopK() > 0) {
+            scheduler.setRecordLimit(config.getTopK());
         }
-        int[] readedRecords = new int[runFileCount];
-        for (int i = 0; i < runFileCount; i++) {
-            readedRecords[i] = 0;
+        if (config.hasKeyRange()) {
+            scheduler.setKeyLimit(Double.doubleToLongBits(config
+                .getRangeHi()));
         }
-        int curPosition = 0;
-        while (curPosition < (int)runFile.length() / RECORD_SIZE) {
-            Record insertRecord = null;
-            int insertIndex = 0;
-            int count = 0;
-            for (int i = 0; i < runFileCount; i++) {
-                int recodeCount = 0;
-                if (i == runFileCount - 1) {
-                    recodeCount = (int)runFile.length() / RECORD_SIZE - i
-                        * HEAP_SIZE * RECORDS_PER_BLOCK;
-                }
-                else {
-                    recodeCount = HEAP_SIZE * RECORDS_PER_BLOCK;
-                }
-
-                if (readedRecords[i] < recodeCount) {
-                    count++;
-                    if (count == 1) {
-                        insertRecord = block[i][readedRecords[i]];
-                        insertIndex = i;
-                    }
-                    if (insertRecord.compareTo(
-                        block[i][readedRecords[i]]) == 1) {
-
-                        insertRecord = block[i][readedRecords[i]];
-                        insertIndex = i;
-                    }
+        List<Run> runs;
+        if (checkpoint != null) {
+            scheduler.setCheckpoint(checkpoint);
+            runs = checkpoint.getRuns();
+        }
+        else {
+            RunDirectory directory = RunDirectory.read(getRunDirectoryName(),
+                runFile.getChannel());
+            if (directory.getReducer() != config.getReducer()) {
+                throw new IOException("The runs were formed with reducer "
+                    + directory.getReducer().getOptionName() + ", not "
+                    + config.getReducer().getOptionName());
+            }
+            runs = directory.getRuns();
+        }
+        String baseName = config.getMergeInto();
+        boolean replace = baseName != null && new File(baseName)
+            .getCanonicalFile().equals(new File(outputFilename)
+                .getCanonicalFile());
+        String target = replace ? outputFilename + ".tmp" : outputFilename;
+        try (RandomAccessFile baseFile = baseName == null
+            ? null
+            : openBase(baseName);
+            RandomAccessFile outputFile = new RandomAccessFile(target,
+                "rw")) {
+            if (baseFile != null) {
+                runs = new ArrayList<>(runs);
+                runs.add(new Run(baseFile.getChannel(), 0, baseFile.length()
+                    / RECORD_SIZE * RECORD_SIZE));
+            }
+            outputFile.setLength(0);
+            scheduler.merge(runs, outputFile.getChannel());
+            if (config.getBufferPool() != null) {
+                config.getBufferPool().discard(outputFile.getChannel());
+                if (baseFile != null) {
+                    config.getBufferPool().discard(baseFile.getChannel());
                 }
             }
-            minHeap.insert(insertRecord);
-            readedRecords[insertIndex]++;
-            curPosition++;
         }
-
-        // Merge the runs
-
-        // Output buffer for writing
-        Record[] outputBuffer = new Record[(int)runFile.length() / RECORD_SIZE];
-        int outputIndex = 0; // Current index in the output buffer
-        while (minHeap.heapSize() > 0) {
-            // Get the smallest record from the heap
-            Record minRecord = minHeap.removeMin(); // Remove the minimum record
-            // Add it to the output buffer
-            outputBuffer[outputIndex++] = minRecord;
+        index.write(SparseIndex.fileName(target));
+        if (replace) {
+            Files.move(Paths.get(target), Paths.get(outputFilename),
+                StandardCopyOption.REPLACE_EXISTING);
+            Files.move(Paths.get(SparseIndex.fileName(target)), Paths.get(
+                SparseIndex.fileName(outputFilename)),
+                StandardCopyOption.REPLACE_EXISTING);
         }
-
-        RandomAccessFile outputFile = new RandomAccessFile(outputFilename,
-            "rw");
-        // Write the output buffer to the output file when it's full
-        for (int j = 0; j < outputIndex; j++) {
-            // Write records to the output file
-            writeRecord(outputFile, outputBuffer[j]);
+        if (checkpoint != null) {
+            checkpoint.finish();
+            checkpoint = null;
         }
-
+        config.getMetrics().endPhase(phase);
     }
 }
@@ -0,0 +1,1170 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Random;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import student.TestCase;
+
+/**
+ * Tests for run generation and merging in ByteFile
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class ByteFileTest extends TestCase {
+
+    private File dir;
+    private Random random;
+
+    /**
+     * set up for tests
+     */
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bytefile", "");
+        dir.delete();
+        dir.mkdir();
+        random = new Random(42);
+    }
+
+
+    /**
+     * clean up after tests
+     */
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+
+    /**
+     * Write an input file
+     *
+     * @param keys
+     *            the keys, in file order; IDs count up from 0
+     * @return the file name
+     * @throws IOException
+     */
+    private String writeInput(double[] keys) throws IOException {
+        File file = new File(dir, "input.bin");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            BlockWriter writer = new BlockWriter(out.getChannel(), 0, 1024);
+            for (int i = 0; i < keys.length; i++) {
+                writer.write(i, Double.doubleToLongBits(keys[i]));
+            }
+            writer.close();
+        }
+        return file.getPath();
+    }
+
+
+    /**
+     * Sort a file and check that the output is a sorted permutation
+     *
+     * @param keys
+     *            input keys
+     * @param config
+     *            sort configuration
+     * @return the runs that were generated
+     * @throws IOException
+     */
+    private RunDirectory sortAndCheck(double[] keys, SortConfig config)
+        throws IOException {
+        String name = writeInput(keys);
+        ByteFile byteFile = new ByteFile(name, 0, config);
+        RunDirectory directory;
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runs = new RandomAccessFile(name + "_runfile.dat",
+                "rw")) {
+            byteFile.createSortedRuns(in, runs);
+            directory = RunDirectory.read(byteFile.getRunDirectoryName(), runs
+                .getChannel());
+            byteFile.mergeSortedRuns(runs, name + "_sorted.bin");
+        }
+        checkSorted(keys, name + "_sorted.bin", config.getKeyOrder());
+        return directory;
+    }
+
+
+    /**
+     * Sort the same keys with a baseline configuration and then with each
+     * variant, and check that every variant gives the baseline's output
+     * and index
+     *
+     * @param keys
+     *            input keys
+     * @param base
+     *            baseline configuration
+     * @param variants
+     *            configurations that should give the same output
+     * @return the runs generated with the baseline, then with each variant
+     * @throws IOException
+     */
+    private RunDirectory[] assertSameOutput(
+        double[] keys,
+        SortConfig base,
+        SortConfig... variants)
+        throws IOException {
+        RunDirectory[] directories = new RunDirectory[variants.length + 1];
+        directories[0] = sortAndCheck(keys, base);
+        String name = new File(dir, "input.bin_sorted.bin").getPath();
+        byte[] expected = Files.readAllBytes(Paths.get(name));
+        byte[] expectedIndex = Files.readAllBytes(Paths.get(SparseIndex
+            .fileName(name)));
+        for (int i = 0; i < variants.length; i++) {
+            directories[i + 1] = sortAndCheck(keys, variants[i]);
+            assertTrue(Arrays.equals(expected, Files.readAllBytes(Paths.get(
+                name))));
+            assertTrue(Arrays.equals(expectedIndex, Files.readAllBytes(Paths
+                .get(SparseIndex.fileName(name)))));
+        }
+        return directories;
+    }
+
+
+    /**
+     * Check that a file holds every input record once, in sorted order
+     *
+     * @param keys
+     *            input keys; record i has ID i
+     * @param sortedName
+     *            the sorted file
+     * @param order
+     *            the expected order
+     * @throws IOException
+     */
+    static void checkSorted(double[] keys, String sortedName, KeyOrder order)
+        throws IOException {
+        boolean[] seen = new boolean[keys.length];
+        try (RandomAccessFile sorted = new RandomAccessFile(sortedName, "r")) {
+            assertEquals((long)keys.length * Record.BYTES, sorted.length());
+            BlockReader reader = new BlockReader(sorted.getChannel(), 0, sorted
+                .length(), 4096);
+            long lastID = 0;
+            long lastKey = 0;
+            for (int i = 0; i < keys.length; i++) {
+                reader.next();
+                int id = (int)reader.id();
+                assertFalse(seen[id]);
+                seen[id] = true;
+                assertEquals(Double.doubleToLongBits(keys[id]), reader
+                    .keyBits());
+                if (i > 0) {
+                    assertTrue(order.compareRecords(lastID, lastKey, reader
+                        .id(), reader.keyBits()) < 0);
+                }
+                lastID = reader.id();
+                lastKey = reader.keyBits();
+            }
+        }
+    }
+
+
+    /**
+     * Random keys with a tiny memory budget take many runs and passes
+     *
+     * @throws IOException
+     */
+    public void testRandomInput() throws IOException {
+        double[] keys = new double[20000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Double.longBitsToDouble(random.nextLong());
+        }
+        SortConfig config = new SortConfig(4096, 256, 1);
+        RunDirectory directory = sortAndCheck(keys, config);
+        // replacement selection runs average about twice the heap
+        int runs = directory.getRuns().size();
+        assertTrue(runs < keys.length / config.getHeapRecords());
+        long total = 0;
+        for (Run run : directory.getRuns()) {
+            total += run.records();
+        }
+        assertEquals(keys.length, total);
+    }
+
+
+    /**
+     * Presorted input becomes a single run
+     *
+     * @throws IOException
+     */
+    public void testSortedInputIsOneRun() throws IOException {
+        double[] keys = new double[5000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i * 0.5;
+        }
+        RunDirectory directory = sortAndCheck(keys, new SortConfig(4096, 256,
+            1));
+        assertEquals(1, directory.getRuns().size());
+        assertEquals(0.0, Double.longBitsToDouble(directory.getRuns().get(0)
+            .getMinKeyBits()), 0.0);
+        assertEquals(2499.5, Double.longBitsToDouble(directory.getRuns().get(0)
+            .getMaxKeyBits()), 0.0);
+    }
+
+
+    /**
+     * Heavy duplicates and special values in IEEE total order
+     *
+     * @throws IOException
+     */
+    public void testDuplicatesTotalOrder() throws IOException {
+        double[] special = { Double.NaN, -0.0, 0.0, -1, 1,
+            Double.NEGATIVE_INFINITY, Double.MIN_VALUE };
+        double[] keys = new double[7000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = special[random.nextInt(special.length)];
+        }
+        SortConfig config = new SortConfig(8192, 512, 1);
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        sortAndCheck(keys, config);
+    }
+
+
+    /**
+     * An empty input gives an empty output
+     *
+     * @throws IOException
+     */
+    public void testEmptyInput() throws IOException {
+        assertEquals(0, sortAndCheck(new double[0], new SortConfig())
+            .getRuns().size());
+    }
+
+
+    /**
+     * New input merged into an existing sorted file, in place, gives the
+     * sort of everything, and only the new records become runs
+     *
+     * @throws IOException
+     */
+    public void testIncrementalMerge() throws IOException {
+        double[] keys = new double[30000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(5000);
+        }
+        sortAndCheck(Arrays.copyOf(keys, 20000), new SortConfig(8192, 256,
+            1));
+        String sortedName = new File(dir, "input.bin_sorted.bin").getPath();
+
+        String deltaName = new File(dir, "delta.bin").getPath();
+        try (RandomAccessFile out = new RandomAccessFile(deltaName, "rw")) {
+            BlockWriter writer = new BlockWriter(out.getChannel(), 0, 1024);
+            for (int i = 20000; i < keys.length; i++) {
+                writer.write(i, Double.doubleToLongBits(keys[i]));
+            }
+            writer.close();
+        }
+        SortConfig config = new SortConfig(8192, 256, 1);
+        config.setMergeInto(sortedName);
+        ByteFile byteFile = new ByteFile(deltaName, 0, config);
+        try (RandomAccessFile in = new RandomAccessFile(deltaName, "r");
+            RandomAccessFile runs = new RandomAccessFile(deltaName
+                + "_runfile.dat", "rw")) {
+            byteFile.createSortedRuns(in, runs);
+            byteFile.mergeSortedRuns(runs, sortedName);
+        }
+        checkSorted(keys, sortedName, KeyOrder.UNSIGNED_BITS);
+        // the delta is written once as runs and once merged
+        assertEquals(10000 + keys.length, config.getMetrics()
+            .getRecordsWritten());
+        try (SortedFile sorted = new SortedFile(sortedName)) {
+            assertEquals(keys.length, sorted.range(0, 5000).size());
+        }
+
+        config = new SortConfig(8192, 256, 1);
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        config.setMergeInto(sortedName);
+        byteFile = new ByteFile(deltaName, 0, config);
+        try (RandomAccessFile in = new RandomAccessFile(deltaName, "r");
+            RandomAccessFile runs = new RandomAccessFile(deltaName
+                + "_runfile.dat", "rw")) {
+            byteFile.createSortedRuns(in, runs);
+            byteFile.mergeSortedRuns(runs, deltaName + "_sorted.bin");
+            fail("A file sorted in another order should be refused");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("sorted in"));
+        }
+
+        config.setMergeInto(null);
+        config.setDurable(true);
+        try {
+            config.setMergeInto(sortedName);
+            fail("An incremental sort cannot be durable");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("durable"));
+        }
+    }
+
+
+    /**
+     * Run a partial sort of the input written by writeInput
+     *
+     * @param config
+     *            sort configuration with a top K or a key range
+     * @return the output
+     * @throws IOException
+     */
+    private byte[] select(SortConfig config) throws IOException {
+        String name = new File(dir, "input.bin").getPath();
+        String outputName = name + "_partial.bin";
+        ByteFile byteFile = new ByteFile(name, 0, config);
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runs = new RandomAccessFile(name + "_runfile.dat",
+                "rw")) {
+            byteFile.selectRecords(in, runs, outputName);
+        }
+        try (SortedFile sorted = new SortedFile(outputName)) {
+            // the index matches the output
+            assertNotNull(sorted);
+        }
+        return Files.readAllBytes(Paths.get(outputName));
+    }
+
+
+    /**
+     * Return the records of a sorted file with keys in [lo, hi), at most
+     * k of them
+     *
+     * @param sorted
+     *            the sorted file's bytes
+     * @param lo
+     *            smallest key kept
+     * @param hi
+     *            key past the ones kept
+     * @param k
+     *            most records kept
+     * @return the records' bytes
+     */
+    private static byte[] slice(byte[] sorted, double lo, double hi, int k) {
+        ByteBuffer in = ByteBuffer.wrap(sorted);
+        ByteBuffer out = ByteBuffer.allocate(sorted.length);
+        while (in.hasRemaining() && out.position() < k * Record.BYTES) {
+            long id = in.getLong();
+            double key = in.getDouble();
+            if (Double.compare(key, lo) >= 0 && Double.compare(key, hi) < 0) {
+                out.putLong(id);
+                out.putDouble(key);
+            }
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+
+    /**
+     * Top-K and key-range sorts give the matching part of the full sort,
+     * in memory when the result fits and through runs when it does not
+     *
+     * @throws IOException
+     */
+    public void testTopKAndRange() throws IOException {
+        double[] keys = new double[20000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(4000) / 1000.0 - 2;
+        }
+        SortConfig full = new SortConfig(8192, 256, 1);
+        full.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        sortAndCheck(keys, full);
+        byte[] sorted = Files.readAllBytes(Paths.get(new File(dir,
+            "input.bin_sorted.bin").getPath()));
+        double inf = Double.POSITIVE_INFINITY;
+
+        // K of 100 fits the 480-record heap; 5000 does not
+        for (int k : new int[] { 100, 5000 }) {
+            SortConfig config = new SortConfig(8192, 256, 1);
+            config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+            config.setTopK(k);
+            assertTrue(Arrays.equals(slice(sorted, -inf, inf, k), select(
+                config)));
+            long runBytes = new File(dir, "input.bin_runfile.dat").length();
+            assertEquals(k == 100, runBytes == 0);
+        }
+
+        // the merge stops early while blocks are still being read ahead
+        SortConfig ahead = new SortConfig(16384, 256, 4);
+        ahead.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        ahead.setTopK(2000);
+        assertTrue(Arrays.equals(slice(sorted, -inf, inf, 2000), select(
+            ahead)));
+
+        // about 200 records in the narrow range, 10000 in the wide one
+        for (double width : new double[] { 0.04, 2 }) {
+            SortConfig config = new SortConfig(8192, 256, 1);
+            config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+            config.setKeyRange(-width / 2, width / 2);
+            assertTrue(Arrays.equals(slice(sorted, -width / 2, width / 2,
+                keys.length), select(config)));
+            config.setTopK(150);
+            assertTrue(Arrays.equals(slice(sorted, -width / 2, width / 2,
+                150), select(config)));
+        }
+
+        // [-5, 5) is inverted in raw bit order, and [1, 1) is empty
+        SortConfig config = new SortConfig(8192, 256, 1);
+        for (double lo : new double[] { -5, 1 }) {
+            try {
+                config.setKeyRange(lo, Math.abs(lo));
+                fail("An empty key range should be refused");
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("UNSIGNED_BITS"));
+            }
+        }
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        config.setKeyRange(-5, 5);
+        assertTrue(config.hasKeyRange());
+        try {
+            config.setKeyOrder(KeyOrder.UNSIGNED_BITS);
+            fail("The key order should not empty the range");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("[-5.0, 5.0)"));
+        }
+    }
+
+
+    /**
+     * Sort the input written by writeInput
+     *
+     * @param config
+     *            sort configuration
+     * @return the output
+     * @throws IOException
+     */
+    private byte[] sort(SortConfig config) throws IOException {
+        String name = new File(dir, "input.bin").getPath();
+        ByteFile byteFile = new ByteFile(name, 0, config);
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runs = new RandomAccessFile(name + "_runfile.dat",
+                "rw")) {
+            byteFile.createSortedRuns(in, runs);
+            byteFile.mergeSortedRuns(runs, name + "_sorted.bin");
+        }
+        try (SortedFile sorted = new SortedFile(name + "_sorted.bin")) {
+            // the index matches the output
+            assertNotNull(sorted);
+        }
+        return Files.readAllBytes(Paths.get(name + "_sorted.bin"));
+    }
+
+
+    /**
+     * Collapse the duplicate keys of a sorted file the slow way
+     *
+     * @param sorted
+     *            the sorted file's bytes
+     * @param reducer
+     *            how duplicates collapse
+     * @return the reduced records' bytes
+     */
+    private static byte[] reduce(byte[] sorted, Reducer reducer) {
+        ByteBuffer in = ByteBuffer.wrap(sorted);
+        ByteBuffer out = ByteBuffer.allocate(sorted.length);
+        while (in.hasRemaining()) {
+            long id = in.getLong();
+            long keyBits = in.getLong();
+            int last = out.position() - Record.BYTES;
+            boolean same = last >= 0 && out.getLong(last + 8) == keyBits;
+            if (reducer == Reducer.COUNT) {
+                if (same) {
+                    out.putLong(last, out.getLong(last) + 1);
+                    continue;
+                }
+                id = 1;
+            }
+            else if (same && (reducer == Reducer.FIRST || out.getLong(
+                last) == id)) {
+                continue;
+            }
+            out.putLong(id);
+            out.putLong(keyBits);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+
+    /**
+     * Every reducer collapses duplicates the same way whichever engine
+     * forms the runs, compressed or not, over several merge passes
+     *
+     * @throws IOException
+     */
+    public void testReducers() throws IOException {
+        // every record appears twice, and keys repeat about 15 times
+        double[] keys = new double[6000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(400);
+        }
+        File file = new File(dir, "input.bin");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            BlockWriter writer = new BlockWriter(out.getChannel(), 0, 1024);
+            for (int i = 0; i < 2 * keys.length; i++) {
+                int id = i % keys.length;
+                writer.write(id, Double.doubleToLongBits(keys[id]));
+            }
+            writer.close();
+        }
+        byte[] sorted = sort(new SortConfig(4096, 256, 1));
+        assertEquals(2L * keys.length * Record.BYTES, sorted.length);
+
+        for (Reducer reducer : new Reducer[] { Reducer.FIRST, Reducer.COUNT,
+            Reducer.DISTINCT }) {
+            byte[] expected = reduce(sorted, reducer);
+            for (int engine = 0; engine < 3; engine++) {
+                SortConfig config = new SortConfig(4096, 256, 1);
+                config.setReducer(reducer);
+                config.setMergeWorkers(2);
+                if (engine == 1) {
+                    config.setRunEngine(RunEngine.OFF_HEAP);
+                    config.setCompressed(true);
+                }
+                else if (engine == 2) {
+                    config.setRunEngine(RunEngine.RADIX);
+                    config.setWorkers(2);
+                }
+                assertTrue(Arrays.equals(expected, sort(config)));
+            }
+        }
+        assertEquals(400 * Record.BYTES, reduce(sorted,
+            Reducer.COUNT).length);
+        assertEquals(keys.length * Record.BYTES, reduce(sorted,
+            Reducer.DISTINCT).length);
+        assertEquals(Reducer.FIRST, Reducer.fromOptionName("min-id"));
+
+        // counted runs cannot be merged as if they kept every record
+        SortConfig counted = new SortConfig(4096, 256, 1);
+        counted.setReducer(Reducer.COUNT);
+        String name = file.getPath();
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runs = new RandomAccessFile(name + "_runfile.dat",
+                "rw")) {
+            new ByteFile(name, 0, counted).createSortedRuns(in, runs);
+            new ByteFile(name, 0, new SortConfig(4096, 256, 1))
+                .mergeSortedRuns(runs, name + "_sorted.bin");
+            fail("The runs should have been refused");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("reducer count"));
+        }
+    }
+
+
+    /**
+     * Parallel run generation gives the same output as one thread
+     *
+     * @throws IOException
+     */
+    public void testParallelMatchesSerial() throws IOException {
+        double[] keys = new double[30000];
+        for (int i = 0; i < keys.length; i++) {
+            // few distinct keys, so ties between IDs matter
+            keys[i] = random.nextInt(100);
+        }
+        SortConfig config = new SortConfig(16384, 512, 1);
+        config.setWorkers(4);
+        RunDirectory[] directories = assertSameOutput(keys, new SortConfig(
+            16384, 512, 1), config);
+        assertTrue(directories[1].getRuns().size() > 1);
+    }
+
+
+    /**
+     * A reader thread that dies of an unchecked exception fails the run
+     * phase instead of leaving it waiting forever
+     *
+     * @throws IOException
+     */
+    public void testParallelReaderFailure() throws IOException {
+        String name = writeInput(new double[5000]);
+        SortConfig config = new SortConfig(4096, 256, 1);
+        config.setWorkers(2);
+        try (FileOutputStream out = new FileOutputStream(name, true);
+            RandomAccessFile runs = new RandomAccessFile(name + "_runfile.dat",
+                "rw")) {
+            // a channel that cannot be read throws an unchecked exception
+            new ParallelRunGenerator(config).generate(out.getChannel(),
+                new File(name).length(), runs.getChannel());
+            fail("The run phase should have failed");
+        }
+        catch (NonReadableChannelException e) {
+            assertNotNull(e);
+        }
+    }
+
+
+    /**
+     * A run phase whose writer fails stops its reader without closing the
+     * caller's input channel
+     *
+     * @throws IOException
+     */
+    public void testParallelWriterFailure() throws IOException {
+        String name = writeInput(new double[50000]);
+        SortConfig config = new SortConfig(4096, 256, 1);
+        config.setWorkers(2);
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runs = new RandomAccessFile(name, "r")) {
+            try {
+                // a run channel that cannot be written fails the writer
+                new ParallelRunGenerator(config).generate(in.getChannel(), in
+                    .length(), runs.getChannel());
+                fail("The run phase should have failed");
+            }
+            catch (NonWritableChannelException e) {
+                assertNotNull(e);
+            }
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse(thread.getName().equals("run-reader"));
+            }
+            assertTrue(in.getChannel().isOpen());
+            in.seek(in.length() - Record.BYTES);
+            in.readLong();
+        }
+    }
+
+
+    /**
+     * Merging the final pass in key ranges gives the same output and index
+     * as the serial merge, even when few keys repeat across every range
+     *
+     * @throws IOException
+     */
+    public void testParallelMergeMatchesSerial() throws IOException {
+        double[] keys = new double[25000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(3);
+        }
+        SortConfig[] variants = new SortConfig[2];
+        for (int v = 0; v < variants.length; v++) {
+            variants[v] = new SortConfig(8192, 256, 1 + 2 * v);
+            variants[v].setMergeWorkers(4);
+            variants[v].setMapped(v == 1);
+        }
+        RunDirectory[] directories = assertSameOutput(keys, new SortConfig(
+            8192, 256, 1), variants);
+        for (RunDirectory directory : directories) {
+            assertTrue(directory.getRuns().size() > 4);
+        }
+    }
+
+
+    /**
+     * Read-ahead and write-behind give the same output as synchronous I/O
+     *
+     * @throws IOException
+     */
+    public void testAsyncIOMatchesSync() throws IOException {
+        double[] keys = new double[25000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextGaussian();
+        }
+        SortConfig parallel = new SortConfig(16384, 256, 3);
+        parallel.setWorkers(2);
+        assertSameOutput(keys, new SortConfig(8192, 256, 1), parallel,
+            new SortConfig(16384, 256, 3));
+    }
+
+
+    /**
+     * 4-ary and 8-ary selection heaps form the same runs and output as the
+     * binary heap, duplicate keys included
+     *
+     * @throws IOException
+     */
+    public void testHeapArityMatchesBinary() throws IOException {
+        double[] keys = new double[25000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(100);
+        }
+        SortConfig[] variants = new SortConfig[2];
+        for (int v = 0; v < variants.length; v++) {
+            variants[v] = new SortConfig(8192, 256, 1);
+            variants[v].setHeapArity(4 << v);
+        }
+        RunDirectory[] directories = assertSameOutput(keys, new SortConfig(
+            8192, 256, 1), variants);
+        for (RunDirectory directory : directories) {
+            assertEquals(directories[0].getRuns().size(), directory.getRuns()
+                .size());
+        }
+        try {
+            new SortConfig().setHeapArity(3);
+            fail("A heap arity of 3 should be refused");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("2, 4 or 8"));
+        }
+    }
+
+
+    /**
+     * Reading and writing through a buffer pool gives the same output,
+     * whether the pool is tiny or holds whole runs
+     *
+     * @throws IOException
+     */
+    public void testBufferPoolMatchesSync() throws IOException {
+        double[] keys = new double[25000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextGaussian();
+        }
+        int[] frames = { 1, 3, 64 };
+        BufferPool[] pools = new BufferPool[frames.length];
+        SortConfig[] variants = new SortConfig[frames.length + 1];
+        for (int v = 0; v < frames.length; v++) {
+            pools[v] = new BufferPool(frames[v], 256);
+            variants[v] = new SortConfig(8192, 256, 1);
+            variants[v].setBufferPool(pools[v]);
+        }
+        SortConfig compressed = new SortConfig(16384, 256, 3);
+        compressed.setBufferPool(new BufferPool(16, 256));
+        compressed.setCompressed(true);
+        variants[frames.length] = compressed;
+        assertSameOutput(keys, new SortConfig(8192, 256, 1), variants);
+        for (BufferPool pool : pools) {
+            assertTrue(pool.getMisses() > 0);
+            assertTrue(pool.getWriteBacks() > 0);
+        }
+    }
+
+
+    /**
+     * The block summary prints what printf and DecimalFormat print, from
+     * the sparse index or, without one, from the sorted file
+     *
+     * @throws IOException
+     */
+    public void testPrintFirstRecords() throws IOException {
+        double[] keys = new double[3000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i % 7 == 0
+                ? Double.longBitsToDouble(random.nextLong())
+                : random.nextInt(100000) / 64.0 - 500;
+        }
+        SortConfig config = new SortConfig(4096, 256, 1);
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        sortAndCheck(keys, config);
+        String sortedName = new File(dir, "input.bin_sorted.bin").getPath();
+
+        StringBuilder expected = new StringBuilder();
+        DecimalFormat format = new DecimalFormat("0.################E0");
+        byte[] sorted = Files.readAllBytes(Paths.get(sortedName));
+        ByteBuffer records = ByteBuffer.wrap(sorted);
+        for (int block = 0; block * 256 < sorted.length; block++) {
+            expected.append(String.format("%d %s ", records.getLong(block
+                * 256), format.format(records.getDouble(block * 256 + 8))));
+            if ((block + 1) % 5 == 0) {
+                expected.append(System.lineSeparator());
+            }
+        }
+
+        ByteFile byteFile = new ByteFile(sortedName, 0, config);
+        systemOut().clearHistory();
+        long blocksBefore = config.getMetrics().getBlocksRead();
+        byteFile.printFirstRecords(sortedName);
+        assertEquals(expected.toString(), systemOut().getHistory());
+        assertEquals(blocksBefore, config.getMetrics().getBlocksRead());
+
+        assertTrue(new File(SparseIndex.fileName(sortedName)).delete());
+        systemOut().clearHistory();
+        byteFile.printFirstRecords(sortedName);
+        assertEquals(expected.toString(), systemOut().getHistory());
+        assertEquals(blocksBefore + (sorted.length + 255) / 256, config
+            .getMetrics().getBlocksRead());
+    }
+
+
+    /**
+     * Memory-mapped I/O gives the same output as reading and writing
+     *
+     * @throws IOException
+     */
+    public void testMappedMatchesSync() throws IOException {
+        double[] keys = new double[25000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextDouble();
+        }
+        SortConfig mapped = new SortConfig(8192, 256, 1);
+        mapped.setMapped(true);
+        SortConfig parallel = new SortConfig(8192, 256, 1);
+        parallel.setMapped(true);
+        parallel.setWorkers(3);
+        assertSameOutput(keys, new SortConfig(8192, 256, 1), mapped,
+            parallel);
+    }
+
+
+    /**
+     * The off-heap engine gives the same output as replacement selection
+     *
+     * @throws IOException
+     */
+    public void testOffHeapMatchesSelection() throws IOException {
+        double[] keys = new double[30000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(50) - 25.5;
+        }
+        SortConfig selection = new SortConfig(8192, 256, 1);
+        selection.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        SortConfig offHeap = new SortConfig(8192, 256, 1);
+        offHeap.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        offHeap.setRunEngine(RunEngine.OFF_HEAP);
+        RunDirectory[] directories = assertSameOutput(keys, selection,
+            offHeap);
+        // the chunk is the whole budget
+        assertEquals(keys.length / (8192 / Record.BYTES) + 1, directories[1]
+            .getRuns().size());
+
+        // options the engine would ignore are refused, whichever is set
+        // first
+        SortConfig buffered = new SortConfig(8192, 256, 2);
+        try {
+            buffered.setRunEngine(RunEngine.OFF_HEAP);
+            fail("The off-heap engine ignores I/O buffers");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("off-heap"));
+        }
+        try {
+            offHeap.setMapped(true);
+            fail("The off-heap engine ignores mapped files");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("off-heap"));
+        }
+        try {
+            offHeap.setWorkers(2);
+            fail("The off-heap engine ignores workers");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("off-heap"));
+        }
+        String[][] ignored = { { "--workers", "4" }, { "--mmap" }, {
+            "--io-buffers", "3" } };
+        for (String[] option : ignored) {
+            String[] options = new String[option.length + 2];
+            options[0] = "--engine";
+            options[1] = "offheap";
+            System.arraycopy(option, 0, options, 2, option.length);
+            try {
+                SortConfig.fromOptions(options);
+                fail("--engine offheap ignores " + option[0]);
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("off-heap"));
+            }
+        }
+    }
+
+
+    /**
+     * The radix engine gives the same output as replacement selection
+     *
+     * @throws IOException
+     */
+    public void testRadixMatchesSelection() throws IOException {
+        double[] keys = new double[30000];
+        for (int i = 0; i < keys.length; i++) {
+            // equal keys, small keys and keys of both signs
+            keys[i] = i % 3 == 0
+                ? random.nextInt(8)
+                : Double.longBitsToDouble(random.nextLong());
+        }
+        SortConfig[] configs = new SortConfig[3];
+        for (int c = 0; c < configs.length; c++) {
+            configs[c] = new SortConfig(8192, 256, 1);
+            configs[c].setKeyOrder(KeyOrder.TOTAL_ORDER);
+            if (c > 0) {
+                configs[c].setRunEngine(RunEngine.RADIX);
+                configs[c].setWorkers(c == 1 ? 1 : 3);
+            }
+        }
+        assertSameOutput(keys, configs[0], configs[1], configs[2]);
+    }
+
+
+    /**
+     * Run a durable sort that dies while saving its checkpoint
+     *
+     * @param name
+     *            input file name
+     * @param config
+     *            sort configuration
+     * @param runs
+     *            die on recording this many runs, in the run phase
+     * @param passes
+     *            die on recording this many passes, in the merge
+     * @throws IOException
+     */
+    private void crashingSort(
+        String name,
+        SortConfig config,
+        int runs,
+        int passes)
+        throws IOException {
+        ByteFile byteFile = new ByteFile(name, 0, config) {
+            @Override
+            SortCheckpoint openCheckpoint() {
+                return new SortCheckpoint(new File(getCheckpointName()),
+                    new File(name), config.getKeyOrder()) {
+                    @Override
+                    void save() throws IOException {
+                        if (isRunPhaseDone()
+                            ? getPassesDone() >= passes
+                            : getRuns().size() >= runs) {
+                            throw new IOException("Simulated crash");
+                        }
+                        super.save();
+                    }
+                };
+            }
+        };
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runFile = new RandomAccessFile(name
+                + "_runfile.dat", "rw")) {
+            byteFile.createSortedRuns(in, runFile);
+            byteFile.mergeSortedRuns(runFile, name + "_sorted.bin");
+            fail("The sort should have died");
+        }
+        catch (IOException e) {
+            assertEquals("Simulated crash", e.getMessage());
+        }
+    }
+
+
+    /**
+     * A durable sort that dies resumes from its checkpoint and gives the
+     * same output as one that did not
+     *
+     * @throws IOException
+     */
+    public void testDurableResumes() throws IOException {
+        double[] keys = new double[20000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(1000) - 500.5;
+        }
+        SortConfig config = new SortConfig(2048, 256, 1);
+        sortAndCheck(keys, config);
+        String name = new File(dir, "input.bin").getPath();
+        String sortedName = name + "_sorted.bin";
+        byte[] expected = Files.readAllBytes(Paths.get(sortedName));
+        File manifest = new File(name + "_sort.ckpt");
+
+        // Die in the run phase: the runs saved before are kept
+        config.setDurable(true);
+        crashingSort(name, config, 100, 0);
+        try (RandomAccessFile runFile = new RandomAccessFile(name
+            + "_runfile.dat", "rw")) {
+            SortCheckpoint checkpoint = new SortCheckpoint(manifest, new File(
+                name), config.getKeyOrder());
+            assertTrue(checkpoint.restore(runFile.getChannel()));
+            assertEquals(99, checkpoint.getRuns().size());
+            assertFalse(checkpoint.isRunPhaseDone());
+            assertEquals(checkpoint.runFileEnd(), checkpoint.getInputDone());
+            assertEquals(checkpoint.runFileEnd(), runFile.length());
+
+            // runs that kept every record cannot be resumed as counts
+            assertFalse(new SortCheckpoint(manifest, new File(name), config
+                .getKeyOrder(), Reducer.COUNT).restore(runFile
+                    .getChannel()));
+        }
+
+        // Resume, then die after the first merge pass
+        crashingSort(name, config, Integer.MAX_VALUE, 2);
+        try (RandomAccessFile runFile = new RandomAccessFile(name
+            + "_runfile.dat", "rw")) {
+            SortCheckpoint checkpoint = new SortCheckpoint(manifest, new File(
+                name), config.getKeyOrder());
+            assertTrue(checkpoint.restore(runFile.getChannel()));
+            assertEquals(1, checkpoint.getPassesDone());
+            for (Run run : checkpoint.getRuns()) {
+                // intermediate runs carry their real key bounds
+                BlockReader reader = new BlockReader(run.getChannel(), run
+                    .getStart(), run.getEnd(), 256);
+                reader.next();
+                assertEquals(reader.keyBits(), run.getMinKeyBits());
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+                assertEquals(reader.keyBits(), run.getMaxKeyBits());
+            }
+            for (RandomAccessFile handle : checkpoint.getHandles().values()) {
+                handle.close();
+            }
+        }
+
+        // Finish: same output, and nothing left behind
+        ByteFile byteFile = new ByteFile(name, 0, config);
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runFile = new RandomAccessFile(name
+                + "_runfile.dat", "rw")) {
+            byteFile.createSortedRuns(in, runFile);
+            byteFile.mergeSortedRuns(runFile, sortedName);
+        }
+        assertTrue(Arrays.equals(expected, Files.readAllBytes(Paths.get(
+            sortedName))));
+        assertFalse(manifest.exists());
+        for (File file : dir.listFiles()) {
+            assertFalse(file.getName().endsWith(".tmp"));
+        }
+    }
+
+
+    /**
+     * A durable mapped writer forces every window it fills, and what it
+     * wrote across windows reads back in order
+     *
+     * @throws IOException
+     */
+    public void testMappedDurableWriter() throws IOException {
+        File file = new File(dir, "mapped.bin");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            BlockWriter writer = BlockWriter.mapped(out.getChannel(), 0,
+                4096);
+            writer.setDurable();
+            for (int i = 0; i < 1000; i++) {
+                writer.write(i, Double.doubleToLongBits(i / 4.0));
+            }
+            writer.force();
+            writer.close();
+            assertEquals(1000L * Record.BYTES, out.length());
+            BlockReader reader = new BlockReader(out.getChannel(), 0, out
+                .length(), 256);
+            for (int i = 0; i < 1000; i++) {
+                reader.next();
+                assertEquals(i, reader.id());
+                assertEquals(Double.doubleToLongBits(i / 4.0), reader
+                    .keyBits());
+            }
+            assertFalse(reader.hasNext());
+        }
+    }
+
+
+    /**
+     * Compressed runs give the same output with every engine and I/O
+     * mode, in fewer bytes
+     *
+     * @throws IOException
+     */
+    public void testCompressedMatchesRaw() throws IOException {
+        double[] keys = new double[20000];
+        for (int i = 0; i < keys.length; i++) {
+            // dense keys, duplicates, both signs and the odd special value
+            keys[i] = i % 101 == 0
+                ? Double.longBitsToDouble(random.nextLong())
+                : random.nextInt(5000) / 8.0 - 300;
+        }
+        // each engine and I/O mode raw, then compressed; the off-heap
+        // engine takes neither mapped files nor I/O buffers
+        SortConfig[] variants = new SortConfig[(RunEngine.values().length
+            * 2 - 1) * 2];
+        int v = 0;
+        for (RunEngine engine : RunEngine.values()) {
+            for (int buffers = 1; buffers <= 2; buffers++) {
+                if (engine == RunEngine.OFF_HEAP && buffers == 2) {
+                    continue;
+                }
+                for (int c = 0; c < 2; c++) {
+                    variants[v] = new SortConfig(4096, 256, buffers);
+                    variants[v].setKeyOrder(KeyOrder.TOTAL_ORDER);
+                    variants[v].setMapped(buffers == 2);
+                    variants[v].setRunEngine(engine);
+                    variants[v].setCompressed(c == 1);
+                    v++;
+                }
+            }
+        }
+        SortConfig config = new SortConfig(4096, 256, 1);
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        RunDirectory[] directories = assertSameOutput(keys, config,
+            variants);
+        String name = new File(dir, "input.bin").getPath();
+        String sortedName = name + "_sorted.bin";
+        byte[] expected = Files.readAllBytes(Paths.get(sortedName));
+        for (v = 1; v < variants.length; v += 2) {
+            long records = 0;
+            for (Run run : directories[v + 1].getRuns()) {
+                assertTrue(run.isCompressed());
+                assertTrue(run.bytes() < run.records() * Record.BYTES);
+                records += run.records();
+            }
+            assertEquals(keys.length, records);
+            SortMetrics metrics = variants[v].getMetrics();
+            assertEquals(metrics.getRecordsRead(), metrics
+                .getRecordsWritten());
+            assertTrue(metrics.getBytesWritten() < variants[v - 1]
+                .getMetrics().getBytesWritten());
+        }
+
+        // a durable sort resumes from compressed runs
+        config = new SortConfig(2048, 256, 1);
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        config.setCompressed(true);
+        config.setDurable(true);
+        crashingSort(name, config, 50, 0);
+        crashingSort(name, config, Integer.MAX_VALUE, 1);
+        ByteFile byteFile = new ByteFile(name, 0, config);
+        try (RandomAccessFile in = new RandomAccessFile(name, "r");
+            RandomAccessFile runFile = new RandomAccessFile(name
+                + "_runfile.dat", "rw")) {
+            byteFile.createSortedRuns(in, runFile);
+            byteFile.mergeSortedRuns(runFile, sortedName);
+        }
+        assertTrue(Arrays.equals(expected, Files.readAllBytes(Paths.get(
+            sortedName))));
+
+        try {
+            new SortConfig(64, 16, 1).setCompressed(true);
+            fail("16-byte blocks cannot hold a compressed record");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("at least"));
+        }
+    }
+
+
+    /**
+     * The metrics add up, and can be read through JMX
+     *
+     * @throws IOException
+     * @throws JMException
+     */
+    public void testMetrics() throws IOException, JMException {
+        double[] keys = new double[20000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextDouble();
+        }
+        SortConfig config = new SortConfig(4096, 256, 2);
+        RunDirectory directory = sortAndCheck(keys, config);
+        SortMetrics metrics = config.getMetrics();
+        assertEquals(directory.getRuns().size(), metrics.getRunsProduced());
+        assertEquals(keys.length, metrics.getAverageRunLength()
+            * metrics.getRunsProduced(), 1e-6);
+        // every merge pass reads as much as it writes, and the run phase
+        // writes what it reads
+        assertEquals(metrics.getRecordsRead(), metrics.getRecordsWritten());
+        assertTrue(metrics.getRecordsWritten() > 2 * keys.length);
+        assertTrue(metrics.getMergePasses() > 1);
+        assertTrue(metrics.getComparisons() > keys.length);
+        assertTrue(metrics.getBlocksRead() >= metrics.getRecordsRead() / 16);
+
+        metrics.register();
+        assertEquals(metrics.getRunsProduced(), ManagementFactory
+            .getPlatformMBeanServer().getAttribute(new ObjectName(
+                SortMetrics.OBJECT_NAME), "RunsProduced"));
+    }
+}
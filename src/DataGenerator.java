@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// -------------------------------------------------------------------------
+/**
+ * Writes input files of 16-byte records (long ID, double key) of any size.
+ *
+ * Record i gets ID i and the key KeyDistribution gives for it. The file is
+ * cut into slices of whole blocks, and each slice is written by its own
+ * thread with positional writes on one shared channel. Generation is
+ * deterministic for a seed, whatever the number of threads.
+ *
+ * Usage: java DataGenerator [--dist zipf] [--seed n] [--threads n]
+ * <size> <filename>
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class DataGenerator {
+    /**
+     * bytes per write
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * records written by one task
+     */
+    private static final long SLICE_RECORDS = 1L << 22;
+
+    /**
+     * Utility class; not instantiated
+     */
+    private DataGenerator() {
+        // static methods only
+    }
+
+
+    /**
+     * Generate a file from the command line
+     *
+     * @param args
+     *            options, then the size in bytes (such as 64m or 2g) and
+     *            the file name
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java DataGenerator [--dist <name>]"
+                + " [--seed <n>] [--threads <n>] <size> <filename>");
+            return;
+        }
+        KeyDistribution dist = KeyDistribution.UNIFORM;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length - 2; i++) {
+            switch (args[i]) {
+                case "--dist":
+                    dist = KeyDistribution.fromOptionName(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option "
+                        + args[i]);
+            }
+        }
+        long records = SortConfig.parseSize(args[args.length - 2])
+            / Record.BYTES;
+        generate(new File(args[args.length - 1]), records, dist, seed,
+            threads);
+    }
+
+
+    /**
+     * Write a file of generated records, replacing any old contents
+     *
+     * @param file
+     *            the file
+     * @param records
+     *            number of records
+     * @param dist
+     *            key distribution
+     * @param seed
+     *            seed of the data set
+     * @param threads
+     *            number of writing threads
+     * @throws IOException
+     */
+    public static void generate(
+        File file,
+        long records,
+        KeyDistribution dist,
+        long seed,
+        int threads)
+        throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(records * Record.BYTES);
+            FileChannel channel = out.getChannel();
+            List<Future<Void>> slices = new ArrayList<>();
+            for (long from = 0; from < records; from += SLICE_RECORDS) {
+                long start = from;
+                long end = Math.min(records, from + SLICE_RECORDS);
+                slices.add(pool.submit(() -> {
+                    writeSlice(channel, start, end, records, dist, seed);
+                    return null;
+                }));
+            }
+            for (Future<Void> slice : slices) {
+                AsyncIO.await(slice);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Write the records in a range of indexes
+     *
+     * @param channel
+     *            channel of the file
+     * @param from
+     *            first record index
+     * @param to
+     *            index just past the last record
+     * @param records
+     *            records in the whole file
+     * @param dist
+     *            key distribution
+     * @param seed
+     *            seed of the data set
+     * @throws IOException
+     */
+    private static void writeSlice(
+        FileChannel channel,
+        long from,
+        long to,
+        long records,
+        KeyDistribution dist,
+        long seed)
+        throws IOException {
+        try (BlockWriter writer = new BlockWriter(channel, from * Record.BYTES,
+            BLOCK_SIZE)) {
+            for (long i = from; i < to; i++) {
+                writer.write(i, Double.doubleToRawLongBits(dist.key(seed, i,
+                    records)));
+            }
+        }
+    }
+
+
+    /**
+     * Check that a file holds every generated record once, in order
+     *
+     * @param file
+     *            the sorted file
+     * @param records
+     *            number of records generated
+     * @param dist
+     *            key distribution
+     * @param seed
+     *            seed of the data set
+     * @param order
+     *            order the file should be in
+     * @return null if the file is right, otherwise what is wrong
+     * @throws IOException
+     */
+    public static String verify(
+        File file,
+        long records,
+        KeyDistribution dist,
+        long seed,
+        KeyOrder order)
+        throws IOException {
+        if (file.length() != records * Record.BYTES) {
+            return file + " has " + file.length() + " bytes, not "
+                + records * Record.BYTES;
+        }
+        long[] seen = new long[(int)((records + 63) >>> 6)];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            BlockReader reader = new BlockReader(in.getChannel(), 0, file
+                .length(), BLOCK_SIZE);
+            long lastID = 0;
+            long lastKey = 0;
+            for (long i = 0; i < records; i++) {
+                reader.next();
+                long id = reader.id();
+                if (id < 0 || id >= records) {
+                    return "record " + i + " has unknown ID " + id;
+                }
+                if ((seen[(int)(id >>> 6)] & (1L << id)) != 0) {
+                    return "record " + i + " repeats ID " + id;
+                }
+                seen[(int)(id >>> 6)] |= 1L << id;
+                long expected = Double.doubleToLongBits(dist.key(seed, id,
+                    records));
+                if (reader.keyBits() != expected) {
+                    return "record " + i + " has the wrong key for ID " + id;
+                }
+                if (i > 0 && order.compareRecords(lastID, lastKey, id, reader
+                    .keyBits()) >= 0) {
+                    return "record " + i + " is out of order";
+                }
+                lastID = id;
+                lastKey = reader.keyBits();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import student.TestCase;
+
+/**
+ * Tests for DataGenerator and KeyDistribution
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class DataGeneratorTest extends TestCase {
+
+    private File dir;
+
+    /**
+     * set up for tests
+     */
+    public void setUp() throws IOException {
+        dir = File.createTempFile("datagen", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+
+    /**
+     * clean up after tests
+     */
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+
+    /**
+     * The output does not depend on the number of threads
+     *
+     * @throws IOException
+     */
+    public void testThreadsGiveSameFile() throws IOException {
+        File one = new File(dir, "one.bin");
+        File four = new File(dir, "four.bin");
+        long records = 3 * (1L << 22) / 2; // more than one slice
+        DataGenerator.generate(one, records, KeyDistribution.ZIPF, 7, 1);
+        DataGenerator.generate(four, records, KeyDistribution.ZIPF, 7, 4);
+        assertEquals(records * Record.BYTES, one.length());
+        assertTrue(Arrays.equals(Files.readAllBytes(one.toPath()), Files
+            .readAllBytes(four.toPath())));
+    }
+
+
+    /**
+     * Every distribution sorts into a file that verifies, and a damaged
+     * file does not
+     *
+     * @throws IOException
+     */
+    public void testSortedOutputVerifies() throws IOException {
+        for (KeyDistribution dist : KeyDistribution.values()) {
+            File input = new File(dir, dist.getOptionName() + ".bin");
+            DataGenerator.generate(input, 5000, dist, 3, 2);
+            SortConfig config = new SortConfig(4096, 256, 1);
+            config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+            ByteFile byteFile = new ByteFile(input.getPath(), 0, config);
+            String sorted = Externalsort.sortedFileName(input.getPath());
+            try (RandomAccessFile in = new RandomAccessFile(input, "r");
+                RandomAccessFile runs = new RandomAccessFile(input.getPath()
+                    + "_runfile.dat", "rw")) {
+                byteFile.createSortedRuns(in, runs);
+                byteFile.mergeSortedRuns(runs, sorted);
+            }
+            assertNull(DataGenerator.verify(new File(sorted), 5000, dist, 3,
+                KeyOrder.TOTAL_ORDER));
+            // an unsorted input has every record but not in order
+            if (dist != KeyDistribution.SORTED) {
+                assertNotNull(DataGenerator.verify(input, 5000, dist, 3,
+                    KeyOrder.TOTAL_ORDER));
+            }
+        }
+    }
+}
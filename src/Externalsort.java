@@ -1,4 +1,5 @@
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 /**
  * {Project Description Here}
@@ -35,27 +36,43 @@ public class Externalsort {
 
     /**
      * @param args
-     *            Command line parameters
+     *            Command line parameters: options, then the file name
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: java Externalsort <filename>");
+        if (args.length < 1) {
+            usage();
             return;
         }
 
-        String filename = args[0];
-        ByteFile byteFile = new ByteFile(filename, 16);
+        String filename = args[args.length - 1];
+        SortConfig config;
+        try {
+            config = SortConfig.fromOptions(Arrays.copyOf(args, args.length
+                - 1));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            return;
+        }
+        ByteFile byteFile = new ByteFile(filename, 16, config);
+        config.getMetrics().register();
 
-        try (RandomAccessFile inputFile = new RandomAccessFile(filename, "rwd");
+        try (RandomAccessFile inputFile = new RandomAccessFile(filename, "r");
             RandomAccessFile runFile = new RandomAccessFile(filename
                 + "_runfile.dat", "rw")) {
-            String outputFileName = filename.substring(0, filename.length() - 4)
-                + "_sorted.bin";
-            // Step 1: Create sorted runs in a single run file
-            byteFile.createSortedRuns(inputFile, runFile);
+            String outputFileName = sortedFileName(filename);
+            if (config.isPartial()) {
+                // Steps 1 and 2 in one scan, unless the result is too big
+                byteFile.selectRecords(inputFile, runFile, outputFileName);
+            }
+            else {
+                // Step 1: Create sorted runs in a single run file
+                byteFile.createSortedRuns(inputFile, runFile);
 
-            // Step 2: Merge the sorted runs
-            byteFile.mergeSortedRuns(runFile, outputFileName);
+                // Step 2: Merge the sorted runs
+                byteFile.mergeSortedRuns(runFile, outputFileName);
+            }
 
             // Step 3: Print the first record from each block
             byteFile.printFirstRecords(outputFileName);
@@ -64,6 +81,63 @@ public class Externalsort {
         catch (Exception e) {
             e.printStackTrace();
         }
+        config.getMetrics().log();
+        if (config.getBufferPool() != null) {
+            config.getBufferPool().log();
+        }
+    }
+
+
+    /**
+     * Return the name of the sorted output for an input file
+     *
+     * @param filename
+     *            input file name, ending in ".bin"
+     * @return output file name
+     */
+    static String sortedFileName(String filename) {
+        return filename.substring(0, filename.length() - 4) + "_sorted.bin";
+    }
+
+
+    /**
+     * Print the command line syntax
+     */
+    private static void usage() {
+        System.err.println("Usage: java Externalsort [options] <filename>");
+        System.err.println("  --memory <bytes>      memory budget, e.g. 64m"
+            + " (default " + SortConfig.DEFAULT_MEMORY + ")");
+        System.err.println("  --block-size <bytes>  block size (default "
+            + SortConfig.DEFAULT_BLOCK_SIZE + ")");
+        System.err.println("  --io-buffers <n>      blocks buffered per"
+            + " stream; above 1 reads ahead and writes behind (default "
+            + SortConfig.DEFAULT_IO_BUFFERS + ")");
+        System.err.println("  --total-order         sort keys by IEEE total"
+            + " order instead of raw bits");
+        System.err.println("  --workers <n>         threads sorting runs in"
+            + " parallel (default 1)");
+        System.err.println("  --mmap                memory-map the files"
+            + " instead of reading and writing them");
+        System.err.println("  --engine <name>       run engine: selection"
+            + " (default), offheap or radix; offheap takes none of"
+            + " --workers, --mmap or --io-buffers");
+        System.err.println("  --durable             checkpoint progress and"
+            + " resume an interrupted sort");
+        System.err.println("  --compress            compress the run files");
+        System.err.println("  --pool-frames <n>     cache blocks in a buffer"
+            + " pool of n block-sized frames");
+        System.err.println("  --heap-arity <n>      children per node of the"
+            + " run heap: 2 (default), 4 or 8");
+        System.err.println("  --merge-workers <n>   threads merging the"
+            + " final pass in key ranges (default 1)");
+        System.err.println("  --merge-into <file>   merge the input into an"
+            + " existing sorted file");
+        System.err.println("  --top <k>             keep only the k smallest"
+            + " records");
+        System.err.println("  --range <lo>,<hi>     keep only the keys in"
+            + " [lo, hi)");
+        System.err.println("  --reduce <name>       collapse duplicate keys:"
+            + " first-id (or min-id), count or distinct");
     }
 
 }
@@ -0,0 +1,194 @@
+/**
+ * Key distributions for generated test data.
+ *
+ * Every key is a pure function of a seed, the record's index and the
+ * record count, so any slice of a file can be generated on its own
+ * thread, and a checker can regenerate the key that belongs with any ID
+ * without reading the input again.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public enum KeyDistribution {
+    /**
+     * random bit patterns, so every sign, exponent and NaN payload
+     */
+    UNIFORM("uniform") {
+        @Override
+        public double key(long seed, long i, long count) {
+            return Double.longBitsToDouble(mix(seed, i));
+        }
+    },
+
+    /**
+     * ascending keys
+     */
+    SORTED("sorted") {
+        @Override
+        public double key(long seed, long i, long count) {
+            return i;
+        }
+    },
+
+    /**
+     * descending keys, the worst case for replacement selection
+     */
+    REVERSE_SORTED("reverse") {
+        @Override
+        public double key(long seed, long i, long count) {
+            return count - i;
+        }
+    },
+
+    /**
+     * ascending keys with one record in a hundred out of place
+     */
+    NEARLY_SORTED("nearly") {
+        @Override
+        public double key(long seed, long i, long count) {
+            long bits = mix(seed, i);
+            if (Long.remainderUnsigned(bits, 100) == 0) {
+                return Long.remainderUnsigned(bits >>> 8, count);
+            }
+            return i;
+        }
+    },
+
+    /**
+     * only 16 distinct keys
+     */
+    DUPLICATES("duplicates") {
+        @Override
+        public double key(long seed, long i, long count) {
+            return mix(seed, i) & 15;
+        }
+    },
+
+    /**
+     * NaN, infinities, signed zeros, subnormals and the extremes
+     */
+    SPECIAL("special") {
+        @Override
+        public double key(long seed, long i, long count) {
+            long bits = mix(seed, i);
+            switch ((int)Long.remainderUnsigned(bits, 10)) {
+                case 0:
+                    return Double.NaN;
+                case 1:
+                    return Double.POSITIVE_INFINITY;
+                case 2:
+                    return Double.NEGATIVE_INFINITY;
+                case 3:
+                    return 0.0;
+                case 4:
+                    return -0.0;
+                case 5:
+                    return Double.MIN_VALUE;
+                case 6:
+                    return -Double.MAX_VALUE;
+                case 7:
+                    // a random subnormal of either sign
+                    return Double.longBitsToDouble(bits
+                        & 0x800fffffffffffffL);
+                default:
+                    return Double.longBitsToDouble(mix(seed + 1, i));
+            }
+        }
+    },
+
+    /**
+     * Zipf-distributed ranks: a few keys are very common and most are rare
+     */
+    ZIPF("zipf") {
+        @Override
+        public double key(long seed, long i, long count) {
+            // Inverse of the continuous Zipf CDF over ZIPF_RANKS ranks
+            double u = (mix(seed, i) >>> 11) * 0x1.0p-53;
+            double top = Math.pow(ZIPF_RANKS, 1 - ZIPF_EXPONENT);
+            return Math.floor(Math.pow((top - 1) * u + 1, 1
+                / (1 - ZIPF_EXPONENT)));
+        }
+    };
+
+    /**
+     * number of distinct ranks in the Zipf distribution
+     */
+    private static final double ZIPF_RANKS = 1 << 20;
+
+    /**
+     * Zipf skew; above 1, the top rank holds a large share of the records
+     */
+    private static final double ZIPF_EXPONENT = 1.1;
+
+    private final String optionName;
+
+    /**
+     * Create a new KeyDistribution constant.
+     *
+     * @param optionName
+     *            name used on the command line
+     */
+    KeyDistribution(String optionName) {
+        this.optionName = optionName;
+    }
+
+
+    /**
+     * Return the key of one record
+     *
+     * @param seed
+     *            seed of the data set
+     * @param i
+     *            index of the record
+     * @param count
+     *            records in the data set
+     * @return the key
+     */
+    public abstract double key(long seed, long i, long count);
+
+
+    /**
+     * Return the name used on the command line
+     *
+     * @return option name
+     */
+    public String getOptionName() {
+        return optionName;
+    }
+
+
+    /**
+     * Look up a distribution by its command-line name
+     *
+     * @param name
+     *            option name, such as "zipf"
+     * @return the distribution
+     * @throws IllegalArgumentException
+     *             if no distribution has that name
+     */
+    public static KeyDistribution fromOptionName(String name) {
+        for (KeyDistribution dist : values()) {
+            if (dist.optionName.equals(name)) {
+                return dist;
+            }
+        }
+        throw new IllegalArgumentException("Unknown distribution " + name);
+    }
+
+
+    /**
+     * Hash a seed and an index into 64 random-looking bits (SplitMix64)
+     *
+     * @param seed
+     *            seed of the data set
+     * @param i
+     *            index of the record
+     * @return the bits
+     */
+    static long mix(long seed, long i) {
+        long z = seed + (i + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,81 @@
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+
+// -------------------------------------------------------------------------
+/**
+ * Formats keys and IDs for the block summary: keys the way
+ * DecimalFormat("0.################E0") prints them, and IDs the way
+ * printf("%d") does, both in the default locale.
+ *
+ * Keys go through one DecimalFormat, made once, which appends straight
+ * into the caller's buffer, so no String is made per key. IDs are
+ * written digit by digit into the buffer.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+final class KeyFormatter {
+    private DecimalFormat format;
+    private FieldPosition position = new FieldPosition(0); // unused field
+    private char zero;
+    private char[] scratch = new char[20]; // for IDs
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new KeyFormatter object for the default locale.
+     */
+    KeyFormatter() {
+        this(DecimalFormatSymbols.getInstance());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new KeyFormatter object.
+     *
+     * @param symbols
+     *            the digits and signs to print with
+     */
+    KeyFormatter(DecimalFormatSymbols symbols) {
+        format = new DecimalFormat("0.################E0", symbols);
+        zero = symbols.getZeroDigit();
+    }
+
+
+    /**
+     * Append a key as DecimalFormat("0.################E0") would
+     * format it
+     *
+     * @param out
+     *            where the characters go
+     * @param key
+     *            the key
+     */
+    void appendKey(StringBuffer out, double key) {
+        format.format(key, out, position);
+    }
+
+
+    /**
+     * Append an ID as printf("%d") would format it
+     *
+     * @param out
+     *            where the characters go
+     * @param id
+     *            the ID
+     */
+    void appendID(StringBuffer out, long id) {
+        if (id < 0) {
+            out.append('-');
+        }
+        int at = scratch.length;
+        long rest = id;
+        do {
+            scratch[--at] = (char)(zero + Math.abs(rest % 10));
+            rest /= 10;
+        }
+        while (rest != 0);
+        out.append(scratch, at, scratch.length - at);
+    }
+}
@@ -0,0 +1,123 @@
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Tests that the block summary formatter prints exactly what
+ * DecimalFormat and printf print
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class KeyFormatterTest extends TestCase {
+
+    private Random random;
+
+    /**
+     * set up for tests
+     */
+    public void setUp() {
+        random = new Random(20);
+    }
+
+
+    /**
+     * Check a formatter against DecimalFormat for one key, appended to
+     * whatever the buffer already holds
+     *
+     * @param formatter
+     *            the formatter
+     * @param format
+     *            the DecimalFormat it stands in for
+     * @param text
+     *            the buffer the key is appended to
+     * @param key
+     *            the key
+     */
+    private static void check(
+        KeyFormatter formatter,
+        DecimalFormat format,
+        StringBuffer text,
+        double key) {
+        int start = text.length();
+        formatter.appendKey(text, key);
+        assertEquals("bits " + Double.doubleToRawLongBits(key), format
+            .format(key), text.substring(start));
+        text.append(' ');
+    }
+
+
+    /**
+     * Keys of every kind print as DecimalFormat prints them, one after
+     * another into the same buffer
+     */
+    public void testKeysMatchDecimalFormat() {
+        KeyFormatter formatter = new KeyFormatter();
+        DecimalFormat format = new DecimalFormat("0.################E0");
+        double[] special = { 0.0, -0.0, 1, -1, 0.1, 0.5, 3, 1e23, 2e23,
+            9.999999999999999e22, 8.192e26, 2.82879384806159e17,
+            2.6762462549823935e25, Double.MIN_VALUE, 1.58e-322,
+            Double.MIN_NORMAL, Double.MAX_VALUE, Double.NaN,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0x1p62,
+            0x1p63, Long.MAX_VALUE, 9007199254740993.0, 1e-5, 1e7, 1e8,
+            123456789012345678.0 };
+        StringBuffer text = new StringBuffer();
+        for (double key : special) {
+            check(formatter, format, text, key);
+        }
+        for (int i = 0; i < 2000; i++) {
+            // random bits, integers, short decimals and dyadic fractions
+            check(formatter, format, text, Double.longBitsToDouble(
+                random.nextLong()));
+            check(formatter, format, text, random.nextLong() >>> random
+                .nextInt(64));
+            check(formatter, format, text, (random.nextInt(2000000)
+                - 1000000) / Math.pow(10, random.nextInt(20)));
+            check(formatter, format, text, random.nextInt(1 << 20) * Math
+                .scalb(1.0, random.nextInt(400) - 200));
+        }
+    }
+
+
+    /**
+     * IDs print as printf("%d") prints them
+     */
+    public void testIDs() {
+        KeyFormatter formatter = new KeyFormatter();
+        long[] ids = { 0, 7, -7, 10, Long.MAX_VALUE, Long.MIN_VALUE };
+        StringBuffer text = new StringBuffer();
+        StringBuffer expected = new StringBuffer();
+        for (long id : ids) {
+            formatter.appendID(text, id);
+            expected.append(String.format("%d", id));
+        }
+        for (int i = 0; i < 1000; i++) {
+            long id = random.nextLong() >> random.nextInt(64);
+            formatter.appendID(text, id);
+            expected.append(String.format("%d", id));
+        }
+        assertEquals(expected.toString(), text.toString());
+    }
+
+
+    /**
+     * Another locale's separators and signs are used
+     */
+    public void testLocale() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(
+            Locale.GERMANY);
+        KeyFormatter formatter = new KeyFormatter(symbols);
+        DecimalFormat format = new DecimalFormat("0.################E0",
+            symbols);
+        StringBuffer text = new StringBuffer();
+        for (double key : new double[] { -1.5e-300, 0.25, 7e100, Double.NaN,
+            Double.NEGATIVE_INFINITY, 4.9e-324 }) {
+            check(formatter, format, text, key);
+        }
+        text.setLength(0);
+        formatter.appendKey(text, -1234.5);
+        assertEquals("-1,2345E3", text.toString());
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Comparator;
+
+/**
+ * Orderings over the 64-bit pattern of a record's double key.
+ * Every comparison works directly on the key bits, so no objects are
+ * created while a heap sifts or a merge picks its next record.
+ *
+ * UNSIGNED_BITS is the order the project has always used: the raw IEEE
+ * bits compared as an unsigned 64-bit number. Positive keys come out in
+ * numeric order and negative keys come after all positive ones.
+ * TOTAL_ORDER is the IEEE 754 total order used by Double.compare:
+ * negatives before positives, -0.0 before 0.0 and NaN last.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public enum KeyOrder implements Comparator<Record> {
+    /**
+     * raw key bits compared as an unsigned number
+     */
+    UNSIGNED_BITS {
+        @Override
+        public long sortableBits(long bits) {
+            return bits;
+        }
+
+
+        @Override
+        public long fromSortableBits(long sortable) {
+            return sortable;
+        }
+    },
+
+    /**
+     * IEEE 754 total order, matching Double.compare
+     */
+    TOTAL_ORDER {
+        @Override
+        public long sortableBits(long bits) {
+            // negative keys: flip every bit, positive keys: flip the sign
+            return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+        }
+
+
+        @Override
+        public long fromSortableBits(long sortable) {
+            return sortable ^ ((~sortable >> 63) | Long.MIN_VALUE);
+        }
+    };
+
+    /**
+     * Map key bits onto a value whose unsigned order is this ordering.
+     *
+     * @param bits
+     *            key bits, as from Double.doubleToLongBits
+     * @return bits that sort correctly with Long.compareUnsigned
+     */
+    public abstract long sortableBits(long bits);
+
+
+    /**
+     * Undo sortableBits()
+     *
+     * @param sortable
+     *            value returned by sortableBits()
+     * @return the original key bits
+     */
+    public abstract long fromSortableBits(long sortable);
+
+
+    /**
+     * Compare two keys given as their bit patterns
+     *
+     * @param bits1
+     *            bits of the first key
+     * @param bits2
+     *            bits of the second key
+     * @return negative, zero or positive as bits1 is less than, equal to
+     *         or greater than bits2
+     */
+    public int compareBits(long bits1, long bits2) {
+        return Long.compareUnsigned(sortableBits(bits1), sortableBits(bits2));
+    }
+
+
+    /**
+     * Compare two records given as their IDs and key bits. Records with
+     * equal keys are ordered by ID, the tie-break every heap and merge
+     * in the sort uses.
+     *
+     * @param id1
+     *            ID of the first record
+     * @param bits1
+     *            key bits of the first record
+     * @param id2
+     *            ID of the second record
+     * @param bits2
+     *            key bits of the second record
+     * @return negative, zero or positive as the first record sorts
+     *         before, with or after the second
+     */
+    public int compareRecords(long id1, long bits1, long id2, long bits2) {
+        int c = compareBits(bits1, bits2);
+        return c != 0 ? c : Long.compare(id1, id2);
+    }
+
+
+    /**
+     * Compare two double keys
+     *
+     * @param key1
+     *            first key
+     * @param key2
+     *            second key
+     * @return negative, zero or positive as key1 is less than, equal to
+     *         or greater than key2
+     */
+    public int compareKeys(double key1, double key2) {
+        return compareBits(Double.doubleToLongBits(key1), Double
+            .doubleToLongBits(key2));
+    }
+
+
+    /**
+     * Compare two records by key
+     *
+     * @param rec1
+     *            first record
+     * @param rec2
+     *            second record
+     * @return negative, zero or positive as rec1 sorts before, with or
+     *         after rec2
+     */
+    @Override
+    public int compare(Record rec1, Record rec2) {
+        return compareBits(rec1.getKeyBits(), rec2.getKeyBits());
+    }
+}
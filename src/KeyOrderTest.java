@@ -0,0 +1,79 @@
+import java.math.BigInteger;
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Tests for the key orderings
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class KeyOrderTest extends TestCase {
+
+    private Random random;
+
+    /**
+     * set up for tests
+     */
+    public void setUp() {
+        random = new Random(16);
+    }
+
+
+    /**
+     * UNSIGNED_BITS must agree with the old BigInteger comparison
+     */
+    public void testUnsignedMatchesBigInteger() {
+        for (int i = 0; i < 10000; i++) {
+            long bits1 = random.nextLong();
+            long bits2 = (i % 10 == 0) ? bits1 : random.nextLong();
+            double key1 = Double.longBitsToDouble(bits1);
+            double key2 = Double.longBitsToDouble(bits2);
+            BigInteger num1 = new BigInteger(Long.toHexString(Double
+                .doubleToLongBits(key1)), 16);
+            BigInteger num2 = new BigInteger(Long.toHexString(Double
+                .doubleToLongBits(key2)), 16);
+            assertEquals(num1.compareTo(num2), Integer.signum(
+                KeyOrder.UNSIGNED_BITS.compareKeys(key1, key2)));
+            assertEquals(num1.compareTo(num2), new Record(1, key1)
+                .compareTo(new Record(2, key2)));
+        }
+    }
+
+
+    /**
+     * TOTAL_ORDER must agree with Double.compare, including -0.0 and NaN
+     */
+    public void testTotalOrderMatchesDoubleCompare() {
+        double[] special = { Double.NaN, Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY, -0.0, 0.0, Double.MIN_VALUE,
+            -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1.5,
+            -1.5 };
+        for (double a : special) {
+            for (double b : special) {
+                assertEquals(Double.compare(a, b), Integer.signum(
+                    KeyOrder.TOTAL_ORDER.compareKeys(a, b)));
+            }
+        }
+        for (int i = 0; i < 10000; i++) {
+            double a = Double.longBitsToDouble(random.nextLong());
+            double b = Double.longBitsToDouble(random.nextLong());
+            assertEquals(Double.compare(a, b), Integer.signum(
+                KeyOrder.TOTAL_ORDER.compareKeys(a, b)));
+        }
+    }
+
+
+    /**
+     * sortableBits() and fromSortableBits() must be inverses
+     */
+    public void testSortableBitsRoundTrip() {
+        for (KeyOrder order : KeyOrder.values()) {
+            for (int i = 0; i < 1000; i++) {
+                long bits = random.nextLong();
+                assertEquals(bits, order.fromSortableBits(order.sortableBits(
+                    bits)));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+// Tournament (loser) tree for k-way merging.
+// Replaying a leaf costs one comparison per level and never allocates.
+
+import java.util.Arrays;
+
+// -------------------------------------------------------------------------
+/**
+ * A loser tree over the current head records of k sorted runs.
+ * Internal nodes remember the run that lost the match played there, and
+ * node 0 holds the overall winner: the run whose head record is smallest.
+ * After the winner's head is consumed, only the path from its leaf to the
+ * root is replayed.
+ *
+ * Heads compare by key in the given KeyOrder, then by record ID, then by
+ * run index, so the merge is deterministic. An exhausted run sorts after
+ * every real record.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class LoserTree {
+    private int k; // number of runs
+    private int[] tree; // tree[0] is the winner, tree[1..k-1] the losers
+    private long[] keys; // sortable key bits of each run's head
+    private long[] ids; // record ID of each run's head
+    private boolean[] done; // true once a run has no more records
+    private KeyOrder order;
+    private long comparisons; // matches played, for SortMetrics
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new LoserTree object. Every run starts out exhausted; give
+     * the runs their first records with setHead() and then call build().
+     *
+     * @param k
+     *            number of runs
+     * @param order
+     *            ordering of the keys
+     */
+    LoserTree(int k, KeyOrder order) {
+        this.k = k;
+        this.order = order;
+        tree = new int[Math.max(k, 1)];
+        keys = new long[k];
+        ids = new long[k];
+        done = new boolean[k];
+        Arrays.fill(done, true);
+    }
+
+
+    /**
+     * Set the head record of a run before build()
+     *
+     * @param run
+     *            run index
+     * @param id
+     *            ID of the run's first record
+     * @param keyBits
+     *            key bits of the run's first record
+     */
+    public void setHead(int run, long id, long keyBits) {
+        ids[run] = id;
+        keys[run] = order.sortableBits(keyBits);
+        done[run] = false;
+    }
+
+
+    /**
+     * Play the initial tournament
+     */
+    public void build() {
+        // index k stands for a sentinel that beats everything
+        Arrays.fill(tree, k);
+        for (int run = k - 1; run >= 0; run--) {
+            replay(run);
+        }
+    }
+
+
+    /**
+     * Return the number of matches played so far
+     *
+     * @return comparisons
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
+
+    /**
+     * Return true when every run is exhausted
+     *
+     * @return true if there are no more records
+     */
+    public boolean isEmpty() {
+        return k == 0 || done[tree[0]];
+    }
+
+
+    /**
+     * Return the index of the run holding the smallest head record
+     *
+     * @return winning run index
+     */
+    public int winner() {
+        return tree[0];
+    }
+
+
+    /**
+     * Return the ID of the smallest head record
+     *
+     * @return winning record ID
+     */
+    public long winnerID() {
+        return ids[tree[0]];
+    }
+
+
+    /**
+     * Return the key bits of the smallest head record
+     *
+     * @return winning record key bits
+     */
+    public long winnerKeyBits() {
+        return order.fromSortableBits(keys[tree[0]]);
+    }
+
+
+    /**
+     * Replace the winner's head with the next record of its run
+     *
+     * @param id
+     *            ID of the next record
+     * @param keyBits
+     *            key bits of the next record
+     */
+    public void replaceWinner(long id, long keyBits) {
+        int run = tree[0];
+        ids[run] = id;
+        keys[run] = order.sortableBits(keyBits);
+        replay(run);
+    }
+
+
+    /**
+     * Mark the winner's run as exhausted
+     */
+    public void exhaustWinner() {
+        int run = tree[0];
+        done[run] = true;
+        replay(run);
+    }
+
+
+    /**
+     * Replay the matches from a run's leaf up to the root
+     *
+     * @param run
+     *            run whose head changed
+     */
+    private void replay(int run) {
+        int winner = run;
+        for (int t = (run + k) / 2; t > 0; t /= 2) {
+            comparisons++;
+            if (beats(tree[t], winner)) {
+                int loser = winner;
+                winner = tree[t];
+                tree[t] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+
+    /**
+     * does the comparison that decides each match
+     *
+     * @param a
+     *            one run index, or k for the sentinel
+     * @param b
+     *            another run index, or k for the sentinel
+     * @return true if a's head sorts before b's head
+     */
+    private boolean beats(int a, int b) {
+        if (a == k || b == k) {
+            return a == k && b != k;
+        }
+        if (done[a] || done[b]) {
+            return !done[a];
+        }
+        int c = Long.compareUnsigned(keys[a], keys[b]);
+        if (c != 0) {
+            return c < 0;
+        }
+        if (ids[a] != ids[b]) {
+            return ids[a] < ids[b];
+        }
+        return a < b;
+    }
+}
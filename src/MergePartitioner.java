@@ -0,0 +1,191 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+// -------------------------------------------------------------------------
+/**
+ * Cuts a set of sorted runs into key ranges that can be merged
+ * independently, for the parallel final merge pass.
+ *
+ * Records are sampled at an even stride across all the runs, so each run
+ * gives samples in proportion to its size, and the samples are sorted.
+ * Every parts-th quantile becomes a splitter: an (ID, key) record, so
+ * that even a single key repeated across the whole input can be split.
+ * Each run is then binary-searched for the first record at or after each
+ * splitter. Range p of the merge is the slice of every run between
+ * splitters p - 1 and p, and since all the records in range p sort
+ * before all the records in range p + 1, the ranges merged one after the
+ * other give exactly the serial merge.
+ *
+ * The search reads one record per step straight from the run's file, so
+ * runs must hold fixed-size records; compressed runs cannot be cut. Run
+ * key bounds are not used, because intermediate runs do not carry them.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class MergePartitioner {
+    /**
+     * samples taken per range, so that the ranges come out about even
+     */
+    static final int OVERSAMPLE = 32;
+
+    /**
+     * Utility class; not instantiated
+     */
+    private MergePartitioner() {
+        // static methods only
+    }
+
+
+    /**
+     * Cut the runs into key ranges
+     *
+     * @param runs
+     *            uncompressed sorted runs
+     * @param parts
+     *            number of ranges wanted, at least 1
+     * @param order
+     *            ordering of the keys
+     * @return bounds[p][r], the file offset in run r where range p starts,
+     *         for each range p and one more row holding the ends of the
+     *         runs. There may be fewer ranges than asked for when the
+     *         samples repeat.
+     * @throws IOException
+     */
+    static long[][] partition(List<Run> runs, int parts, KeyOrder order)
+        throws IOException {
+        long total = 0;
+        for (Run run : runs) {
+            total += records(run);
+        }
+        long stride = Math.max(1, total / ((long)parts * OVERSAMPLE));
+        int count = (int)Math.min(total / stride + runs.size(),
+            Integer.MAX_VALUE - 8);
+        long[] keys = new long[count]; // sortable key bits
+        long[] ids = new long[count];
+        ByteBuffer record = ByteBuffer.allocate(Record.BYTES);
+
+        // Sample every run at the same stride
+        int samples = 0;
+        for (Run run : runs) {
+            long n = records(run);
+            for (long i = stride / 2; i < n && samples < count; i += stride) {
+                read(run, i, record);
+                ids[samples] = record.getLong(0);
+                keys[samples] = order.sortableBits(record.getLong(8));
+                samples++;
+            }
+        }
+        RecordSort.sort(keys, ids, 0, samples);
+
+        // Pick distinct splitters at the quantiles of the samples
+        long[] splitIDs = new long[parts];
+        long[] splitKeys = new long[parts];
+        int splitters = 0;
+        for (int p = 1; p < parts; p++) {
+            int s = (int)((long)p * samples / parts);
+            if (s == 0 || s >= samples || (splitters > 0
+                && ids[s] == splitIDs[splitters - 1]
+                && keys[s] == splitKeys[splitters - 1])) {
+                continue;
+            }
+            splitIDs[splitters] = ids[s];
+            splitKeys[splitters] = keys[s];
+            splitters++;
+        }
+
+        long[][] bounds = new long[splitters + 2][runs.size()];
+        for (int r = 0; r < runs.size(); r++) {
+            Run run = runs.get(r);
+            bounds[0][r] = run.getStart();
+            for (int s = 0; s < splitters; s++) {
+                bounds[s + 1][r] = lowerBound(run, bounds[s][r], splitIDs[s],
+                    order.fromSortableBits(splitKeys[s]), order, record);
+            }
+            bounds[splitters + 1][r] = run.getEnd();
+        }
+        return bounds;
+    }
+
+
+    /**
+     * Find the first record of a run at or after a splitter
+     *
+     * @param run
+     *            the run
+     * @param from
+     *            file offset to search from, at or before the answer
+     * @param id
+     *            ID of the splitter
+     * @param keyBits
+     *            key bits of the splitter
+     * @param order
+     *            ordering of the keys
+     * @param record
+     *            a record-sized buffer to read into
+     * @return file offset of the record, or the end of the run
+     * @throws IOException
+     */
+    private static long lowerBound(
+        Run run,
+        long from,
+        long id,
+        long keyBits,
+        KeyOrder order,
+        ByteBuffer record)
+        throws IOException {
+        long low = (from - run.getStart()) / Record.BYTES;
+        long high = records(run);
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            read(run, mid, record);
+            if (order.compareRecords(record.getLong(0), record.getLong(8), id,
+                keyBits) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return run.getStart() + low * Record.BYTES;
+    }
+
+
+    /**
+     * Return the number of records in an uncompressed run
+     *
+     * @param run
+     *            the run
+     * @return number of records
+     */
+    private static long records(Run run) {
+        return (run.getEnd() - run.getStart()) / Record.BYTES;
+    }
+
+
+    /**
+     * Read one record of a run
+     *
+     * @param run
+     *            the run
+     * @param i
+     *            record number within the run
+     * @param record
+     *            a record-sized buffer to read into
+     * @throws IOException
+     */
+    private static void read(Run run, long i, ByteBuffer record)
+        throws IOException {
+        FileChannel channel = run.getChannel();
+        long pos = run.getStart() + i * Record.BYTES;
+        record.clear();
+        while (record.hasRemaining()) {
+            if (channel.read(record, pos + record.position()) < 0) {
+                throw new EOFException("Run ends before record " + i);
+            }
+        }
+    }
+}
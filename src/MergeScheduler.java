@@ -0,0 +1,796 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+// -------------------------------------------------------------------------
+/**
+ * Merges any number of sorted runs while holding at most fanIn input
+ * blocks at a time.
+ *
+ * While there are more runs than the fan-in, each pass merges the
+ * smallest runs into intermediate run files. When one more pass is
+ * enough, it merges only as many of the smallest runs as needed to
+ * leave exactly fanIn runs for the final pass. Otherwise it merges
+ * every run in groups of fanIn, smallest first. Picking the smallest
+ * runs first (as in a Huffman merge tree) keeps the bytes moved
+ * through intermediate passes low. The final pass writes the output.
+ * Intermediate files are deleted as soon as they have been merged, and
+ * in any case before merge() returns. Intermediate runs are compressed if
+ * the configuration asks for compressed runs; the output never is.
+ * Blocks go through the configuration's BufferPool, if it has one.
+ * Given a SparseIndex, the final pass also records the first record of
+ * every output block in it. The final pass can be told to stop early,
+ * after a number of records or at the first key past a bound, for top-K
+ * and key-range sorts; it is then always merged by one thread.
+ *
+ * With a Reducer, every pass collapses the duplicate keys it merges, so
+ * intermediate runs shrink as duplicates meet and the output holds one
+ * record per key, or per distinct record. Runs already reduced carry
+ * their counts in the ID field, and the counts are added up. Records are
+ * reduced before they are indexed and counted against the record limit.
+ * Equal keys may straddle the edge of a key range, so a reduced final
+ * pass is always merged by one thread.
+ *
+ * With more than one merge worker and uncompressed runs, the final pass
+ * is cut into key ranges by MergePartitioner. The records before a range
+ * are counted from its bounds, so every range knows where its slice of
+ * the output starts, and the workers merge their ranges into their
+ * slices at the same time. The output is the same as the serial pass.
+ * Slices may share a block at their edges, so each range writes its
+ * slice with a plain BlockWriter, and the ranges read around the buffer
+ * pool so that they never wait on each other for its frames.
+ *
+ * With a SortCheckpoint, each intermediate run is forced to disk and
+ * each pass is recorded before the runs it consumed are deleted, and a
+ * resumed merge carries on after the last recorded pass. If the merge
+ * fails, the intermediate runs the checkpoint names are kept for the
+ * next attempt.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class MergeScheduler {
+    private static final Logger LOG = Logger.getLogger(MergeScheduler.class
+        .getName());
+
+    private KeyOrder order;
+    private int blockSize;
+    private int fanIn;
+    private int ioBuffers; // block buffers per input and output stream
+    private int mapWindow; // bytes per mapped window, or 0 if not mapped
+    private int mergeWorkers = 1; // threads merging the final pass
+    private Reducer reducer = Reducer.NONE; // how duplicate keys collapse
+    private boolean compress; // true to compress intermediate runs
+    private BufferPool pool; // null unless blocks go through a pool
+    private SortMetrics metrics = new SortMetrics();
+    private String tempPrefix;
+    // intermediate runs and the files that hold them
+    private Map<Run, RandomAccessFile> tempHandles = new IdentityHashMap<>();
+    private Map<Run, File> tempFiles = new IdentityHashMap<>();
+    private SortCheckpoint checkpoint; // null unless durable
+    private SparseIndex index; // filled by the final pass, or null
+    private long recordLimit = Long.MAX_VALUE; // final pass output cap
+    private boolean keyLimited; // true to stop the final pass at hiBits
+    private long hiBits;
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new MergeScheduler object.
+     *
+     * @param order
+     *            ordering of the keys
+     * @param blockSize
+     *            bytes per input and output block
+     * @param fanIn
+     *            the most runs merged at once, at least 2
+     * @param tempPrefix
+     *            path prefix for intermediate run files
+     */
+    MergeScheduler(
+        KeyOrder order,
+        int blockSize,
+        int fanIn,
+        String tempPrefix) {
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("Merge fan-in must be at least"
+                + " 2, not " + fanIn);
+        }
+        this.order = order;
+        this.blockSize = blockSize;
+        this.fanIn = fanIn;
+        this.ioBuffers = 1;
+        this.tempPrefix = tempPrefix;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new MergeScheduler object with the block geometry, fan-in
+     * and I/O mode of a configuration.
+     *
+     * @param config
+     *            sort configuration
+     * @param tempPrefix
+     *            path prefix for intermediate run files
+     */
+    MergeScheduler(SortConfig config, String tempPrefix) {
+        this(config.getKeyOrder(), config.getBlockSize(), config
+            .getMergeFanIn(), tempPrefix);
+        ioBuffers = config.getIOBuffers();
+        metrics = config.getMetrics();
+        if (config.isMapped()) {
+            mapWindow = config.getMapWindow();
+        }
+        compress = config.isCompressed();
+        mergeWorkers = config.getMergeWorkers();
+        reducer = config.getReducer();
+        if (mapWindow == 0) {
+            pool = config.getBufferPool();
+        }
+    }
+
+
+    /**
+     * Checkpoint every pass, and take over the intermediate runs restored
+     * by the checkpoint
+     *
+     * @param sortCheckpoint
+     *            progress of a durable sort
+     */
+    void setCheckpoint(SortCheckpoint sortCheckpoint) {
+        checkpoint = sortCheckpoint;
+        for (Map.Entry<Run, RandomAccessFile> entry : checkpoint.getHandles()
+            .entrySet()) {
+            tempHandles.put(entry.getKey(), entry.getValue());
+            tempFiles.put(entry.getKey(), checkpoint.getFile(entry.getKey()));
+        }
+    }
+
+
+    /**
+     * Index the output as the final pass writes it
+     *
+     * @param outputIndex
+     *            an empty index with this scheduler's block size
+     */
+    void setIndex(SparseIndex outputIndex) {
+        index = outputIndex;
+    }
+
+
+    /**
+     * Stop the final pass once it has written a number of records
+     *
+     * @param maxRecords
+     *            the most records in the output
+     */
+    void setRecordLimit(long maxRecords) {
+        recordLimit = maxRecords;
+    }
+
+
+    /**
+     * Stop the final pass at the first record whose key is at or past a
+     * bound
+     *
+     * @param keyBits
+     *            bits of the first key left out of the output
+     */
+    void setKeyLimit(long keyBits) {
+        keyLimited = true;
+        hiBits = keyBits;
+    }
+
+
+    /**
+     * Merge the runs into one sorted output
+     *
+     * @param runs
+     *            the sorted runs
+     * @param output
+     *            channel of the output file, written from offset 0
+     * @throws IOException
+     */
+    public void merge(List<Run> runs, FileChannel output) throws IOException {
+        List<Run> current = new ArrayList<>(runs);
+        int pass = checkpoint == null ? 1 : checkpoint.getPassesDone() + 1;
+        boolean done = false;
+        try {
+            while (current.size() > fanIn) {
+                current = mergePass(pass++, current);
+            }
+
+            // Final pass straight into the output
+            long bytesRead = totalBytes(current);
+            if (mergeWorkers > 1 && current.size() > 1 && !anyCompressed(
+                current) && recordLimit == Long.MAX_VALUE && !keyLimited
+                && reducer == Reducer.NONE) {
+                logPass(pass, current.size(), 1, bytesRead, mergeParallel(
+                    current, output));
+            }
+            else {
+                try (BlockWriter writer = openWriter(output)) {
+                    mergeGroup(current, writer, index, true);
+                    if (index != null) {
+                        index.setFileLength(writer.position());
+                    }
+                    if (checkpoint != null) {
+                        writer.force();
+                    }
+                    logPass(pass, current.size(), 1, bytesRead, writer
+                        .position());
+                }
+            }
+            done = true;
+        }
+        finally {
+            for (Run run : new ArrayList<>(tempFiles.keySet())) {
+                if (done || checkpoint == null || !checkpoint.getRuns()
+                    .contains(run)) {
+                    release(run);
+                }
+                else {
+                    discard(run);
+                    tempHandles.remove(run).close(); // for the next attempt
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Merge the final pass in key ranges, one worker per range
+     *
+     * @param runs
+     *            the uncompressed runs left for the final pass
+     * @param output
+     *            channel of the output file, written from offset 0
+     * @return bytes written
+     * @throws IOException
+     */
+    private long mergeParallel(List<Run> runs, FileChannel output)
+        throws IOException {
+        long[][] bounds = MergePartitioner.partition(runs, mergeWorkers,
+            order);
+        int ranges = bounds.length - 1;
+
+        // Each range's slice of the output starts after every record
+        // of the ranges before it
+        long[] outStart = new long[ranges + 1];
+        for (int p = 1; p <= ranges; p++) {
+            outStart[p] = outStart[p - 1];
+            for (int r = 0; r < runs.size(); r++) {
+                outStart[p] += bounds[p][r] - bounds[p - 1][r];
+            }
+        }
+
+        SparseIndex[] pieces = new SparseIndex[ranges];
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[ranges];
+        ForkJoinPool workers = new ForkJoinPool(mergeWorkers);
+        try {
+            for (int p = 0; p < ranges; p++) {
+                int range = p;
+                if (index != null) {
+                    pieces[p] = new SparseIndex(order, blockSize);
+                }
+                tasks[p] = CompletableFuture.runAsync(() -> {
+                    try {
+                        mergeRange(runs, bounds[range], bounds[range + 1],
+                            output, outStart[range], pieces[range]);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, workers);
+            }
+            // completes once every range is done, failed or not
+            CompletableFuture.allOf(tasks).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)e.getCause()).getCause();
+            }
+            throw e;
+        }
+        finally {
+            workers.shutdown();
+        }
+
+        if (index != null) {
+            for (SparseIndex piece : pieces) {
+                for (int i = 0; i < piece.size(); i++) {
+                    index.add(piece.getID(i), piece.getKeyBits(i), piece
+                        .getOffset(i));
+                }
+            }
+            index.setFileLength(outStart[ranges]);
+        }
+        LOG.info("Final pass merged in " + ranges + " key ranges");
+        return outStart[ranges];
+    }
+
+
+    /**
+     * Merge one key range of the final pass into its slice of the output
+     *
+     * @param runs
+     *            the runs of the final pass
+     * @param from
+     *            file offset in each run where the range starts
+     * @param to
+     *            file offset in each run where the range ends
+     * @param output
+     *            channel of the output file
+     * @param start
+     *            output offset of the range's first record
+     * @param blockIndex
+     *            index to add the first record of every output block to,
+     *            or null
+     * @throws IOException
+     */
+    private void mergeRange(
+        List<Run> runs,
+        long[] from,
+        long[] to,
+        FileChannel output,
+        long start,
+        SparseIndex blockIndex)
+        throws IOException {
+        List<BlockReader> readers = new ArrayList<>();
+        for (int r = 0; r < runs.size(); r++) {
+            if (from[r] < to[r]) {
+                readers.add(openReader(runs.get(r), from[r], to[r]));
+            }
+        }
+        try (BlockWriter writer = new BlockWriter(output, start, blockSize,
+            ioBuffers)) {
+            writer.setMetrics(metrics);
+            mergeReaders(readers, writer, blockIndex, false);
+            if (checkpoint != null) {
+                writer.force();
+            }
+        }
+        finally {
+            closeAll(readers);
+        }
+    }
+
+
+    /**
+     * Merge groups of the smallest runs into intermediate files
+     *
+     * @param pass
+     *            pass number, for logging
+     * @param runs
+     *            the runs before this pass
+     * @return the runs after this pass
+     * @throws IOException
+     */
+    private List<Run> mergePass(int pass, List<Run> runs) throws IOException {
+        runs.sort(Comparator.comparingLong(Run::bytes));
+        int n = runs.size();
+
+        // How many runs go into each merge of this pass
+        List<Integer> groupSizes = new ArrayList<>();
+        int excess = n - fanIn;
+        int groups = (excess + fanIn - 2) / (fanIn - 1);
+        if ((long)groups * fanIn <= n) {
+            // One more pass will do: merge just enough of the smallest runs
+            groupSizes.add(excess - (groups - 1) * (fanIn - 1) + 1);
+            for (int g = 1; g < groups; g++) {
+                groupSizes.add(fanIn);
+            }
+        }
+        else {
+            for (int left = n; left >= 2; left -= fanIn) {
+                groupSizes.add(Math.min(fanIn, left));
+            }
+        }
+
+        List<Run> next = new ArrayList<>();
+        List<Run> consumed = new ArrayList<>();
+        long bytesRead = 0;
+        long bytesWritten = 0;
+        int first = 0;
+        for (int g = 0; g < groupSizes.size(); g++) {
+            List<Run> group = runs.subList(first, first + groupSizes.get(g));
+            first += group.size();
+            bytesRead += totalBytes(group);
+
+            Run merged = createTempRun(pass, g, group);
+            bytesWritten += merged.bytes();
+            next.add(merged);
+            if (checkpoint == null) {
+                for (Run run : group) {
+                    release(run);
+                }
+            }
+            else {
+                consumed.addAll(group);
+            }
+        }
+        next.addAll(runs.subList(first, n)); // runs left for a later pass
+        if (checkpoint != null) {
+            // the pass must be on record before its inputs go
+            checkpoint.passCompleted(pass, next);
+            for (Run run : consumed) {
+                release(run);
+            }
+        }
+        logPass(pass, n, next.size(), bytesRead, bytesWritten);
+        return next;
+    }
+
+
+    /**
+     * Merge a group of runs into a new intermediate run file
+     *
+     * @param pass
+     *            pass number
+     * @param index
+     *            group number within the pass
+     * @param group
+     *            the runs to merge
+     * @return the merged run
+     * @throws IOException
+     */
+    private Run createTempRun(int pass, int index, List<Run> group)
+        throws IOException {
+        File file = new File(tempPrefix + ".pass" + pass + "_" + index
+            + ".tmp");
+        RandomAccessFile handle = new RandomAccessFile(file, "rw");
+        Run run;
+        try {
+            handle.setLength(0);
+            long checksum = 0;
+            try (BlockWriter writer = compress
+                ? BlockWriter.compressed(handle.getChannel(), 0, blockSize,
+                    ioBuffers, order)
+                : openWriter(handle.getChannel())) {
+                writer.setMetrics(metrics);
+                writer.setBufferPool(pool);
+                if (checkpoint != null) {
+                    writer.setChecksummed();
+                }
+                long records = mergeGroup(group, writer, null, false);
+                run = writer.endRun(0, records, writer.firstKeyBits(), writer
+                    .lastKeyBits());
+                if (checkpoint != null) {
+                    writer.force();
+                    checksum = writer.checksum();
+                }
+            }
+            if (checkpoint != null) {
+                checkpoint.tempRunCompleted(run, file, checksum);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            handle.close();
+            file.delete();
+            throw e;
+        }
+        tempHandles.put(run, handle);
+        tempFiles.put(run, file);
+        return run;
+    }
+
+
+    /**
+     * Close and delete a run's file if it is an intermediate one
+     *
+     * @param run
+     *            a run that is no longer needed
+     * @throws IOException
+     */
+    private void release(Run run) throws IOException {
+        RandomAccessFile handle = tempHandles.remove(run);
+        if (handle != null) {
+            discard(run);
+            handle.close();
+            tempFiles.remove(run).delete();
+        }
+    }
+
+
+    /**
+     * Drop a run's blocks from the buffer pool, if there is one
+     *
+     * @param run
+     *            a run whose file is about to be closed
+     */
+    private void discard(Run run) {
+        if (pool != null) {
+            pool.discard(run.getChannel());
+        }
+    }
+
+
+    /**
+     * merge a group of runs into a writer with one block per run
+     *
+     * @param group
+     *            the runs to merge
+     * @param writer
+     *            where the merged records go, from offset 0
+     * @param blockIndex
+     *            index to add the first record of every block to, or null
+     * @param last
+     *            true for the final pass, which may stop early
+     * @return number of records written
+     * @throws IOException
+     */
+    private long mergeGroup(
+        List<Run> group,
+        BlockWriter writer,
+        SparseIndex blockIndex,
+        boolean last)
+        throws IOException {
+        List<BlockReader> readers = new ArrayList<>();
+        for (Run run : group) {
+            readers.add(openReader(run));
+        }
+        return mergeReaders(readers, writer, blockIndex, last);
+    }
+
+
+    /**
+     * merge sorted streams of records into a writer
+     *
+     * @param streams
+     *            readers over the sorted streams
+     * @param writer
+     *            where the merged records go; blocks of the index start
+     *            at multiples of the block size
+     * @param blockIndex
+     *            index to add the first record of every block to, or null
+     * @param last
+     *            true to stop at the record limit and the key limit
+     * @return number of records written; the readers are closed
+     * @throws IOException
+     */
+    private long mergeReaders(
+        List<BlockReader> streams,
+        BlockWriter writer,
+        SparseIndex blockIndex,
+        boolean last)
+        throws IOException {
+        try {
+            int k = streams.size();
+            BlockReader[] readers = streams.toArray(new BlockReader[k]);
+            LoserTree tree = new LoserTree(k, order);
+
+            // Load the head of every run
+            for (int i = 0; i < k; i++) {
+                if (readers[i].hasNext()) {
+                    readers[i].next();
+                    tree.setHead(i, readers[i].id(), readers[i].keyBits());
+                }
+            }
+            tree.build();
+
+            // Emit the smallest head, then refill from the same run
+            int perBlock = blockSize / Record.BYTES;
+            RecordReducer combiner = reducer == Reducer.NONE
+                ? null
+                : new RecordReducer(reducer, false);
+            long left = last ? recordLimit : Long.MAX_VALUE;
+            long written = 0;
+            while (!tree.isEmpty() && written < left) {
+                long id = tree.winnerID();
+                long keyBits = tree.winnerKeyBits();
+                if (last && keyLimited && order.compareBits(keyBits,
+                    hiBits) >= 0) {
+                    break; // every record left is past the key range
+                }
+                BlockReader reader = readers[tree.winner()];
+                if (reader.hasNext()) {
+                    reader.next();
+                    tree.replaceWinner(reader.id(), reader.keyBits());
+                }
+                else {
+                    tree.exhaustWinner();
+                }
+                if (combiner != null) {
+                    if (!combiner.add(id, keyBits)) {
+                        continue; // folded into the record held back
+                    }
+                    id = combiner.id();
+                    keyBits = combiner.keyBits();
+                }
+                emit(writer, blockIndex, perBlock, id, keyBits);
+                written++;
+            }
+            if (combiner != null && written < left && combiner.finish()) {
+                emit(writer, blockIndex, perBlock, combiner.id(), combiner
+                    .keyBits());
+                written++;
+            }
+            metrics.addComparisons(tree.comparisons());
+            return written;
+        }
+        finally {
+            closeAll(streams);
+        }
+    }
+
+
+    /**
+     * Write one merged record, indexing it if it starts a block
+     *
+     * @param writer
+     *            where the merged records go
+     * @param blockIndex
+     *            index to add the first record of every block to, or null
+     * @param perBlock
+     *            records per block
+     * @param id
+     *            record ID
+     * @param keyBits
+     *            record key bits
+     * @throws IOException
+     */
+    private static void emit(
+        BlockWriter writer,
+        SparseIndex blockIndex,
+        int perBlock,
+        long id,
+        long keyBits)
+        throws IOException {
+        if (blockIndex != null && writer.position() / Record.BYTES
+            % perBlock == 0) {
+            blockIndex.add(id, keyBits, writer.position());
+        }
+        writer.write(id, keyBits);
+    }
+
+
+    /**
+     * Close readers, waiting for any blocks they still have in flight, as
+     * a merge that stops early leaves them
+     *
+     * @param readers
+     *            the readers
+     */
+    private static void closeAll(List<BlockReader> readers) {
+        for (BlockReader reader : readers) {
+            reader.close();
+        }
+    }
+
+
+    /**
+     * Open a reader over a run in this scheduler's I/O mode
+     *
+     * @param run
+     *            the run
+     * @return the reader
+     */
+    private BlockReader openReader(Run run) {
+        BlockReader reader = openReader(run, run.getStart(), run.getEnd());
+        reader.setBufferPool(pool);
+        return reader;
+    }
+
+
+    /**
+     * Open a reader over part of an uncompressed run, or all of a
+     * compressed one, bypassing the buffer pool
+     *
+     * @param run
+     *            the run
+     * @param start
+     *            file offset of the first record to read
+     * @param end
+     *            file offset just past the last record to read
+     * @return the reader
+     */
+    private BlockReader openReader(Run run, long start, long end) {
+        BlockReader reader;
+        if (run.isCompressed()) {
+            reader = BlockReader.compressed(run.getChannel(), start, end,
+                blockSize, ioBuffers, order);
+        }
+        else if (mapWindow > 0) {
+            reader = BlockReader.mapped(run.getChannel(), start, end,
+                mapWindow);
+        }
+        else {
+            reader = new BlockReader(run.getChannel(), start, end, blockSize,
+                ioBuffers);
+        }
+        reader.setMetrics(metrics);
+        return reader;
+    }
+
+
+    /**
+     * Open a writer at the start of a file in this scheduler's I/O mode,
+     * durable if the sort is checkpointed
+     *
+     * @param channel
+     *            channel of the file
+     * @return the writer
+     */
+    private BlockWriter openWriter(FileChannel channel) {
+        BlockWriter writer = mapWindow > 0
+            ? BlockWriter.mapped(channel, 0, mapWindow)
+            : new BlockWriter(channel, 0, blockSize, ioBuffers);
+        writer.setMetrics(metrics);
+        writer.setBufferPool(pool);
+        if (checkpoint != null) {
+            writer.setDurable();
+        }
+        return writer;
+    }
+
+
+    /**
+     * Return the total size of some runs
+     *
+     * @param runs
+     *            the runs
+     * @return number of bytes
+     */
+    private static long totalBytes(List<Run> runs) {
+        long bytes = 0;
+        for (Run run : runs) {
+            bytes += run.bytes();
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Return true if any of some runs is compressed
+     *
+     * @param runs
+     *            the runs
+     * @return true if a run cannot be cut into key ranges
+     */
+    private static boolean anyCompressed(List<Run> runs) {
+        for (Run run : runs) {
+            if (run.isCompressed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Count and log the work done by one pass
+     *
+     * @param pass
+     *            pass number
+     * @param runsIn
+     *            runs before the pass
+     * @param runsOut
+     *            runs after the pass
+     * @param bytesRead
+     *            bytes read by the pass
+     * @param bytesWritten
+     *            bytes written by the pass
+     */
+    private void logPass(
+        int pass,
+        int runsIn,
+        int runsOut,
+        long bytesRead,
+        long bytesWritten) {
+        metrics.mergePass();
+        LOG.info("Merge pass " + pass + ": " + runsIn + " runs in, " + runsOut
+            + " runs out, " + bytesRead + " bytes read, " + bytesWritten
+            + " bytes written");
+    }
+}
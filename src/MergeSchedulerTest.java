@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Tests for multi-pass merging
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class MergeSchedulerTest extends TestCase {
+
+    private File dir;
+    private Random random;
+
+    /**
+     * set up for tests
+     */
+    public void setUp() throws IOException {
+        dir = File.createTempFile("merge", "");
+        dir.delete();
+        dir.mkdir();
+        random = new Random(7);
+    }
+
+
+    /**
+     * clean up after tests
+     */
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+
+    /**
+     * Write random sorted runs of random lengths into one file
+     *
+     * @param file
+     *            the run file
+     * @param count
+     *            number of runs
+     * @param keys
+     *            collects every key written
+     * @return the runs
+     * @throws IOException
+     */
+    private List<Run> writeRuns(
+        RandomAccessFile file,
+        int count,
+        List<Double> keys)
+        throws IOException {
+        List<Run> runs = new ArrayList<>();
+        long offset = 0;
+        for (int r = 0; r < count; r++) {
+            double[] run = new double[random.nextInt(300)];
+            for (int i = 0; i < run.length; i++) {
+                run[i] = random.nextDouble() * 1000;
+                keys.add(run[i]);
+            }
+            Arrays.sort(run);
+            for (double key : run) {
+                file.writeLong(r);
+                file.writeDouble(key);
+            }
+            runs.add(new Run(file.getChannel(), offset, file.length()));
+            offset = file.length();
+        }
+        return runs;
+    }
+
+
+    /**
+     * Merge with several fan-ins and check the result
+     *
+     * @throws IOException
+     */
+    public void testMultiPassMerge() throws IOException {
+        for (int fanIn : new int[] { 2, 3, 5, 40 }) {
+            List<Double> keys = new ArrayList<>();
+            try (RandomAccessFile runFile = new RandomAccessFile(new File(dir,
+                "runs"), "rw");
+                RandomAccessFile out = new RandomAccessFile(new File(dir,
+                    "out"), "rw")) {
+                runFile.setLength(0);
+                out.setLength(0);
+                List<Run> runs = writeRuns(runFile, 23, keys);
+                new MergeScheduler(KeyOrder.UNSIGNED_BITS, 64, fanIn, dir
+                    .getPath() + "/tmp").merge(runs, out.getChannel());
+
+                assertEquals(keys.size() * Record.BYTES, out.length());
+                keys.sort(null);
+                out.seek(0);
+                for (double key : keys) {
+                    out.readLong();
+                    assertEquals(key, out.readDouble(), 0.0);
+                }
+            }
+            // only the run file and the output are left behind
+            assertEquals(2, dir.listFiles().length);
+        }
+    }
+
+
+    /**
+     * A fan-in below 2 cannot make progress
+     */
+    public void testBadFanIn() {
+        Exception thrown = null;
+        try {
+            new MergeScheduler(KeyOrder.UNSIGNED_BITS, 64, 1, "x");
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+}
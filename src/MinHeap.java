@@ -2,9 +2,20 @@
 // Can use `java -ea` (Java's VM arguments) to Enable Assertions
 // These assertions will check valid heap positions
 
+import java.util.Collection;
+import java.util.Comparator;
+
 // -------------------------------------------------------------------------
 /**
  * Here is a class to implement MinHeap functions
+ *
+ * The heap may be d-ary instead of binary: with 4 or 8 children per node
+ * the tree is half or a third as deep, and the children of a node sit
+ * next to each other, so a sift touches fewer cache lines for a few more
+ * comparisons per level. Sifts move a hole rather than swapping, so each
+ * level costs one array write. replaceMin() pops the minimum and pushes a
+ * new value in a single sift, and addAll() appends values and rebuilds the
+ * heap once.
  * 
  * @param <T>
  *            data type in this minHeap
@@ -15,6 +26,9 @@ class MinHeap<T extends Comparable<T>> {
     private T[] heap; // Pointer to the heap array
     private int capacity; // Maximum size of the heap
     private int n; // Number of active things currently in heap
+    private Comparator<? super T> order; // null means natural ordering
+    private int arity; // children per node
+    private long comparisons; // made by sifts
 
     // ----------------------------------------------------------
     /**
@@ -29,18 +43,69 @@ class MinHeap<T extends Comparable<T>> {
      */
     // Constructor supporting preloading of heap contents
     MinHeap(T[] arrayForHeap, int heapSize, int capacity) {
+        this(arrayForHeap, heapSize, capacity, null);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new MinHeap object ordered by a comparator instead of the
+     * natural ordering of T.
+     *
+     * @param arrayForHeap
+     *            array
+     * @param heapSize
+     *            heap size
+     * @param capacity
+     *            capacity
+     * @param order
+     *            comparator, or null for the natural ordering
+     */
+    MinHeap(
+        T[] arrayForHeap,
+        int heapSize,
+        int capacity,
+        Comparator<? super T> order) {
+        this(arrayForHeap, heapSize, capacity, order, 2);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new d-ary MinHeap object.
+     *
+     * @param arrayForHeap
+     *            array
+     * @param heapSize
+     *            heap size
+     * @param capacity
+     *            capacity
+     * @param order
+     *            comparator, or null for the natural ordering
+     * @param arity
+     *            children per node, 2 for a binary heap
+     */
+    MinHeap(
+        T[] arrayForHeap,
+        int heapSize,
+        int capacity,
+        Comparator<? super T> order,
+        int arity) {
         assert capacity <= arrayForHeap.length : "capacity is"
             + " beyond array limits";
         assert heapSize <= capacity : "Heap size is beyond max";
+        assert arity >= 2 : "A heap needs at least two children per node";
         heap = arrayForHeap;
         n = heapSize;
         this.capacity = capacity;
+        this.order = order;
+        this.arity = arity;
         buildHeap();
     }
 
 
     /**
-     * Return position for left child of pos
+     * Return position for left child of pos in a binary heap
      *
      * @param pos
      *            position
@@ -52,7 +117,7 @@ class MinHeap<T extends Comparable<T>> {
 
 
     /**
-     * Return position for right child of pos
+     * Return position for right child of pos in a binary heap
      *
      * @param pos
      *            position
@@ -64,7 +129,7 @@ class MinHeap<T extends Comparable<T>> {
 
 
     /**
-     * own descriptive comment
+     * Return position for the parent of pos in a binary heap
      *
      * @param pos
      *            position
@@ -76,6 +141,26 @@ class MinHeap<T extends Comparable<T>> {
     }
 
 
+    /**
+     * Return the number of children per node
+     *
+     * @return arity
+     */
+    public int arity() {
+        return arity;
+    }
+
+
+    /**
+     * Return the number of element comparisons made so far
+     *
+     * @return comparisons
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
+
     /**
      * Forcefully changes the heap size. May need a buildHeap() afterwards
      *
@@ -107,7 +192,7 @@ class MinHeap<T extends Comparable<T>> {
      */
 
     public boolean isLeaf(int pos) {
-        return (n / 2 <= pos) && (pos < n);
+        return (arity * pos + 1 >= n) && (pos < n);
     }
 
 
@@ -126,13 +211,30 @@ class MinHeap<T extends Comparable<T>> {
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Add many values, then restore the heap structure once, which is
+     * linear in the size of the heap instead of a sift per value
+     *
+     * @param values
+     *            the values to add
+     */
+    public void addAll(Collection<? extends T> values) {
+        assert n + values.size() <= capacity : "Heap is full; cannot insert";
+        for (T value : values) {
+            heap[n++] = value;
+        }
+        buildHeap();
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Organize contents of array to satisfy the heap structure
      */
     public void buildHeap() {
         // Call sift down on each internal node, starting from bottom
-        for (int i = parent(n - 1); i >= 0; i--) {
+        for (int i = lastParent(); i >= 0; i--) {
             siftDown(i);
         }
     }
@@ -147,19 +249,7 @@ class MinHeap<T extends Comparable<T>> {
      */
     public void siftDown(int pos) {
         assert (0 <= pos && pos < n) : "Invalid heap position";
-        while (!isLeaf(pos)) {
-            int child = leftChild(pos);
-            // compare the left and right children
-            if ((child + 1 < n) && isLessThan(child + 1, child)) {
-                child = child + 1; // child is now the index with the smaller
-                                   // value
-            }
-            if (!isLessThan(child, pos)) {
-                return; // stop early
-            }
-            swap(pos, child);
-            pos = child; // keep sifting down
-        }
+        siftDown(pos, heap[pos]);
     }
 
 
@@ -172,14 +262,16 @@ class MinHeap<T extends Comparable<T>> {
      */
     public void siftUp(int pos) {
         assert (0 <= pos && pos < n) : "Invalid heap position";
+        T value = heap[pos];
         while (pos > 0) {
-            int parent = parent(pos);
-            if (isLessThan(parent, pos)) {
-                return; // stop early
+            int parent = (pos - 1) / arity;
+            if (isLessThan(heap[parent], value)) {
+                break; // stop early
             }
-            swap(pos, parent);
+            heap[pos] = heap[parent]; // move the parent down into the hole
             pos = parent; // keep sifting up
         }
+        heap[pos] = value;
     }
 
 
@@ -193,13 +285,40 @@ class MinHeap<T extends Comparable<T>> {
         T minValue = heap[0];
         n--;
         if (n > 0) {
-            swap(0, n); // Swap minimum with last value
-            siftDown(0); // Put new heap root val in correct place
+            siftDown(0, heap[n]); // Move last value into the hole
+            heap[n] = minValue; // where the swap used to leave it
         }
         return minValue;
     }
 
 
+    /**
+     * Return the minimum value without removing it
+     *
+     * @return minimum value
+     */
+    public T min() {
+        assert n > 0 : "Heap is empty";
+        return heap[0];
+    }
+
+
+    /**
+     * Remove the minimum value and insert another in a single sift, which
+     * costs half as much as removeMin() followed by insert()
+     *
+     * @param key
+     *            the value to insert
+     * @return the minimum value that was removed
+     */
+    public T replaceMin(T key) {
+        assert n > 0 : "Heap is empty; cannot replace";
+        T minValue = heap[0];
+        siftDown(0, key);
+        return minValue;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Remove and return element at specified position
@@ -247,6 +366,37 @@ class MinHeap<T extends Comparable<T>> {
     }
 
 
+    /**
+     * Moves a hole at pos down until a value fits, then stores it there.
+     * Each level picks the smallest of up to arity children.
+     *
+     * @param pos
+     *            position of the hole
+     * @param value
+     *            the value to place
+     */
+    private void siftDown(int pos, T value) {
+        int hole = pos;
+        int lastParent = lastParent();
+        while (hole <= lastParent) {
+            int first = arity * hole + 1;
+            int last = Math.min(first + arity, n);
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (isLessThan(heap[c], heap[child])) {
+                    child = c;
+                }
+            }
+            if (!isLessThan(heap[child], value)) {
+                break; // stop early
+            }
+            heap[hole] = heap[child]; // move the child up into the hole
+            hole = child;
+        }
+        heap[hole] = value;
+    }
+
+
     /**
      * swaps the elements at two positions
      * 
@@ -264,16 +414,30 @@ class MinHeap<T extends Comparable<T>> {
     }
 
 
+    /**
+     * Return the position of the last node with children
+     *
+     * @return position, or -1 if no node has children
+     */
+    private int lastParent() {
+        return n < 2 ? -1 : (n - 2) / arity;
+    }
+
+
     /**
      * does fundamental comparison used for checking heap validity
      * 
-     * @param pos1
-     *            one of the position need to compare in the MinHeap
-     * @param pos2
-     *            another position need to compare in the MinHeap
+     * @param value1
+     *            one of the values to compare
+     * @param value2
+     *            another value to compare
      * @return boolean
      */
-    private boolean isLessThan(int pos1, int pos2) {
-        return heap[pos1].compareTo(heap[pos2]) < 0;
+    private boolean isLessThan(T value1, T value2) {
+        comparisons++;
+        if (order != null) {
+            return order.compare(value1, value2) < 0;
+        }
+        return value1.compareTo(value2) < 0;
     }
 }
@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Tests for the binary and d-ary MinHeap
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class MinHeapTest extends TestCase {
+
+    private Random random;
+
+    /**
+     * set up for tests
+     */
+    public void setUp() {
+        random = new Random(7);
+    }
+
+
+    /**
+     * Return random values with many duplicates
+     *
+     * @param count
+     *            number of values
+     * @return the values
+     */
+    private Integer[] values(int count) {
+        Integer[] values = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextInt(count / 4 + 1);
+        }
+        return values;
+    }
+
+
+    /**
+     * Inserting everything and removing the minimum until the heap is
+     * empty gives sorted order, for every arity
+     */
+    public void testInsertAndRemoveMin() {
+        for (int arity : new int[] { 2, 3, 4, 8 }) {
+            Integer[] values = values(1000);
+            MinHeap<Integer> heap = new MinHeap<>(new Integer[values.length],
+                0, values.length, null, arity);
+            assertEquals(arity, heap.arity());
+            for (Integer value : values) {
+                heap.insert(value);
+            }
+            Arrays.sort(values);
+            for (Integer value : values) {
+                assertEquals((int)value, (int)heap.removeMin());
+            }
+            assertEquals(0, heap.heapSize());
+        }
+    }
+
+
+    /**
+     * addAll and the building constructor make valid heaps, and remove()
+     * and modify() keep them valid
+     */
+    public void testBulkBuild() {
+        for (int arity : new int[] { 2, 4, 8 }) {
+            Integer[] values = values(500);
+            Integer[] array = values.clone();
+            MinHeap<Integer> heap = new MinHeap<>(array, 300, values.length,
+                Comparator.reverseOrder(), arity);
+            List<Integer> rest = new ArrayList<>();
+            for (int i = 300; i < values.length; i++) {
+                rest.add(values[i]);
+            }
+            heap.addAll(rest);
+            assertEquals(values.length, heap.heapSize());
+            heap.modify(10, -1);
+            heap.remove(20);
+            Integer last = Integer.MAX_VALUE;
+            int removed = 0;
+            while (heap.heapSize() > 0) {
+                Integer value = heap.removeMin();
+                assertTrue(value <= last);
+                last = value;
+                removed++;
+            }
+            assertEquals(values.length - 1, removed);
+            assertEquals(-1, (int)last);
+        }
+    }
+
+
+    /**
+     * replaceMin returns the minimum and keeps the heap valid. On the same
+     * sequence, a 4-ary heap is shallower, so its inserts make fewer
+     * comparisons than a binary heap's, but its replaceMin calls compare
+     * every child on the way down, so they make more.
+     */
+    public void testReplaceMin() {
+        Integer[] values = values(2000);
+        long[] insertComparisons = new long[2];
+        long[] replaceComparisons = new long[2];
+        for (int a = 0; a < 2; a++) {
+            MinHeap<Integer> heap = new MinHeap<>(new Integer[64], 0, 64,
+                null, 2 << a);
+            List<Integer> window = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                heap.insert(values[i]);
+                window.add(values[i]);
+            }
+            insertComparisons[a] = heap.comparisons();
+            for (int i = 64; i < values.length; i++) {
+                Integer min = window.get(0);
+                for (Integer value : window) {
+                    min = Math.min(min, value);
+                }
+                assertEquals((int)min, (int)heap.replaceMin(values[i]));
+                window.remove(min);
+                window.add(values[i]);
+            }
+            replaceComparisons[a] = heap.comparisons() - insertComparisons[a];
+        }
+        assertTrue(insertComparisons[1] < insertComparisons[0]);
+        assertTrue(replaceComparisons[1] > replaceComparisons[0]);
+    }
+}
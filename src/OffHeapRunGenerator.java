@@ -0,0 +1,258 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+// -------------------------------------------------------------------------
+/**
+ * Forms sorted runs in a direct buffer, off the Java heap.
+ *
+ * Each chunk of input is read straight into the buffer with positional
+ * reads, the keys are turned into sortable bits in place, BufferSort
+ * sorts the 16-byte records where they lie, and the keys are turned back
+ * before the same buffer is written to the run file. No block buffers
+ * are needed on either side, so the whole memory budget holds records,
+ * and nothing is allocated per record or per chunk.
+ *
+ * For a durable sort, each run is forced to disk and recorded in the
+ * SortCheckpoint as soon as it is written, and a resumed sort starts
+ * reading at the first input byte not yet in a run.
+ *
+ * Compressed runs, and runs whose duplicate keys a Reducer collapses, are
+ * encoded through a BlockWriter instead, since their size is not known
+ * until they are written.
+ *
+ * The engine reads and sorts one chunk at a time on the calling thread,
+ * through its own buffer, so it has no use for workers, mapped files or
+ * I/O buffers; SortConfig refuses those options next to it.
+ *
+ * Runs are the size of a chunk, like the parallel engine's. The merged
+ * output is the same as with replacement selection, because every sort
+ * in the project orders records by key and then by ID.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class OffHeapRunGenerator {
+    private SortConfig config;
+    private KeyOrder order;
+    private SortMetrics metrics;
+    private ByteBuffer chunk; // direct, reused for every run
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new OffHeapRunGenerator object.
+     *
+     * @param config
+     *            sort configuration
+     */
+    OffHeapRunGenerator(SortConfig config) {
+        this.config = config;
+        order = config.getKeyOrder();
+        metrics = config.getMetrics();
+        chunk = ByteBuffer.allocateDirect(config.getChunkRecords()
+            * Record.BYTES);
+    }
+
+
+    /**
+     * Sort the input into runs
+     *
+     * @param input
+     *            channel of the input file
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param runChannel
+     *            channel of the run file, written from offset 0
+     * @return the runs that were written
+     * @throws IOException
+     */
+    public RunDirectory generate(
+        FileChannel input,
+        long inputEnd,
+        FileChannel runChannel)
+        throws IOException {
+        return generate(input, inputEnd, runChannel, null);
+    }
+
+
+    /**
+     * Sort the input into runs, recording each one in a checkpoint
+     *
+     * @param input
+     *            channel of the input file
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param runChannel
+     *            channel of the run file
+     * @param checkpoint
+     *            progress of a durable sort, or null; its runs are kept
+     *            and the rest of the input is added after them
+     * @return every run, old and new
+     * @throws IOException
+     */
+    public RunDirectory generate(
+        FileChannel input,
+        long inputEnd,
+        FileChannel runChannel,
+        SortCheckpoint checkpoint)
+        throws IOException {
+        RunDirectory directory = new RunDirectory();
+        long inputPos = 0;
+        long runPos = 0;
+        if (checkpoint != null) {
+            for (Run run : checkpoint.getRuns()) {
+                directory.add(run);
+            }
+            inputPos = checkpoint.getInputDone();
+            runPos = checkpoint.runFileEnd();
+        }
+        try (BlockWriter writer = config.isCompressed() || config
+            .getReducer() != Reducer.NONE
+            ? BlockWriter.openRun(runChannel, runPos, config)
+            : null) {
+            if (writer != null && checkpoint != null) {
+                writer.setChecksummed();
+            }
+            while (inputPos < inputEnd) {
+                int length = (int)Math.min(chunk.capacity(), inputEnd
+                    - inputPos);
+                int count = length / Record.BYTES;
+                readChunk(input, inputPos, length);
+                inputPos += length;
+                toSortable(count);
+                BufferSort.sort(chunk, 0, count);
+                fromSortable(count);
+
+                long runStart = runPos;
+                Run run;
+                long checksum = 0;
+                if (writer != null) {
+                    for (int i = 0; i < count; i++) {
+                        writer.write(chunk.getLong(i * Record.BYTES), keyBits(
+                            i));
+                    }
+                    run = writer.endRun(runStart, count, keyBits(0), keyBits(
+                        count - 1));
+                    runPos = writer.position();
+                    if (checkpoint != null) {
+                        writer.force();
+                        checksum = writer.checksum();
+                    }
+                }
+                else {
+                    runPos = writeChunk(runChannel, runPos);
+                    run = new Run(runChannel, runStart, runPos, keyBits(0),
+                        keyBits(count - 1));
+                    if (checkpoint != null) {
+                        runChannel.force(false);
+                        CRC32C crc = new CRC32C();
+                        chunk.flip();
+                        crc.update(chunk);
+                        checksum = crc.getValue();
+                    }
+                }
+                directory.add(run);
+                if (checkpoint != null) {
+                    checkpoint.runCompleted(run, checksum, inputPos);
+                }
+            }
+        }
+        return directory;
+    }
+
+
+    /**
+     * Read part of the input into the chunk
+     *
+     * @param input
+     *            channel of the input file
+     * @param pos
+     *            file offset to read from
+     * @param length
+     *            number of bytes to read
+     * @throws IOException
+     */
+    private void readChunk(FileChannel input, long pos, int length)
+        throws IOException {
+        chunk.clear();
+        chunk.limit(length);
+        long start = System.nanoTime();
+        while (chunk.hasRemaining()) {
+            if (input.read(chunk, pos + chunk.position()) < 0) {
+                throw new EOFException("Input ends before offset " + (pos
+                    + length));
+            }
+        }
+        metrics.blockRead(length, length / Record.BYTES, System.nanoTime()
+            - start);
+    }
+
+
+    /**
+     * Write the sorted chunk to the run file as it is
+     *
+     * @param runChannel
+     *            channel of the run file
+     * @param pos
+     *            file offset to write at
+     * @return file offset just past the chunk
+     * @throws IOException
+     */
+    private long writeChunk(FileChannel runChannel, long pos)
+        throws IOException {
+        chunk.flip();
+        int length = chunk.remaining();
+        long at = pos;
+        long start = System.nanoTime();
+        while (chunk.hasRemaining()) {
+            at += runChannel.write(chunk, at);
+        }
+        metrics.blockWritten(length, length / Record.BYTES, System.nanoTime()
+            - start);
+        return at;
+    }
+
+
+    /**
+     * Replace every key in the chunk by its sortable bits
+     *
+     * @param count
+     *            records in the chunk
+     */
+    private void toSortable(int count) {
+        for (int i = 0; i < count; i++) {
+            int at = i * Record.BYTES + 8;
+            // through double so that NaN keys get their canonical bits
+            chunk.putLong(at, order.sortableBits(Double.doubleToLongBits(chunk
+                .getDouble(at))));
+        }
+    }
+
+
+    /**
+     * Turn the sortable bits in the chunk back into key bits
+     *
+     * @param count
+     *            records in the chunk
+     */
+    private void fromSortable(int count) {
+        for (int i = 0; i < count; i++) {
+            int at = i * Record.BYTES + 8;
+            chunk.putLong(at, order.fromSortableBits(chunk.getLong(at)));
+        }
+    }
+
+
+    /**
+     * Return the key bits of a record in the chunk
+     *
+     * @param i
+     *            record index
+     * @return key bits
+     */
+    private long keyBits(int i) {
+        return chunk.getLong(i * Record.BYTES + 8);
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+// -------------------------------------------------------------------------
+/**
+ * Forms sorted runs on several cores at once.
+ *
+ * A reader thread cuts the input into chunks, and workers in a fork-join
+ * pool sort the chunks. The calling thread writes the sorted chunks to
+ * the run file in input order and lists them in a RunDirectory. There
+ * are workers + 1 chunk buffers, together holding the heap share of the
+ * memory budget. Once they are all in use, the reader waits for the
+ * writer to free one. If the writer stops early, it raises a flag and
+ * wakes the reader with an empty chunk instead of interrupting it, since
+ * an interrupt during a channel read would close the caller's input
+ * channel, and it waits for the reader to finish.
+ *
+ * With the RADIX engine, chunks are sorted by RadixSort instead of
+ * RecordSort. Each chunk then carries a scratch copy of itself, so chunks
+ * hold half as many records.
+ *
+ * For a durable sort, each run is forced to disk and recorded in the
+ * SortCheckpoint as soon as it is written, and a resumed sort starts
+ * reading at the first input byte not yet in a run.
+ *
+ * Runs are the size of a chunk instead of the longer replacement
+ * selection runs. The merged output is still identical to the
+ * single-threaded mode, because every sort in the project orders records
+ * by key and then by ID.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class ParallelRunGenerator {
+    private KeyOrder order;
+    private int workers;
+    private SortConfig config;
+    private int chunkRecords; // records per chunk
+    private boolean radix; // true to radix sort the chunks
+    private volatile boolean stopped; // true once the writer gives up
+
+    /**
+     * a chunk the writer puts in the free queue to wake a waiting reader
+     */
+    private static final Chunk STOP = new Chunk(0, false);
+
+    /**
+     * A chunk of records being sorted, reused from run to run
+     */
+    private static class Chunk {
+        private long[] keys; // sortable key bits
+        private long[] ids;
+        private long[] scratchKeys; // radix sort only
+        private long[] scratchIDs;
+        private int count;
+
+        /**
+         * Create a new Chunk object.
+         *
+         * @param capacity
+         *            records per chunk
+         * @param scratch
+         *            true to allocate radix sort scratch space
+         */
+        Chunk(int capacity, boolean scratch) {
+            keys = new long[capacity];
+            ids = new long[capacity];
+            if (scratch) {
+                scratchKeys = new long[capacity];
+                scratchIDs = new long[capacity];
+            }
+        }
+
+
+        /**
+         * Sort the records in the chunk
+         */
+        void sort() {
+            if (scratchKeys != null) {
+                RadixSort.sort(keys, ids, scratchKeys, scratchIDs, count);
+            }
+            else {
+                RecordSort.sort(keys, ids, 0, count);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new ParallelRunGenerator object.
+     *
+     * @param config
+     *            sort configuration, including the number of workers
+     */
+    ParallelRunGenerator(SortConfig config) {
+        order = config.getKeyOrder();
+        workers = config.getWorkers();
+        this.config = config;
+        radix = config.getRunEngine() == RunEngine.RADIX;
+        // Keep chunks in whole blocks, and at least one block each
+        int perChunk = config.getHeapRecords() / (workers + 1);
+        if (radix) {
+            perChunk /= 2;
+        }
+        int perBlock = config.getRecordsPerBlock();
+        chunkRecords = Math.max(perBlock, perChunk / perBlock * perBlock);
+    }
+
+
+    /**
+     * Sort the input into runs
+     *
+     * @param input
+     *            channel of the input file
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param runChannel
+     *            channel of the run file, written from offset 0
+     * @return the runs that were written
+     * @throws IOException
+     */
+    public RunDirectory generate(
+        FileChannel input,
+        long inputEnd,
+        FileChannel runChannel)
+        throws IOException {
+        return generate(input, inputEnd, runChannel, null);
+    }
+
+
+    /**
+     * Sort the input into runs, recording each one in a checkpoint
+     *
+     * @param input
+     *            channel of the input file
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param runChannel
+     *            channel of the run file
+     * @param checkpoint
+     *            progress of a durable sort, or null; its runs are kept
+     *            and the rest of the input is added after them
+     * @return every run, old and new
+     * @throws IOException
+     */
+    public RunDirectory generate(
+        FileChannel input,
+        long inputEnd,
+        FileChannel runChannel,
+        SortCheckpoint checkpoint)
+        throws IOException {
+        RunDirectory directory = new RunDirectory();
+        long inputStart = 0;
+        long runStart = 0;
+        if (checkpoint != null) {
+            for (Run run : checkpoint.getRuns()) {
+                directory.add(run);
+            }
+            inputStart = checkpoint.getInputDone();
+            runStart = checkpoint.runFileEnd();
+        }
+        stopped = false;
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(workers + 1);
+        for (int i = 0; i <= workers; i++) {
+            free.add(new Chunk(chunkRecords, radix));
+        }
+        // sorted chunks in input order; a null chunk marks the end
+        BlockingQueue<CompletableFuture<Chunk>> sorted =
+            new ArrayBlockingQueue<>(workers + 2);
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        long readFrom = inputStart;
+        Thread reader = new Thread(() -> readChunks(input, readFrom, inputEnd,
+            free, sorted, pool), "run-reader");
+        reader.start();
+
+        long inputDone = inputStart;
+        try (BlockWriter writer = BlockWriter.openRun(runChannel, runStart,
+            config)) {
+            if (checkpoint != null) {
+                writer.setChecksummed();
+            }
+            while (true) {
+                Chunk chunk = sorted.take().join();
+                if (chunk == null) {
+                    break;
+                }
+                long start = writer.position();
+                for (int i = 0; i < chunk.count; i++) {
+                    writer.write(chunk.ids[i], order.fromSortableBits(
+                        chunk.keys[i]));
+                }
+                Run run = writer.endRun(start, chunk.count, order
+                    .fromSortableBits(chunk.keys[0]), order.fromSortableBits(
+                        chunk.keys[chunk.count - 1]));
+                directory.add(run);
+                inputDone += (long)chunk.count * Record.BYTES;
+                if (checkpoint != null) {
+                    writer.force();
+                    checkpoint.runCompleted(run, writer.checksum(), inputDone);
+                }
+                free.put(chunk);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing runs", e);
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw e;
+        }
+        finally {
+            stopReader(reader, free, sorted);
+            pool.shutdownNow();
+        }
+        return directory;
+    }
+
+
+    /**
+     * Stop the reader thread without interrupting it, and wait for it to
+     * end, so the input channel is neither closed nor read once the runs
+     * are written or have failed
+     *
+     * @param reader
+     *            the reader thread
+     * @param free
+     *            chunks ready to be filled
+     * @param sorted
+     *            the sorting tasks
+     */
+    private void stopReader(
+        Thread reader,
+        BlockingQueue<Chunk> free,
+        BlockingQueue<CompletableFuture<Chunk>> sorted) {
+        stopped = true;
+        // make room for a reader waiting in put(), and wake one waiting
+        // in take(); if no chunk is free, the reader cannot be waiting
+        sorted.clear();
+        free.offer(STOP);
+        boolean interrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Body of the reader thread: fill free chunks from the input and hand
+     * them to the pool to be sorted. Any failure, checked or not, goes to
+     * the writer as a failed chunk, which its join() rethrows. The reader
+     * ends without reading further once the writer has stopped.
+     *
+     * @param input
+     *            channel of the input file
+     * @param inputStart
+     *            file offset of the first record to read
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param free
+     *            chunks ready to be filled
+     * @param sorted
+     *            where the sorting tasks go, in input order
+     * @param pool
+     *            the workers
+     */
+    private void readChunks(
+        FileChannel input,
+        long inputStart,
+        long inputEnd,
+        BlockingQueue<Chunk> free,
+        BlockingQueue<CompletableFuture<Chunk>> sorted,
+        ForkJoinPool pool) {
+        try (BlockReader reader = BlockReader.open(input, inputStart,
+            inputEnd, config)) {
+            while (reader.hasNext()) {
+                Chunk chunk = free.take();
+                if (stopped) {
+                    return;
+                }
+                chunk.count = 0;
+                while (chunk.count < chunkRecords && reader.hasNext()) {
+                    reader.next();
+                    chunk.ids[chunk.count] = reader.id();
+                    chunk.keys[chunk.count] = order.sortableBits(reader
+                        .keyBits());
+                    chunk.count++;
+                }
+                sorted.put(CompletableFuture.supplyAsync(() -> {
+                    chunk.sort();
+                    return chunk;
+                }, pool));
+            }
+            sorted.put(CompletableFuture.completedFuture(null));
+        }
+        catch (InterruptedException e) {
+            // nothing interrupts the reader, but it must not linger
+            Thread.currentThread().interrupt();
+        }
+        catch (Throwable t) {
+            // anything else would leave the writer waiting forever
+            sorted.offer(CompletableFuture.failedFuture(t instanceof IOException
+                ? new UncheckedIOException((IOException)t)
+                : t));
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+
+// -------------------------------------------------------------------------
+/**
+ * Sorts only the part of the input a query needs: the K smallest
+ * records, the records with keys in [lo, hi), or the K smallest of those.
+ *
+ * The input is read once. Records outside the key range are dropped as
+ * they are read. For a top-K query that fits in the heap share of the
+ * budget, a MinHeap ordered largest first holds the K smallest records
+ * seen so far; a record smaller than its top replaces it in one sift, so
+ * the scan costs O(n log K) and the run file is never touched. Otherwise
+ * the kept records are collected into a chunk, and if the input ends
+ * before the chunk fills, the chunk is sorted and written as the output.
+ * Only a result bigger than memory spills: each full chunk is sorted and
+ * written as a run, and the caller merges the runs as usual, with the
+ * merge stopping after K records.
+ *
+ * Records compare by key in the configured KeyOrder and then by ID, as in
+ * every other sort, so a partial sort gives exactly the front, or the key
+ * range, of the full sort's output.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class PartialSorter {
+    private SortConfig config;
+    private KeyOrder order;
+    private long topK; // records wanted, or 0 for all of them
+    private boolean ranged; // true to keep only keys in [loBits, hiBits)
+    private long loBits;
+    private long hiBits;
+    private int capacity; // records that fit in memory
+
+    /**
+     * A record in the top-K heap, ordered as KeyOrder.compareRecords
+     * orders it. Once the heap is full, the entry on top is overwritten
+     * with each record that displaces it.
+     */
+    private class Entry implements Comparable<Entry> {
+        private long id;
+        private long keyBits;
+
+        // ----------------------------------------------------------
+        /**
+         * Create a new Entry object.
+         *
+         * @param id
+         *            record ID
+         * @param keyBits
+         *            key bits
+         */
+        Entry(long id, long keyBits) {
+            this.id = id;
+            this.keyBits = keyBits;
+        }
+
+
+        @Override
+        public int compareTo(Entry other) {
+            return compareTo(other.id, other.keyBits);
+        }
+
+
+        /**
+         * Compare this entry with a record
+         *
+         * @param otherID
+         *            ID of the record
+         * @param otherBits
+         *            key bits of the record
+         * @return negative, zero or positive as this entry sorts before,
+         *         with or after the record
+         */
+        int compareTo(long otherID, long otherBits) {
+            return order.compareRecords(id, keyBits, otherID, otherBits);
+        }
+    }
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new PartialSorter object.
+     *
+     * @param config
+     *            sort configuration, with a top K, a key range or both
+     */
+    PartialSorter(SortConfig config) {
+        this.config = config;
+        order = config.getKeyOrder();
+        topK = config.getTopK();
+        ranged = config.hasKeyRange();
+        loBits = Double.doubleToLongBits(config.getRangeLo());
+        hiBits = Double.doubleToLongBits(config.getRangeHi());
+        capacity = config.getHeapRecords();
+    }
+
+
+    /**
+     * Select and sort the records the query needs
+     *
+     * @param input
+     *            channel of the input file
+     * @param inputEnd
+     *            file offset just past the last input record
+     * @param runChannel
+     *            channel of the run file, written from offset 0 only if
+     *            the result does not fit in memory
+     * @param output
+     *            channel of the output file, written from offset 0 if the
+     *            result fits in memory
+     * @param index
+     *            an empty index of the output, filled if the output is
+     *            written here
+     * @return null if the output was written, otherwise the runs still to
+     *         be merged
+     * @throws IOException
+     */
+    public RunDirectory select(
+        FileChannel input,
+        long inputEnd,
+        FileChannel runChannel,
+        FileChannel output,
+        SparseIndex index)
+        throws IOException {
+        // a spill that fails must not leave reads ahead of the input
+        try (BlockReader reader = BlockReader.open(input, 0, inputEnd,
+            config)) {
+            if (topK > 0 && topK <= capacity) {
+                return selectTop(reader, output, index);
+            }
+
+            long[] keys = new long[(int)Math.min(capacity, inputEnd
+                / Record.BYTES)];
+            long[] ids = new long[keys.length];
+            RunDirectory directory = null;
+            long runStart = 0;
+            int count = 0;
+            while (reader.hasNext()) {
+                reader.next();
+                if (!inRange(reader.keyBits())) {
+                    continue;
+                }
+                if (count == keys.length) {
+                    // the result does not fit: spill the chunk as a run
+                    if (directory == null) {
+                        directory = new RunDirectory();
+                    }
+                    runStart = writeRun(keys, ids, count, runChannel, runStart,
+                        directory);
+                    count = 0;
+                }
+                keys[count] = order.sortableBits(reader.keyBits());
+                ids[count] = reader.id();
+                count++;
+            }
+            if (directory == null) {
+                RecordSort.sort(keys, ids, 0, count);
+                writeOutput(keys, ids, (int)Math.min(count, topK > 0
+                    ? topK
+                    : count), output, index);
+                return null;
+            }
+            if (count > 0) {
+                writeRun(keys, ids, count, runChannel, runStart, directory);
+            }
+            return directory;
+        }
+    }
+
+
+    /**
+     * Keep the K smallest records in a bounded heap, then write them
+     *
+     * @param reader
+     *            reader over the input
+     * @param output
+     *            channel of the output file
+     * @param index
+     *            index of the output
+     * @throws IOException
+     * @return null, since the output is written
+     */
+    private RunDirectory selectTop(
+        BlockReader reader,
+        FileChannel output,
+        SparseIndex index)
+        throws IOException {
+        int k = (int)topK;
+        Entry[] array = new Entry[k];
+        // the largest of the records kept is on top
+        MinHeap<Entry> heap = new MinHeap<>(array, 0, k, Comparator
+            .reverseOrder(), config.getHeapArity());
+        while (reader.hasNext()) {
+            reader.next();
+            long keyBits = reader.keyBits();
+            if (!inRange(keyBits)) {
+                continue;
+            }
+            if (heap.heapSize() < k) {
+                heap.insert(new Entry(reader.id(), keyBits));
+                continue;
+            }
+            Entry top = heap.min();
+            if (top.compareTo(reader.id(), keyBits) > 0) {
+                // the displaced record's entry takes the new one
+                top.id = reader.id();
+                top.keyBits = keyBits;
+                heap.replaceMin(top);
+            }
+        }
+        config.getMetrics().addComparisons(heap.comparisons());
+
+        int count = heap.heapSize();
+        long[] keys = new long[count];
+        long[] ids = new long[count];
+        for (int i = count - 1; i >= 0; i--) {
+            Entry largest = heap.removeMin();
+            keys[i] = order.sortableBits(largest.keyBits);
+            ids[i] = largest.id;
+        }
+        writeOutput(keys, ids, count, output, index);
+        return null;
+    }
+
+
+    /**
+     * Return true if a key is in the range, or there is no range
+     *
+     * @param keyBits
+     *            key bits
+     * @return true to keep the record
+     */
+    private boolean inRange(long keyBits) {
+        return !ranged || (order.compareBits(keyBits, loBits) >= 0 && order
+            .compareBits(keyBits, hiBits) < 0);
+    }
+
+
+    /**
+     * Sort a chunk and append it to the run file as one run
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param count
+     *            records in the chunk
+     * @param runChannel
+     *            channel of the run file
+     * @param start
+     *            file offset of the run
+     * @param directory
+     *            where the run is listed
+     * @return file offset just past the run
+     * @throws IOException
+     */
+    private long writeRun(
+        long[] keys,
+        long[] ids,
+        int count,
+        FileChannel runChannel,
+        long start,
+        RunDirectory directory)
+        throws IOException {
+        RecordSort.sort(keys, ids, 0, count);
+        try (BlockWriter writer = BlockWriter.openRun(runChannel, start,
+            config)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(ids[i], order.fromSortableBits(keys[i]));
+            }
+            directory.add(writer.endRun(start, count, order.fromSortableBits(
+                keys[0]), order.fromSortableBits(keys[count - 1])));
+            return writer.position();
+        }
+    }
+
+
+    /**
+     * Write sorted records as the output, indexing the first record of
+     * every block
+     *
+     * @param keys
+     *            sortable key bits, in order
+     * @param ids
+     *            record IDs
+     * @param count
+     *            records to write
+     * @param output
+     *            channel of the output file
+     * @param index
+     *            index of the output
+     * @throws IOException
+     */
+    private void writeOutput(
+        long[] keys,
+        long[] ids,
+        int count,
+        FileChannel output,
+        SparseIndex index)
+        throws IOException {
+        int perBlock = config.getRecordsPerBlock();
+        try (BlockWriter writer = BlockWriter.open(output, 0, config)) {
+            for (int i = 0; i < count; i++) {
+                long keyBits = order.fromSortableBits(keys[i]);
+                if (i % perBlock == 0) {
+                    index.add(ids[i], keyBits, writer.position());
+                }
+                writer.write(ids[i], keyBits);
+            }
+            index.setFileLength(writer.position());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// -------------------------------------------------------------------------
+/**
+ * Sorts records stored as parallel arrays of sortable key bits (see
+ * KeyOrder.sortableBits()) and IDs with a least-significant-digit radix
+ * sort, in the same order as RecordSort: keys as unsigned numbers, then
+ * IDs.
+ *
+ * The keys are sorted one byte at a time from the lowest byte up. Every
+ * pass is a stable counting scatter between the records and a scratch
+ * copy of the same size. All 8 byte histograms are counted in a single
+ * read of the input, and a pass is skipped when all records share the
+ * same byte, so narrow key ranges cost fewer passes. Records with equal
+ * keys end up next to each other, and each such group is then put in ID
+ * order by RecordSort. Unless keys repeat a lot, the sort does O(n) work
+ * per pass and no comparisons.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class RadixSort {
+    /**
+     * values of one byte
+     */
+    private static final int RADIX = 256;
+
+    /**
+     * bytes in a key
+     */
+    private static final int DIGITS = 8;
+
+    /**
+     * Utility class; not instantiated
+     */
+    private RadixSort() {
+        // static methods only
+    }
+
+
+    /**
+     * Sort the first count records
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs, moved along with their keys
+     * @param scratchKeys
+     *            scratch space, at least count long
+     * @param scratchIDs
+     *            scratch space, at least count long
+     * @param count
+     *            number of records to sort
+     */
+    public static void sort(
+        long[] keys,
+        long[] ids,
+        long[] scratchKeys,
+        long[] scratchIDs,
+        int count) {
+        int[][] histograms = new int[DIGITS][RADIX];
+        for (int i = 0; i < count; i++) {
+            long key = keys[i];
+            for (int d = 0; d < DIGITS; d++) {
+                histograms[d][(int)(key >>> (8 * d)) & 0xff]++;
+            }
+        }
+
+        long[] fromKeys = keys;
+        long[] fromIDs = ids;
+        long[] toKeys = scratchKeys;
+        long[] toIDs = scratchIDs;
+        for (int d = 0; d < DIGITS; d++) {
+            int[] offsets = histograms[d];
+            if (isTrivial(offsets, count)) {
+                continue; // every record has the same byte here
+            }
+            // Counts to starting offsets
+            int sum = 0;
+            for (int b = 0; b < RADIX; b++) {
+                int c = offsets[b];
+                offsets[b] = sum;
+                sum += c;
+            }
+            int shift = 8 * d;
+            for (int i = 0; i < count; i++) {
+                long key = fromKeys[i];
+                int to = offsets[(int)(key >>> shift) & 0xff]++;
+                toKeys[to] = key;
+                toIDs[to] = fromIDs[i];
+            }
+            long[] swap = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swap;
+            swap = fromIDs;
+            fromIDs = toIDs;
+            toIDs = swap;
+        }
+
+        if (fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, count);
+            System.arraycopy(fromIDs, 0, ids, 0, count);
+        }
+        sortTies(keys, ids, count);
+    }
+
+
+    /**
+     * Put each group of equal keys in ID order
+     *
+     * @param keys
+     *            sortable key bits, in order
+     * @param ids
+     *            record IDs
+     * @param count
+     *            number of records
+     */
+    private static void sortTies(long[] keys, long[] ids, int count) {
+        int from = 0;
+        for (int i = 1; i <= count; i++) {
+            if (i == count || keys[i] != keys[from]) {
+                if (i - from > 1) {
+                    RecordSort.sort(keys, ids, from, i);
+                }
+                from = i;
+            }
+        }
+    }
+
+
+    /**
+     * Return true if one byte value accounts for every record
+     *
+     * @param histogram
+     *            counts of each byte value
+     * @param count
+     *            number of records
+     * @return true if a pass over this byte would not move anything
+     */
+    private static boolean isTrivial(int[] histogram, int count) {
+        for (int c : histogram) {
+            if (c != 0) {
+                return c == count;
+            }
+        }
+        return true;
+    }
+}
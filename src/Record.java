@@ -1,5 +1,3 @@
-import java.math.BigInteger;
-
 /**
  * Holds a single record
  *
@@ -53,22 +51,24 @@ public class Record implements Comparable<Record> {
 
     // ----------------------------------------------------------
     /**
-     * Compare two records based on their keys
+     * Return the bit pattern of the key, as compared by KeyOrder
+     *
+     * @return record key bits
+     */
+    public long getKeyBits() {
+        return Double.doubleToLongBits(key);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Compare two records based on their keys, using the unsigned order
+     * of the key bits
      *
      * @return int
      */
     @Override
     public int compareTo(Record toBeCompared) {
-        String str1;
-        String str2;
-        str1 = Long.toHexString(Double.doubleToLongBits(this.key));
-        str2 = Long.toHexString(Double.doubleToLongBits(toBeCompared.key));
-
-        // Convert str1 to BigInteger
-        BigInteger num1 = new BigInteger(str1, 16);
-
-        // Convert str2 to BigInteger
-        BigInteger num2 = new BigInteger(str2, 16);
-        return num1.compareTo(num2); // Compare the two BigIntegers
+        return KeyOrder.UNSIGNED_BITS.compare(this, toBeCompared);
     }
 }
@@ -0,0 +1,335 @@
+// Min-heap specialized for 16-byte records, based on MinHeap.
+// IDs and keys live in parallel long arrays, so no operation allocates.
+
+// -------------------------------------------------------------------------
+/**
+ * A min-heap of (ID, key) records stored in two parallel long arrays.
+ * Keys are kept in the "sortable" form of their KeyOrder, so a sift step
+ * is a single unsigned compare. Records with equal keys are ordered by ID,
+ * which makes the output of every sort mode deterministic.
+ *
+ * Callers read the minimum with minID() and minKeyBits() and then call
+ * removeMin() or replaceMin(); nothing is boxed along the way.
+ *
+ * For replacement selection, deferMin() parks a record for the next run
+ * in the slot the shrinking heap gives up at the end of the arrays.
+ * startNewRun() then turns every parked record back into a heap in one
+ * bottom-up pass. defer() parks records while the heap is empty, so the
+ * first run's heap is built the same way instead of one sift per record.
+ *
+ * The heap may be 4-ary or 8-ary instead of binary. With 8-byte keys the
+ * four children of a node share half a cache line and the eight children
+ * a whole one (when the array happens to be aligned), and the tree is
+ * half or a third as deep, so a sift from the root touches fewer lines
+ * for a few more comparisons per level.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class RecordHeap {
+    private long[] ids; // record IDs, in heap order
+    private long[] keys; // sortable key bits, in heap order
+    private KeyOrder order; // ordering of the keys
+    private int n; // Number of active records currently in heap
+    private int stored; // active records plus records parked after them
+    private long comparisons; // made by sifts, for SortMetrics
+    private int arity; // children per node
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new, empty RecordHeap object.
+     *
+     * @param capacity
+     *            maximum number of records
+     * @param order
+     *            ordering of the keys
+     */
+    RecordHeap(int capacity, KeyOrder order) {
+        this(capacity, order, 2);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new, empty d-ary RecordHeap object.
+     *
+     * @param capacity
+     *            maximum number of records
+     * @param order
+     *            ordering of the keys
+     * @param arity
+     *            children per node, 2 for a binary heap
+     */
+    RecordHeap(int capacity, KeyOrder order, int arity) {
+        assert arity >= 2 : "A heap needs at least two children per node";
+        ids = new long[capacity];
+        keys = new long[capacity];
+        this.order = order;
+        this.arity = arity;
+        n = 0;
+        stored = 0;
+    }
+
+
+    /**
+     * Return current size of the heap
+     *
+     * @return current heapSize
+     */
+    public int heapSize() {
+        return n;
+    }
+
+
+    /**
+     * Return the number of records parked for the next run
+     *
+     * @return number of deferred records
+     */
+    public int deferredCount() {
+        return stored - n;
+    }
+
+
+    /**
+     * Return the number of record comparisons made so far
+     *
+     * @return comparisons
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
+
+    /**
+     * Return the maximum number of records the heap can hold
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return ids.length;
+    }
+
+
+    /**
+     * Return the ID of the minimum record
+     *
+     * @return ID of the minimum record
+     */
+    public long minID() {
+        assert n > 0 : "Heap is empty";
+        return ids[0];
+    }
+
+
+    /**
+     * Return the key bits of the minimum record
+     *
+     * @return key bits of the minimum record
+     */
+    public long minKeyBits() {
+        assert n > 0 : "Heap is empty";
+        return order.fromSortableBits(keys[0]);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Insert a record into heap
+     *
+     * @param id
+     *            record ID
+     * @param keyBits
+     *            record key bits
+     */
+    public void insert(long id, long keyBits) {
+        assert stored < ids.length : "Heap is full; cannot insert";
+        if (stored > n) {
+            // Make room by moving the first parked record to the end
+            ids[stored] = ids[n];
+            keys[stored] = keys[n];
+        }
+        stored++;
+        n++;
+        siftUp(n - 1, id, order.sortableBits(keyBits));
+    }
+
+
+    /**
+     * Park a record for the next run while the heap is empty, without
+     * sifting it; startNewRun() builds the heap from every parked record.
+     *
+     * @param id
+     *            record ID
+     * @param keyBits
+     *            record key bits
+     */
+    public void defer(long id, long keyBits) {
+        assert n == 0 : "Records can only be parked around an empty heap";
+        assert stored < ids.length : "Heap is full; cannot insert";
+        ids[stored] = id;
+        keys[stored] = order.sortableBits(keyBits);
+        stored++;
+    }
+
+
+    /**
+     * Remove the minimum record
+     */
+    public void removeMin() {
+        assert n > 0 : "Heap is empty; cannot remove";
+        n--;
+        long lastID = ids[n];
+        long lastKey = keys[n];
+        stored--;
+        if (stored > n) {
+            // Fill the gap with the last parked record
+            ids[n] = ids[stored];
+            keys[n] = keys[stored];
+        }
+        if (n > 0) {
+            siftDown(0, lastID, lastKey); // Move last record into the hole
+        }
+    }
+
+
+    /**
+     * Remove the minimum record and park another one for the next run.
+     *
+     * @param id
+     *            ID of the record to park
+     * @param keyBits
+     *            key bits of the record to park
+     */
+    public void deferMin(long id, long keyBits) {
+        assert n > 0 : "Heap is empty; cannot remove";
+        n--;
+        long lastID = ids[n];
+        long lastKey = keys[n];
+        ids[n] = id; // the slot the heap gave up
+        keys[n] = order.sortableBits(keyBits);
+        if (n > 0) {
+            siftDown(0, lastID, lastKey); // Move last record into the hole
+        }
+    }
+
+
+    /**
+     * Make every parked record active again and restore the heap property
+     */
+    public void startNewRun() {
+        n = stored;
+        // Call sift down on each internal node, starting from bottom
+        for (int i = lastParent(); i >= 0; i--) {
+            siftDown(i, ids[i], keys[i]);
+        }
+    }
+
+
+    /**
+     * Remove the minimum record and insert another in a single sift.
+     *
+     * @param id
+     *            ID of the record to insert
+     * @param keyBits
+     *            key bits of the record to insert
+     */
+    public void replaceMin(long id, long keyBits) {
+        assert n > 0 : "Heap is empty; cannot replace";
+        siftDown(0, id, order.sortableBits(keyBits));
+    }
+
+
+    /**
+     * Moves a hole at pos down until the record fits, then stores it.
+     *
+     * @param pos
+     *            position of the hole
+     * @param id
+     *            ID of the record to place
+     * @param key
+     *            sortable key of the record to place
+     */
+    private void siftDown(int pos, long id, long key) {
+        int lastParent = lastParent();
+        while (pos <= lastParent) {
+            int first = arity * pos + 1;
+            int last = Math.min(first + arity, n);
+            comparisons += last - first;
+            // find the smallest child
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (isLessThan(keys[c], ids[c], keys[child], ids[child])) {
+                    child = c;
+                }
+            }
+            if (!isLessThan(keys[child], ids[child], key, id)) {
+                break; // stop early
+            }
+            ids[pos] = ids[child]; // move the child up into the hole
+            keys[pos] = keys[child];
+            pos = child;
+        }
+        ids[pos] = id;
+        keys[pos] = key;
+    }
+
+
+    /**
+     * Moves a hole at pos up until the record fits, then stores it.
+     *
+     * @param pos
+     *            position of the hole
+     * @param id
+     *            ID of the record to place
+     * @param key
+     *            sortable key of the record to place
+     */
+    private void siftUp(int pos, long id, long key) {
+        while (pos > 0) {
+            int parent = (pos - 1) / arity;
+            comparisons++;
+            if (!isLessThan(key, id, keys[parent], ids[parent])) {
+                break; // stop early
+            }
+            ids[pos] = ids[parent]; // move the parent down into the hole
+            keys[pos] = keys[parent];
+            pos = parent;
+        }
+        ids[pos] = id;
+        keys[pos] = key;
+    }
+
+
+    /**
+     * Return the position of the last node with children
+     *
+     * @return position, or -1 if no node has children
+     */
+    private int lastParent() {
+        return n < 2 ? -1 : (n - 2) / arity;
+    }
+
+
+    /**
+     * does fundamental comparison used for checking heap validity
+     *
+     * @param key1
+     *            sortable key of the first record
+     * @param id1
+     *            ID of the first record
+     * @param key2
+     *            sortable key of the second record
+     * @param id2
+     *            ID of the second record
+     * @return true if the first record sorts before the second
+     */
+    private static boolean isLessThan(
+        long key1,
+        long id1,
+        long key2,
+        long id2) {
+        int c = Long.compareUnsigned(key1, key2);
+        return c < 0 || (c == 0 && id1 < id2);
+    }
+}
@@ -0,0 +1,109 @@
+// -------------------------------------------------------------------------
+/**
+ * Collapses duplicate keys in a stream of records that arrive in sorted
+ * order, as a Reducer says.
+ *
+ * Each record passed to add() is held back until a record with another
+ * key shows that nothing more can join it; add() then returns true and
+ * id() and keyBits() give the finished record. finish() releases the
+ * last one. Keys are the same when their bits are, which in either
+ * KeyOrder is when they sort together.
+ *
+ * Records straight from the input count as one each. Records that were
+ * already reduced, in runs being merged, carry their count in the ID
+ * field, and the counts are added up.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class RecordReducer {
+    private Reducer reducer;
+    private boolean raw; // true if IDs are input IDs rather than counts
+    private boolean held; // true if a record is being held back
+    private long heldID;
+    private long heldKey;
+    private long outID; // the finished record
+    private long outKey;
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new RecordReducer object.
+     *
+     * @param reducer
+     *            how to collapse duplicates, not NONE
+     * @param raw
+     *            true for records straight from the input, false for
+     *            records already reduced
+     */
+    RecordReducer(Reducer reducer, boolean raw) {
+        this.reducer = reducer;
+        this.raw = raw;
+    }
+
+
+    /**
+     * Add the next record in sorted order
+     *
+     * @param id
+     *            record ID, or count if already reduced
+     * @param keyBits
+     *            record key bits
+     * @return true if a finished record is ready
+     */
+    public boolean add(long id, long keyBits) {
+        long value = raw && reducer == Reducer.COUNT ? 1 : id;
+        if (held && keyBits == heldKey) {
+            if (reducer == Reducer.FIRST) {
+                return false;
+            }
+            if (reducer == Reducer.COUNT) {
+                heldID += value;
+                return false;
+            }
+            if (id == heldID) {
+                return false; // an exact duplicate
+            }
+        }
+        boolean ready = held;
+        outID = heldID;
+        outKey = heldKey;
+        held = true;
+        heldID = value;
+        heldKey = keyBits;
+        return ready;
+    }
+
+
+    /**
+     * Release the record held back, at the end of the stream
+     *
+     * @return true if a finished record is ready
+     */
+    public boolean finish() {
+        boolean ready = held;
+        outID = heldID;
+        outKey = heldKey;
+        held = false;
+        return ready;
+    }
+
+
+    /**
+     * Return the ID of the finished record
+     *
+     * @return record ID, or count
+     */
+    public long id() {
+        return outID;
+    }
+
+
+    /**
+     * Return the key bits of the finished record
+     *
+     * @return record key bits
+     */
+    public long keyBits() {
+        return outKey;
+    }
+}
@@ -0,0 +1,284 @@
+// In-place sorting of records held in parallel long arrays.
+// Introsort: quicksort, with heapsort below a depth limit and insertion
+// sort for short ranges, so the worst case stays O(n log n).
+
+// -------------------------------------------------------------------------
+/**
+ * Sorts records stored as parallel arrays of sortable key bits (see
+ * KeyOrder.sortableBits()) and IDs. Keys compare as unsigned numbers and
+ * equal keys are ordered by ID, the same order RecordHeap and LoserTree
+ * use. Nothing is allocated.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class RecordSort {
+    /**
+     * ranges this short are finished with insertion sort
+     */
+    private static final int INSERTION_LIMIT = 24;
+
+    /**
+     * Utility class; not instantiated
+     */
+    private RecordSort() {
+        // static methods only
+    }
+
+
+    /**
+     * Sort a range of records
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs, moved along with their keys
+     * @param from
+     *            first index to sort
+     * @param to
+     *            index just past the last one to sort
+     */
+    public static void sort(long[] keys, long[] ids, int from, int to) {
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        introSort(keys, ids, from, to, depth);
+    }
+
+
+    /**
+     * Quicksort a range, switching to heapsort when too deep
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     * @param depth
+     *            partitions left before falling back to heapsort
+     */
+    private static void introSort(
+        long[] keys,
+        long[] ids,
+        int from,
+        int to,
+        int depth) {
+        while (to - from > INSERTION_LIMIT) {
+            if (depth-- == 0) {
+                heapSort(keys, ids, from, to);
+                return;
+            }
+            int mid = partition(keys, ids, from, to);
+            // Recurse into the smaller side, loop on the larger one
+            if (mid - from < to - mid) {
+                introSort(keys, ids, from, mid, depth);
+                from = mid + 1;
+            }
+            else {
+                introSort(keys, ids, mid + 1, to, depth);
+                to = mid;
+            }
+        }
+        insertionSort(keys, ids, from, to);
+    }
+
+
+    /**
+     * Partition around the median of the first, middle and last records
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     * @return final index of the pivot
+     */
+    private static int partition(long[] keys, long[] ids, int from, int to) {
+        int mid = (from + to) >>> 1;
+        int last = to - 1;
+        if (isLessThan(keys, ids, mid, from)) {
+            swap(keys, ids, mid, from);
+        }
+        if (isLessThan(keys, ids, last, from)) {
+            swap(keys, ids, last, from);
+        }
+        if (isLessThan(keys, ids, last, mid)) {
+            swap(keys, ids, last, mid);
+        }
+        // Park the pivot just before the last record
+        swap(keys, ids, mid, last - 1);
+        long pivotKey = keys[last - 1];
+        long pivotID = ids[last - 1];
+
+        int i = from;
+        int j = last - 1;
+        while (true) {
+            while (isLessThan(keys[++i], ids[i], pivotKey, pivotID)) {
+                // from holds a record no bigger than the pivot
+            }
+            while (isLessThan(pivotKey, pivotID, keys[--j], ids[j])) {
+                // last holds a record no smaller than the pivot
+            }
+            if (i >= j) {
+                break;
+            }
+            swap(keys, ids, i, j);
+        }
+        swap(keys, ids, i, last - 1); // Put the pivot in its place
+        return i;
+    }
+
+
+    /**
+     * Insertion sort for short ranges
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     */
+    private static void insertionSort(
+        long[] keys,
+        long[] ids,
+        int from,
+        int to) {
+        for (int i = from + 1; i < to; i++) {
+            long key = keys[i];
+            long id = ids[i];
+            int j = i - 1;
+            while (j >= from && isLessThan(key, id, keys[j], ids[j])) {
+                keys[j + 1] = keys[j];
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            ids[j + 1] = id;
+        }
+    }
+
+
+    /**
+     * Heapsort with a max-heap, the fallback for bad pivots
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param from
+     *            first index
+     * @param to
+     *            index just past the last one
+     */
+    private static void heapSort(long[] keys, long[] ids, int from, int to) {
+        int n = to - from;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(keys, ids, from, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(keys, ids, from, from + end);
+            siftDown(keys, ids, from, 0, end);
+        }
+    }
+
+
+    /**
+     * Moves an element down a max-heap stored at an offset
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param base
+     *            index of the heap root
+     * @param pos
+     *            heap position to sift
+     * @param n
+     *            heap size
+     */
+    private static void siftDown(
+        long[] keys,
+        long[] ids,
+        int base,
+        int pos,
+        int n) {
+        while (2 * pos + 1 < n) {
+            int child = 2 * pos + 1;
+            if (child + 1 < n && isLessThan(keys, ids, base + child, base
+                + child + 1)) {
+                child++;
+            }
+            if (!isLessThan(keys, ids, base + pos, base + child)) {
+                return;
+            }
+            swap(keys, ids, base + pos, base + child);
+            pos = child;
+        }
+    }
+
+
+    /**
+     * Compare the records at two indexes
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param i
+     *            one index
+     * @param j
+     *            another index
+     * @return true if record i sorts before record j
+     */
+    private static boolean isLessThan(long[] keys, long[] ids, int i, int j) {
+        return isLessThan(keys[i], ids[i], keys[j], ids[j]);
+    }
+
+
+    /**
+     * Compare two records
+     *
+     * @param key1
+     *            sortable key of the first record
+     * @param id1
+     *            ID of the first record
+     * @param key2
+     *            sortable key of the second record
+     * @param id2
+     *            ID of the second record
+     * @return true if the first record sorts before the second
+     */
+    static boolean isLessThan(long key1, long id1, long key2, long id2) {
+        int c = Long.compareUnsigned(key1, key2);
+        return c < 0 || (c == 0 && id1 < id2);
+    }
+
+
+    /**
+     * swaps the records at two indexes
+     *
+     * @param keys
+     *            sortable key bits
+     * @param ids
+     *            record IDs
+     * @param i
+     *            one index
+     * @param j
+     *            another index
+     */
+    private static void swap(long[] keys, long[] ids, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+}
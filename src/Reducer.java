@@ -0,0 +1,81 @@
+/**
+ * The ways duplicate keys can be collapsed as sorted records are written.
+ *
+ * FIRST keeps one record per key: the first in sort order, which, since
+ * equal keys are ordered by ID, is also the one with the smallest ID.
+ * COUNT keeps one record per key whose ID field holds the number of
+ * input records with that key. DISTINCT only drops records that repeat
+ * both the key and the ID of the record before them. Each can be applied
+ * again to its own output without changing it, which is what lets runs
+ * be collapsed as they are formed and again at every merge pass.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public enum Reducer {
+    /**
+     * every record is kept
+     */
+    NONE("none"),
+
+    /**
+     * the first record of each key, which has the smallest ID
+     */
+    FIRST("first-id"),
+
+    /**
+     * one record per key, with the number of records as its ID
+     */
+    COUNT("count"),
+
+    /**
+     * one copy of each exact duplicate record
+     */
+    DISTINCT("distinct");
+
+    private final String optionName;
+
+    /**
+     * Create a new Reducer constant.
+     *
+     * @param optionName
+     *            name used on the command line
+     */
+    Reducer(String optionName) {
+        this.optionName = optionName;
+    }
+
+
+    /**
+     * Return the name used on the command line
+     *
+     * @return option name
+     */
+    public String getOptionName() {
+        return optionName;
+    }
+
+
+    /**
+     * Look up a reducer by its command-line name. "min-id" is another
+     * name for FIRST, because the first record of a key is the one with
+     * the smallest ID.
+     *
+     * @param name
+     *            option name, such as "count"
+     * @return the reducer
+     * @throws IllegalArgumentException
+     *             if no reducer has that name
+     */
+    public static Reducer fromOptionName(String name) {
+        if (name.equals("min-id")) {
+            return FIRST;
+        }
+        for (Reducer reducer : values()) {
+            if (reducer.optionName.equals(name)) {
+                return reducer;
+            }
+        }
+        throw new IllegalArgumentException("Unknown reducer " + name);
+    }
+}
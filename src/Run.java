@@ -0,0 +1,173 @@
+import java.nio.channels.FileChannel;
+
+// -------------------------------------------------------------------------
+/**
+ * A sorted run: a byte range of a file whose records are in key order.
+ * Runs listed in a RunDirectory also know their smallest and largest key.
+ * A compressed run (see RunCodec) takes fewer bytes than its records, so
+ * it also knows how many records it holds.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class Run {
+    private FileChannel channel;
+    private long start;
+    private long end;
+    private long minKeyBits;
+    private long maxKeyBits;
+    private long records = -1; // only known up front if compressed
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new Run object.
+     *
+     * @param channel
+     *            channel of the file holding the run
+     * @param start
+     *            file offset of the first record
+     * @param end
+     *            file offset just past the last record
+     */
+    Run(FileChannel channel, long start, long end) {
+        this(channel, start, end, 0, 0);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new Run object with known key bounds.
+     *
+     * @param channel
+     *            channel of the file holding the run
+     * @param start
+     *            file offset of the first record
+     * @param end
+     *            file offset just past the last record
+     * @param minKeyBits
+     *            key bits of the first record
+     * @param maxKeyBits
+     *            key bits of the last record
+     */
+    Run(
+        FileChannel channel,
+        long start,
+        long end,
+        long minKeyBits,
+        long maxKeyBits) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.minKeyBits = minKeyBits;
+        this.maxKeyBits = maxKeyBits;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new Run object for a compressed run.
+     *
+     * @param channel
+     *            channel of the file holding the run
+     * @param start
+     *            file offset of the first block
+     * @param end
+     *            file offset just past the last block
+     * @param records
+     *            number of records in the run
+     * @param minKeyBits
+     *            key bits of the first record
+     * @param maxKeyBits
+     *            key bits of the last record
+     */
+    Run(
+        FileChannel channel,
+        long start,
+        long end,
+        long records,
+        long minKeyBits,
+        long maxKeyBits) {
+        this(channel, start, end, minKeyBits, maxKeyBits);
+        this.records = records;
+    }
+
+
+    /**
+     * Return the channel of the file holding the run
+     *
+     * @return the channel
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+
+    /**
+     * Return the file offset of the first record
+     *
+     * @return start offset
+     */
+    public long getStart() {
+        return start;
+    }
+
+
+    /**
+     * Return the file offset just past the last record
+     *
+     * @return end offset
+     */
+    public long getEnd() {
+        return end;
+    }
+
+
+    /**
+     * Return the key bits of the smallest record
+     *
+     * @return smallest key bits
+     */
+    public long getMinKeyBits() {
+        return minKeyBits;
+    }
+
+
+    /**
+     * Return the key bits of the largest record
+     *
+     * @return largest key bits
+     */
+    public long getMaxKeyBits() {
+        return maxKeyBits;
+    }
+
+
+    /**
+     * Return true if the run is in the compressed block format
+     *
+     * @return true if compressed
+     */
+    public boolean isCompressed() {
+        return records >= 0;
+    }
+
+
+    /**
+     * Return the size of the run in bytes
+     *
+     * @return number of bytes
+     */
+    public long bytes() {
+        return end - start;
+    }
+
+
+    /**
+     * Return the number of records in the run
+     *
+     * @return number of records
+     */
+    public long records() {
+        return isCompressed() ? records : bytes() / Record.BYTES;
+    }
+}
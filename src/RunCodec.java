@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+
+// -------------------------------------------------------------------------
+/**
+ * The block encoding of compressed runs.
+ *
+ * A compressed run is a series of blocks. Every block but the last is
+ * exactly one block size long, so a reader can still fetch one block at a
+ * time from the start of the run. A block starts with a 4-byte record
+ * count, followed by the records, followed by padding. Each record is the
+ * difference between its sortable key bits and the previous record's,
+ * as an unsigned varint, and then the difference between its ID and the
+ * previous record's, zigzagged into a varint. The first record of a block
+ * is taken relative to zero, so every block decodes on its own.
+ *
+ * Keys in a run only go up, so their deltas are small and never negative:
+ * dense or duplicate keys take a byte or two instead of eight. IDs are
+ * deltas too, which helps when equal keys carry nearby IDs. Nothing
+ * larger than a varint is ever decoded, and decoding is a few shifts per
+ * byte, far quicker than the disk can deliver the bytes it saves.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+final class RunCodec {
+    /**
+     * bytes of the record count at the start of each block
+     */
+    static final int HEADER_BYTES = Integer.BYTES;
+
+    /**
+     * most bytes one encoded record can take: two 10-byte varints
+     */
+    static final int MAX_RECORD_BYTES = 20;
+
+    /**
+     * smallest block size that holds a header and a record, rounded up to
+     * whole records
+     */
+    static final int MIN_BLOCK_SIZE = 32;
+
+    /**
+     * Utility class; not instantiated
+     */
+    private RunCodec() {
+        // static methods only
+    }
+
+
+    /**
+     * Append an unsigned varint: seven bits per byte, low bits first, with
+     * the top bit set on every byte but the last
+     *
+     * @param buffer
+     *            where the bytes go
+     * @param value
+     *            the value, taken as unsigned
+     */
+    static void putVarLong(ByteBuffer buffer, long value) {
+        long rest = value;
+        while ((rest & ~0x7fL) != 0) {
+            buffer.put((byte)(rest | 0x80));
+            rest >>>= 7;
+        }
+        buffer.put((byte)rest);
+    }
+
+
+    /**
+     * Map a signed value onto an unsigned one that is small when the
+     * signed value is near zero
+     *
+     * @param value
+     *            signed value
+     * @return 0, 1, 2, 3... for 0, -1, 1, -2...
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    /**
+     * Undo zigzag()
+     *
+     * @param value
+     *            value returned by zigzag()
+     * @return the signed value
+     */
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
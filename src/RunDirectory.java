@@ -0,0 +1,156 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// -------------------------------------------------------------------------
+/**
+ * The list of runs in a run file, kept in a small file of its own so that
+ * the merge phase does not have to guess where runs begin and end.
+ *
+ * The file holds a magic number, a format version, the Reducer that
+ * formed the runs, the number of runs, and for each run its start and end
+ * offsets, record count, smallest key bits and largest key bits, all as
+ * big-endian longs, and a byte that is 1 if the run is compressed.
+ * Version 1 files had no version or end offset and no compressed runs,
+ * and version 2 files had no reducer; they can no longer be read.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class RunDirectory {
+    /**
+     * first four bytes of every run directory file
+     */
+    private static final int MAGIC = 0x52554e53; // "RUNS"
+
+    /**
+     * directory layout version
+     */
+    private static final int VERSION = 3;
+
+    private List<Run> runs = new ArrayList<>();
+    private Reducer reducer = Reducer.NONE; // how the runs were reduced
+
+    /**
+     * Add a run to the end of the directory
+     *
+     * @param run
+     *            the run
+     */
+    public void add(Run run) {
+        runs.add(run);
+    }
+
+
+    /**
+     * Return the runs in file order
+     *
+     * @return the runs
+     */
+    public List<Run> getRuns() {
+        return runs;
+    }
+
+
+    /**
+     * Return how the runs collapsed duplicate keys
+     *
+     * @return the reducer, NONE if every record was kept
+     */
+    public Reducer getReducer() {
+        return reducer;
+    }
+
+
+    /**
+     * Record how the runs collapsed duplicate keys
+     *
+     * @param runReducer
+     *            the reducer, NONE if every record was kept
+     */
+    public void setReducer(Reducer runReducer) {
+        reducer = runReducer;
+    }
+
+
+    /**
+     * Write the directory to a file
+     *
+     * @param name
+     *            directory file name
+     * @throws IOException
+     */
+    public void write(String name) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(Paths.get(
+                name))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(reducer.ordinal());
+            out.writeInt(runs.size());
+            for (Run run : runs) {
+                out.writeLong(run.getStart());
+                out.writeLong(run.getEnd());
+                out.writeLong(run.records());
+                out.writeLong(run.getMinKeyBits());
+                out.writeLong(run.getMaxKeyBits());
+                out.writeBoolean(run.isCompressed());
+            }
+        }
+    }
+
+
+    /**
+     * Read a directory written by write()
+     *
+     * @param name
+     *            directory file name
+     * @param channel
+     *            channel of the run file the directory describes
+     * @return the directory
+     * @throws IOException
+     *             if the file cannot be read or is not a run directory
+     */
+    public static RunDirectory read(String name, FileChannel channel)
+        throws IOException {
+        RunDirectory directory = new RunDirectory();
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(Paths.get(
+                name))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(name + " is not a run directory");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(name + " is a version " + version
+                    + " run directory, not version " + VERSION);
+            }
+            directory.setReducer(Reducer.values()[in.readInt()]);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                long records = in.readLong();
+                long minKeyBits = in.readLong();
+                long maxKeyBits = in.readLong();
+                if (end > channel.size()) {
+                    throw new EOFException("Run " + i + " in " + name
+                        + " ends past the end of the run file");
+                }
+                directory.add(in.readBoolean()
+                    ? new Run(channel, start, end, records, minKeyBits,
+                        maxKeyBits)
+                    : new Run(channel, start, end, minKeyBits, maxKeyBits));
+            }
+        }
+        return directory;
+    }
+}
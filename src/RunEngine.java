@@ -0,0 +1,70 @@
+/**
+ * The ways the run phase can turn the input into sorted runs.
+ *
+ * REPLACEMENT_SELECTION streams records through a heap and writes runs
+ * that average twice the heap size. OFF_HEAP loads memory-sized chunks
+ * into a direct buffer, sorts the 16-byte records in place and writes each
+ * chunk back out as one run, so the records never live on the Java heap.
+ * RADIX sorts chunks with an LSD radix sort instead of comparisons, on
+ * as many threads as there are workers.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public enum RunEngine {
+    /**
+     * heap-based replacement selection, the original run engine
+     */
+    REPLACEMENT_SELECTION("selection"),
+
+    /**
+     * in-place sort of chunks held in a direct buffer
+     */
+    OFF_HEAP("offheap"),
+
+    /**
+     * LSD radix sort of chunks held in long arrays
+     */
+    RADIX("radix");
+
+    private final String optionName;
+
+    /**
+     * Create a new RunEngine constant.
+     *
+     * @param optionName
+     *            name used on the command line
+     */
+    RunEngine(String optionName) {
+        this.optionName = optionName;
+    }
+
+
+    /**
+     * Return the name used on the command line
+     *
+     * @return option name
+     */
+    public String getOptionName() {
+        return optionName;
+    }
+
+
+    /**
+     * Look up an engine by its command-line name
+     *
+     * @param name
+     *            option name, such as "offheap"
+     * @return the engine
+     * @throws IllegalArgumentException
+     *             if no engine has that name
+     */
+    public static RunEngine fromOptionName(String name) {
+        for (RunEngine engine : values()) {
+            if (engine.optionName.equals(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown run engine " + name);
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// -------------------------------------------------------------------------
+/**
+ * Runs the external sort end to end over a sweep of sizes and key
+ * distributions, and checks every result.
+ *
+ * For each case the harness generates an input with DataGenerator and
+ * sorts it in a fresh JVM. That JVM takes the same steps as Externalsort
+ * (create runs, merge, print the first records). For each phase it reports
+ * the wall time and the bytes read and written, taken from /proc/self/io.
+ * At the end it reports its peak resident set size. The harness then
+ * checks that the output is in order and a permutation of the input, and
+ * prints one table row per phase.
+ *
+ * I/O counts are the bytes passed through read and write calls, so
+ * memory-mapped I/O does not show up in them. They are -1 where /proc is
+ * missing.
+ *
+ * Usage: java ScaleHarness [--sizes 1m,64m,1g] [--dists uniform,zipf]
+ * [--seed n] [--dir path] [sort options]
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class ScaleHarness {
+    /**
+     * Utility class; not instantiated
+     */
+    private ScaleHarness() {
+        // static methods only
+    }
+
+
+    /**
+     * Run the sweep, or one sort when started with --child
+     *
+     * @param args
+     *            options, see the class comment
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args)
+        throws IOException,
+        InterruptedException {
+        if (args.length > 0 && args[0].equals("--child")) {
+            child(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        String sizeList = "1m,16m,256m";
+        String distList = "uniform,sorted,reverse,nearly,duplicates,special,"
+            + "zipf";
+        long seed = 1;
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        List<String> sortOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    sizeList = args[++i];
+                    break;
+                case "--dists":
+                    distList = args[++i];
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--dir":
+                    dir = new File(args[++i]);
+                    break;
+                default:
+                    sortOptions.add(args[i]);
+                    break;
+            }
+        }
+        KeyOrder order = SortConfig.fromOptions(sortOptions.toArray(
+            new String[0])).getKeyOrder();
+
+        System.out.printf("%-10s %12s %-7s %10s %12s %12s %10s %s%n", "dist",
+            "bytes", "phase", "ms", "read", "written", "rss kB", "result");
+        boolean allPassed = true;
+        for (String size : sizeList.split(",")) {
+            long records = SortConfig.parseSize(size) / Record.BYTES;
+            for (String name : distList.split(",")) {
+                KeyDistribution dist = KeyDistribution.fromOptionName(name);
+                allPassed &= runCase(dir, records, dist, seed, sortOptions,
+                    order);
+            }
+        }
+        if (!allPassed) {
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Generate, sort and check one case
+     *
+     * @param dir
+     *            where the files go
+     * @param records
+     *            number of records
+     * @param dist
+     *            key distribution
+     * @param seed
+     *            seed of the data set
+     * @param sortOptions
+     *            options for the sort
+     * @param order
+     *            key order those options select
+     * @return true if the output was right
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static boolean runCase(
+        File dir,
+        long records,
+        KeyDistribution dist,
+        long seed,
+        List<String> sortOptions,
+        KeyOrder order)
+        throws IOException,
+        InterruptedException {
+        File input = new File(dir, "scale_" + dist.getOptionName() + "_"
+            + records + ".bin");
+        File sorted = new File(Externalsort.sortedFileName(input.getPath()));
+        File runs = new File(input.getPath() + "_runfile.dat");
+        File directory = new File(input.getPath() + "_runfile.dir");
+        try {
+            DataGenerator.generate(input, records, dist, seed, Runtime
+                .getRuntime().availableProcessors());
+
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin",
+                "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ScaleHarness.class.getName());
+            command.add("--child");
+            command.addAll(sortOptions);
+            command.add(input.getPath());
+            Process process = new ProcessBuilder(command).redirectError(
+                ProcessBuilder.Redirect.INHERIT).start();
+            List<String[]> phases = new ArrayList<>();
+            String rss = "-1";
+            try (BufferedReader lines = new BufferedReader(
+                new InputStreamReader(process.getInputStream(),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    if (fields[0].equals("phase")) {
+                        phases.add(fields);
+                    }
+                    else if (fields[0].equals("rss")) {
+                        rss = fields[1];
+                    }
+                }
+            }
+            String result;
+            if (process.waitFor() != 0) {
+                result = "FAILED: sort exited with " + process.exitValue();
+            }
+            else {
+                result = DataGenerator.verify(sorted, records, dist, seed,
+                    order);
+                result = result == null ? "ok" : "FAILED: " + result;
+            }
+            for (String[] phase : phases) {
+                System.out.printf("%-10s %12d %-7s %10d %12s %12s %10s %s%n",
+                    dist.getOptionName(), records * Record.BYTES, phase[1],
+                    Long.parseLong(phase[2]) / 1000000, phase[3], phase[4],
+                    rss, result);
+            }
+            return result.equals("ok");
+        }
+        finally {
+            Files.deleteIfExists(input.toPath());
+            Files.deleteIfExists(sorted.toPath());
+            Files.deleteIfExists(runs.toPath());
+            Files.deleteIfExists(directory.toPath());
+        }
+    }
+
+
+    /**
+     * Sort one file the way Externalsort does, reporting each phase on
+     * standard output
+     *
+     * @param args
+     *            sort options, then the file name
+     * @throws IOException
+     */
+    private static void child(String[] args) throws IOException {
+        String filename = args[args.length - 1];
+        SortConfig config = SortConfig.fromOptions(Arrays.copyOf(args,
+            args.length - 1));
+        ByteFile byteFile = new ByteFile(filename, 16, config);
+        String outputFileName = Externalsort.sortedFileName(filename);
+        PrintStream report = System.out;
+        // the printed records are not part of the report
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try (RandomAccessFile inputFile = new RandomAccessFile(filename, "r");
+            RandomAccessFile runFile = new RandomAccessFile(filename
+                + "_runfile.dat", "rw")) {
+            long[] before = ioCounters();
+            long start = System.nanoTime();
+            byteFile.createSortedRuns(inputFile, runFile);
+            start = reportPhase(report, "runs", start, before);
+
+            before = ioCounters();
+            byteFile.mergeSortedRuns(runFile, outputFileName);
+            start = reportPhase(report, "merge", start, before);
+
+            before = ioCounters();
+            byteFile.printFirstRecords(outputFileName);
+            reportPhase(report, "print", start, before);
+        }
+        report.println("rss " + peakRss());
+    }
+
+
+    /**
+     * Print the time and I/O of a phase that has just ended
+     *
+     * @param report
+     *            where the line goes
+     * @param name
+     *            phase name
+     * @param start
+     *            System.nanoTime() when the phase began
+     * @param before
+     *            I/O counters when the phase began
+     * @return System.nanoTime() now
+     * @throws IOException
+     */
+    private static long reportPhase(
+        PrintStream report,
+        String name,
+        long start,
+        long[] before)
+        throws IOException {
+        long now = System.nanoTime();
+        long[] after = ioCounters();
+        report.println("phase " + name + " " + (now - start) + " "
+            + delta(before[0], after[0]) + " " + delta(before[1], after[1]));
+        return now;
+    }
+
+
+    /**
+     * Return the change in a counter, or -1 if it is not available
+     *
+     * @param before
+     *            earlier value
+     * @param after
+     *            later value
+     * @return the difference
+     */
+    private static long delta(long before, long after) {
+        return before < 0 || after < 0 ? -1 : after - before;
+    }
+
+
+    /**
+     * Return the bytes this process has read and written so far
+     *
+     * @return rchar and wchar from /proc/self/io, or -1 each
+     * @throws IOException
+     */
+    private static long[] ioCounters() throws IOException {
+        long[] counters = { -1, -1 };
+        File io = new File("/proc/self/io");
+        if (io.canRead()) {
+            for (String line : Files.readAllLines(io.toPath())) {
+                if (line.startsWith("rchar:")) {
+                    counters[0] = Long.parseLong(line.substring(6).trim());
+                }
+                else if (line.startsWith("wchar:")) {
+                    counters[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        }
+        return counters;
+    }
+
+
+    /**
+     * Return the peak resident set size of this process
+     *
+     * @return kilobytes, or -1 if it is not available
+     * @throws IOException
+     */
+    private static long peakRss() throws IOException {
+        File status = new File("/proc/self/status");
+        if (status.canRead()) {
+            for (String line : Files.readAllLines(status.toPath())) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,503 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+// -------------------------------------------------------------------------
+/**
+ * The progress of a durable sort, kept in a manifest file so that a sort
+ * that dies can pick up where it stopped.
+ *
+ * The manifest is rewritten after each run is formed and after each merge
+ * pass. It lists the runs that make up the sort's current state: their
+ * file, byte range, key bounds and CRC32C. It also records how much of the
+ * input those runs cover and how many merge passes are done. The data
+ * files are forced to disk before the manifest that names them. The
+ * manifest itself is written to a temporary file, synced, and renamed
+ * over the old one, so it is always either the old state or the new one,
+ * and on POSIX file systems the directory is synced after the rename so
+ * that the new name survives a crash. Those are the only fsyncs a durable
+ * sort does.
+ *
+ * A manifest is only trusted if it matches the input (same length, same
+ * modification time), the key order, the Reducer that formed the runs
+ * and its own checksum, and if every run it names is still there with
+ * the right CRC32C. Otherwise it is ignored and the sort starts over.
+ *
+ * The file holds a magic number, a version, the input length and
+ * modification time, the key order, the reducer, the input bytes
+ * covered, a flag for the end of the run phase, the merge passes done
+ * and the run count. For each run it holds its file name ("" for the run
+ * file), start, end, record count (-1 unless compressed), key bounds and
+ * checksum. A CRC32C of everything before it comes last.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class SortCheckpoint {
+    /**
+     * first four bytes of every manifest
+     */
+    private static final int MAGIC = 0x434b5054; // "CKPT"
+
+    /**
+     * manifest layout version
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * bytes read at a time while checking a run's checksum
+     */
+    private static final int CHECK_BLOCK = 1 << 16;
+
+    private static final Logger LOG = Logger.getLogger(SortCheckpoint.class
+        .getName());
+
+    private File manifest;
+    private File input;
+    private KeyOrder order;
+    private Reducer reducer; // how the runs collapse duplicate keys
+    private long inputDone; // input bytes whose records are in runs
+    private boolean runPhaseDone;
+    private int passesDone;
+    private List<Run> runs = new ArrayList<>();
+    // checksums of the runs, and files and handles of intermediate runs
+    private Map<Run, Long> checksums = new IdentityHashMap<>();
+    private Map<Run, File> files = new IdentityHashMap<>();
+    private Map<Run, RandomAccessFile> handles = new IdentityHashMap<>();
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new SortCheckpoint object for a sort that has not started.
+     *
+     * @param manifest
+     *            the manifest file
+     * @param input
+     *            the file being sorted
+     * @param order
+     *            ordering of the keys
+     */
+    SortCheckpoint(File manifest, File input, KeyOrder order) {
+        this(manifest, input, order, Reducer.NONE);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new SortCheckpoint object for a sort that has not started
+     * and reduces its runs.
+     *
+     * @param manifest
+     *            the manifest file
+     * @param input
+     *            the file being sorted
+     * @param order
+     *            ordering of the keys
+     * @param reducer
+     *            how the runs collapse duplicate keys
+     */
+    SortCheckpoint(
+        File manifest,
+        File input,
+        KeyOrder order,
+        Reducer reducer) {
+        this.manifest = manifest;
+        this.input = input;
+        this.order = order;
+        this.reducer = reducer;
+    }
+
+
+    /**
+     * Load the manifest left by an earlier attempt, if it can be trusted.
+     * Run-phase runs are read from the run file, which is cut back to the
+     * end of the last of them. Intermediate run files are opened.
+     *
+     * @param runChannel
+     *            channel of the run file
+     * @return true if the sort can resume, false if it must start over
+     * @throws IOException
+     */
+    boolean restore(FileChannel runChannel) throws IOException {
+        if (!manifest.exists()) {
+            return false;
+        }
+        String problem;
+        try {
+            problem = load(runChannel);
+        }
+        catch (IOException e) {
+            problem = e.toString();
+        }
+        if (problem != null) {
+            LOG.warning("Ignoring " + manifest + ": " + problem);
+            reset();
+            return false;
+        }
+        if (!runPhaseDone) {
+            runChannel.truncate(runFileEnd()); // drop any half-written run
+        }
+        LOG.info("Resuming from " + manifest + ": " + runs.size() + " runs, "
+            + inputDone + " input bytes, " + passesDone + " merge passes");
+        return true;
+    }
+
+
+    /**
+     * Read and check the manifest
+     *
+     * @param runChannel
+     *            channel of the run file
+     * @return null if it can be trusted, otherwise why not
+     * @throws IOException
+     */
+    private String load(FileChannel runChannel) throws IOException {
+        byte[] bytes = Files.readAllBytes(manifest.toPath());
+        if (bytes.length < Long.BYTES) {
+            return "too short";
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        if (crc.getValue() != ByteBuffer.wrap(bytes).getLong(bytes.length
+            - Long.BYTES)) {
+            return "bad checksum";
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            bytes));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return "not a version " + VERSION + " manifest";
+        }
+        if (in.readLong() != input.length() || in.readLong() != input
+            .lastModified()) {
+            return input + " has changed";
+        }
+        if (in.readInt() != order.ordinal()) {
+            return "written for another key order";
+        }
+        if (in.readInt() != reducer.ordinal()) {
+            return "written with another reducer";
+        }
+        inputDone = in.readLong();
+        runPhaseDone = in.readBoolean();
+        passesDone = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            long start = in.readLong();
+            long end = in.readLong();
+            long records = in.readLong();
+            long minKeyBits = in.readLong();
+            long maxKeyBits = in.readLong();
+            long checksum = in.readLong();
+            FileChannel channel = runChannel;
+            RandomAccessFile handle = null;
+            if (!name.isEmpty()) {
+                if (!new File(name).exists()) {
+                    return name + " is missing";
+                }
+                handle = new RandomAccessFile(name, "rw");
+                channel = handle.getChannel();
+            }
+            Run run = records >= 0
+                ? new Run(channel, start, end, records, minKeyBits, maxKeyBits)
+                : new Run(channel, start, end, minKeyBits, maxKeyBits);
+            runs.add(run);
+            checksums.put(run, checksum);
+            if (handle != null) {
+                handles.put(run, handle);
+                files.put(run, new File(name));
+            }
+            if (end > channel.size() || checksum(run) != checksum) {
+                return "run " + i + " is damaged";
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Forget everything, closing any intermediate files opened by a
+     * failed restore
+     *
+     * @throws IOException
+     */
+    private void reset() throws IOException {
+        for (RandomAccessFile handle : handles.values()) {
+            handle.close();
+        }
+        handles.clear();
+        files.clear();
+        checksums.clear();
+        runs.clear();
+        inputDone = 0;
+        runPhaseDone = false;
+        passesDone = 0;
+    }
+
+
+    /**
+     * Return the runs of the current state
+     *
+     * @return the runs
+     */
+    List<Run> getRuns() {
+        return runs;
+    }
+
+
+    /**
+     * Return the number of input bytes whose records are in runs
+     *
+     * @return bytes of input covered
+     */
+    long getInputDone() {
+        return inputDone;
+    }
+
+
+    /**
+     * Return true once every run has been formed
+     *
+     * @return true after the run phase
+     */
+    boolean isRunPhaseDone() {
+        return runPhaseDone;
+    }
+
+
+    /**
+     * Return the number of merge passes done
+     *
+     * @return completed passes
+     */
+    int getPassesDone() {
+        return passesDone;
+    }
+
+
+    /**
+     * Return the intermediate runs restored from their own files, with
+     * their open handles
+     *
+     * @return handles by run
+     */
+    Map<Run, RandomAccessFile> getHandles() {
+        return handles;
+    }
+
+
+    /**
+     * Return the file of an intermediate run restored or recorded here
+     *
+     * @param run
+     *            the run
+     * @return its file, or null if it is in the run file
+     */
+    File getFile(Run run) {
+        return files.get(run);
+    }
+
+
+    /**
+     * Return the end of the last run-phase run, where the next one goes
+     *
+     * @return run file offset
+     */
+    long runFileEnd() {
+        return runs.isEmpty() ? 0 : runs.get(runs.size() - 1).getEnd();
+    }
+
+
+    /**
+     * Record a run formed by the run phase. The run must already be on
+     * disk.
+     *
+     * @param run
+     *            the run
+     * @param checksum
+     *            CRC32C of its bytes
+     * @param covered
+     *            input bytes whose records are now in runs
+     * @throws IOException
+     */
+    void runCompleted(Run run, long checksum, long covered)
+        throws IOException {
+        runs.add(run);
+        checksums.put(run, checksum);
+        inputDone = covered;
+        save();
+    }
+
+
+    /**
+     * Record the end of the run phase
+     *
+     * @throws IOException
+     */
+    void runPhaseCompleted() throws IOException {
+        runPhaseDone = true;
+        save();
+    }
+
+
+    /**
+     * Note an intermediate run written by a merge pass. It is saved with
+     * the pass.
+     *
+     * @param run
+     *            the run, already on disk
+     * @param file
+     *            the file that holds it
+     * @param checksum
+     *            CRC32C of its bytes
+     */
+    void tempRunCompleted(Run run, File file, long checksum) {
+        files.put(run, file);
+        checksums.put(run, checksum);
+    }
+
+
+    /**
+     * Record a completed merge pass
+     *
+     * @param pass
+     *            pass number
+     * @param current
+     *            the runs left after the pass
+     * @throws IOException
+     */
+    void passCompleted(int pass, List<Run> current) throws IOException {
+        List<Run> before = runs;
+        runs = new ArrayList<>(current);
+        passesDone = pass;
+        try {
+            save();
+        }
+        catch (IOException e) {
+            // the runs on record are still the ones to keep
+            runs = before;
+            passesDone = pass - 1;
+            throw e;
+        }
+        checksums.keySet().retainAll(runs);
+        files.keySet().retainAll(runs);
+        handles.keySet().retainAll(runs);
+    }
+
+
+    /**
+     * Remove the manifest once the output is complete
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        Files.deleteIfExists(manifest.toPath());
+    }
+
+
+    /**
+     * Write the manifest: to a temporary file, synced, then renamed over
+     * the old one, and the rename synced
+     *
+     * @throws IOException
+     */
+    void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(input.length());
+        out.writeLong(input.lastModified());
+        out.writeInt(order.ordinal());
+        out.writeInt(reducer.ordinal());
+        out.writeLong(inputDone);
+        out.writeBoolean(runPhaseDone);
+        out.writeInt(passesDone);
+        out.writeInt(runs.size());
+        for (Run run : runs) {
+            File file = files.get(run);
+            out.writeUTF(file == null ? "" : file.getPath());
+            out.writeLong(run.getStart());
+            out.writeLong(run.getEnd());
+            out.writeLong(run.isCompressed() ? run.records() : -1);
+            out.writeLong(run.getMinKeyBits());
+            out.writeLong(run.getMaxKeyBits());
+            out.writeLong(checksums.get(run));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+
+        File temp = new File(manifest.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            bytes.writeTo(file);
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), manifest.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+
+    /**
+     * Force the manifest's directory to disk, so a rename into it is not
+     * lost in a crash. Only POSIX file systems can open a directory for
+     * this; elsewhere the rename is as durable as the OS makes it.
+     *
+     * @throws IOException
+     */
+    private void syncDirectory() throws IOException {
+        Path dir = manifest.getAbsoluteFile().toPath().getParent();
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains(
+            "posix")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir,
+            StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+
+    /**
+     * Return the CRC32C of a run's bytes
+     *
+     * @param run
+     *            the run
+     * @return the checksum
+     * @throws IOException
+     */
+    static long checksum(Run run) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer block = ByteBuffer.allocate(CHECK_BLOCK);
+        for (long pos = run.getStart(); pos < run.getEnd();) {
+            block.clear();
+            block.limit((int)Math.min(CHECK_BLOCK, run.getEnd() - pos));
+            int read = run.getChannel().read(block, pos);
+            if (read < 0) {
+                break;
+            }
+            block.flip();
+            crc.update(block);
+            pos += read;
+        }
+        return crc.getValue();
+    }
+}
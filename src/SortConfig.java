@@ -0,0 +1,849 @@
+/**
+ * Memory budget and block geometry for one external sort.
+ *
+ * The budget is handed out in whole blocks, and the run phase and the
+ * merge phase each get all of it because they never overlap:
+ * <ul>
+ * <li>run generation: ioBuffers input blocks and ioBuffers output blocks,
+ * with the rest going to the replacement-selection heap (16 bytes per
+ * record)</li>
+ * <li>off-heap run generation: every block holds records, because chunks
+ * are read and written straight from the sort buffer</li>
+ * <li>merge: ioBuffers output blocks, with ioBuffers input blocks for each
+ * run being merged, which sets the merge fan-in</li>
+ * </ul>
+ * With more than one I/O buffer per stream, blocks are read ahead and
+ * written behind on background threads, so I/O overlaps with sorting.
+ * In memory-mapped mode, files are instead mapped in MAP_WINDOW windows
+ * that live in the page cache rather than in the budget.
+ * Compressed runs (see RunCodec) take fewer bytes in the run file and
+ * intermediate merge files; they are read and written through block
+ * buffers even in memory-mapped mode.
+ * A BufferPool, if configured, caches blocks for the readers and writers
+ * of every file in the sort; its frames are one block each and come on
+ * top of the budget.
+ * The replacement-selection heap is binary unless heapArity says
+ * otherwise; 4 or 8 children per node make it shallower.
+ * With more than one merge worker, the final merge pass is cut into key
+ * ranges that are merged at the same time (see MergePartitioner); each
+ * worker holds its own input and output blocks on top of the budget.
+ * A durable sort records its progress in a SortCheckpoint so that it can
+ * resume after a crash; it forms chunk-sized runs like the off-heap and
+ * parallel engines.
+ * An incremental sort names an already sorted file to merge the sorted
+ * input into (see ByteFile.mergeSortedRuns); that file is never cut
+ * into runs.
+ * A partial sort keeps only the topK smallest records, or only the keys
+ * in [rangeLo, rangeHi), or both (see PartialSorter).
+ * A Reducer collapses duplicate keys as runs are written and again at
+ * every merge pass; a partial sort cannot be reduced.
+ * A bigger budget gives longer runs and a wider merge, so fewer passes.
+ * The defaults give the 8-block heap the sort has always used.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class SortConfig {
+    /**
+     * default number of bytes in one block
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+    /**
+     * default number of I/O buffers per stream
+     */
+    public static final int DEFAULT_IO_BUFFERS = 1;
+
+    /**
+     * default memory budget: an 8-block heap plus one input and one
+     * output block
+     */
+    public static final long DEFAULT_MEMORY = 10L * DEFAULT_BLOCK_SIZE;
+
+    /**
+     * bytes mapped at a time in memory-mapped mode
+     */
+    public static final int MAP_WINDOW = 64 << 20;
+
+    private long memoryBudget;
+    private int blockSize;
+    private int ioBuffers;
+    private KeyOrder keyOrder = KeyOrder.UNSIGNED_BITS;
+    private int workers = 1;
+    private int mergeWorkers = 1;
+    private String mergeInto; // sorted file to merge into, or null
+    private long topK = 0; // records kept, or 0 for all
+    private boolean keyRange = false;
+    private double rangeLo;
+    private double rangeHi;
+    private Reducer reducer = Reducer.NONE;
+    private boolean mapped = false;
+    private RunEngine runEngine = RunEngine.REPLACEMENT_SELECTION;
+    private boolean durable = false;
+    private boolean compressed = false;
+    private int heapArity = 2;
+    private BufferPool bufferPool; // null unless frames are configured
+    private SortMetrics metrics = new SortMetrics();
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new SortConfig object with the default sizes.
+     */
+    public SortConfig() {
+        this(DEFAULT_MEMORY, DEFAULT_BLOCK_SIZE, DEFAULT_IO_BUFFERS);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new SortConfig object.
+     *
+     * @param memoryBudget
+     *            total bytes of record buffers the sort may use
+     * @param blockSize
+     *            bytes per block, a positive multiple of Record.BYTES
+     * @param ioBuffers
+     *            blocks buffered for each input or output stream
+     * @throws IllegalArgumentException
+     *             if the sizes leave no room for the heap or for a
+     *             two-way merge
+     */
+    public SortConfig(long memoryBudget, int blockSize, int ioBuffers) {
+        if (blockSize <= 0 || blockSize % Record.BYTES != 0) {
+            throw new IllegalArgumentException("Block size must be a positive"
+                + " multiple of " + Record.BYTES + ", not " + blockSize);
+        }
+        if (ioBuffers < 1) {
+            throw new IllegalArgumentException("Need at least one I/O buffer,"
+                + " not " + ioBuffers);
+        }
+        this.memoryBudget = memoryBudget;
+        this.blockSize = blockSize;
+        this.ioBuffers = ioBuffers;
+        if (getBudgetBlocks() < 2L * ioBuffers + 1
+            || getBudgetBlocks() - ioBuffers < 2) {
+            throw new IllegalArgumentException("Memory budget of "
+                + memoryBudget + " bytes is too small for " + ioBuffers
+                + " I/O buffers of " + blockSize + " bytes");
+        }
+    }
+
+
+    /**
+     * Build a configuration from command-line options
+     *
+     * @param options
+     *            options such as "--memory 64m", "--block-size 8192",
+     *            "--io-buffers 2", "--total-order", "--workers 8",
+     *            "--mmap", "--engine radix", "--durable", "--compress",
+     *            "--pool-frames 1024", "--heap-arity 4",
+     *            "--merge-workers 8", "--merge-into all_sorted.bin",
+     *            "--top 1000", "--range 0,1.5" and "--reduce count"
+     * @return the configuration
+     * @throws IllegalArgumentException
+     *             if an option is unknown, its value is bad, or it
+     *             cannot be combined with another
+     */
+    public static SortConfig fromOptions(String[] options) {
+        long memory = DEFAULT_MEMORY;
+        int block = DEFAULT_BLOCK_SIZE;
+        int buffers = DEFAULT_IO_BUFFERS;
+        KeyOrder order = KeyOrder.UNSIGNED_BITS;
+        int threads = 1;
+        boolean map = false;
+        RunEngine engine = RunEngine.REPLACEMENT_SELECTION;
+        boolean resumable = false;
+        boolean compress = false;
+        int frames = 0;
+        int arity = 2;
+        int mergers = 1;
+        String base = null;
+        long top = 0;
+        double[] range = null;
+        Reducer reduce = Reducer.NONE;
+        for (int i = 0; i < options.length; i++) {
+            switch (options[i]) {
+                case "--memory":
+                    memory = parseSize(value(options, ++i));
+                    break;
+                case "--block-size":
+                    block = (int)Math.min(parseSize(value(options, ++i)),
+                        Integer.MAX_VALUE);
+                    break;
+                case "--io-buffers":
+                    buffers = Integer.parseInt(value(options, ++i));
+                    break;
+                case "--total-order":
+                    order = KeyOrder.TOTAL_ORDER;
+                    break;
+                case "--workers":
+                    threads = Integer.parseInt(value(options, ++i));
+                    break;
+                case "--mmap":
+                    map = true;
+                    break;
+                case "--engine":
+                    engine = RunEngine.fromOptionName(value(options, ++i));
+                    break;
+                case "--durable":
+                    resumable = true;
+                    break;
+                case "--compress":
+                    compress = true;
+                    break;
+                case "--pool-frames":
+                    frames = Integer.parseInt(value(options, ++i));
+                    break;
+                case "--heap-arity":
+                    arity = Integer.parseInt(value(options, ++i));
+                    break;
+                case "--merge-workers":
+                    mergers = Integer.parseInt(value(options, ++i));
+                    break;
+                case "--merge-into":
+                    base = value(options, ++i);
+                    break;
+                case "--top":
+                    top = Long.parseLong(value(options, ++i));
+                    break;
+                case "--range":
+                    range = parseRange(value(options, ++i));
+                    break;
+                case "--reduce":
+                    reduce = Reducer.fromOptionName(value(options, ++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option "
+                        + options[i]);
+            }
+        }
+        SortConfig config = new SortConfig(memory, block, buffers);
+        config.setKeyOrder(order);
+        config.setWorkers(threads);
+        config.setMapped(map);
+        config.setRunEngine(engine);
+        config.setDurable(resumable);
+        config.setCompressed(compress);
+        config.setHeapArity(arity);
+        config.setMergeWorkers(mergers);
+        config.setMergeInto(base);
+        config.setTopK(top);
+        if (range != null) {
+            config.setKeyRange(range[0], range[1]);
+        }
+        if (config.isPartial() && (resumable || base != null)) {
+            throw new IllegalArgumentException("--top and --range cannot be"
+                + " combined with --durable or --merge-into");
+        }
+        config.setReducer(reduce);
+        if (frames > 0) {
+            config.setBufferPool(new BufferPool(frames, block));
+        }
+        return config;
+    }
+
+
+    /**
+     * Return the value that follows an option
+     *
+     * @param options
+     *            all options
+     * @param i
+     *            index of the value
+     * @return the value
+     */
+    private static String value(String[] options, int i) {
+        if (i >= options.length) {
+            throw new IllegalArgumentException(options[i - 1]
+                + " needs a value");
+        }
+        return options[i];
+    }
+
+
+    /**
+     * Parse a key range given as "lo,hi"
+     *
+     * @param text
+     *            the range, such as "0,1.5"
+     * @return lo and hi
+     */
+    private static double[] parseRange(String text) {
+        String[] parts = text.split(",");
+        try {
+            if (parts.length == 2) {
+                return new double[] { Double.parseDouble(parts[0]), Double
+                    .parseDouble(parts[1]) };
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad key range " + text, e);
+        }
+        throw new IllegalArgumentException("Bad key range " + text);
+    }
+
+
+    /**
+     * Parse a byte count with an optional k, m or g suffix
+     *
+     * @param text
+     *            the size, such as "8192", "64k" or "2g"
+     * @return number of bytes
+     */
+    static long parseSize(String text) {
+        String digits = text.toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("k")) {
+            unit = 1L << 10;
+        }
+        else if (digits.endsWith("m")) {
+            unit = 1L << 20;
+        }
+        else if (digits.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            return Long.parseLong(digits) * unit;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad size " + text, e);
+        }
+    }
+
+
+    /**
+     * Return the total memory budget
+     *
+     * @return bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+
+    /**
+     * Return the size of one block
+     *
+     * @return bytes per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Return the number of blocks buffered for each stream
+     *
+     * @return I/O buffers per stream
+     */
+    public int getIOBuffers() {
+        return ioBuffers;
+    }
+
+
+    /**
+     * Return the number of records in one block
+     *
+     * @return records per block
+     */
+    public int getRecordsPerBlock() {
+        return blockSize / Record.BYTES;
+    }
+
+
+    /**
+     * Return the number of whole blocks in the budget
+     *
+     * @return budget in blocks
+     */
+    public long getBudgetBlocks() {
+        return memoryBudget / blockSize;
+    }
+
+
+    /**
+     * Return the number of records the replacement-selection heap holds
+     *
+     * @return heap capacity in records
+     */
+    public int getHeapRecords() {
+        long heapBlocks = getBudgetBlocks() - 2L * ioBuffers;
+        return (int)Math.min(heapBlocks * getRecordsPerBlock(),
+            Integer.MAX_VALUE - 8);
+    }
+
+
+    /**
+     * Return the number of records in one off-heap sort chunk: the whole
+     * budget, capped so that the chunk fits one buffer
+     *
+     * @return chunk capacity in records
+     */
+    public int getChunkRecords() {
+        long maxBlocks = Integer.MAX_VALUE / blockSize;
+        return (int)Math.min(getBudgetBlocks(), maxBlocks)
+            * getRecordsPerBlock();
+    }
+
+
+    /**
+     * Return the most runs merged at once
+     *
+     * @return merge fan-in
+     */
+    public int getMergeFanIn() {
+        long inputBlocks = getBudgetBlocks() - ioBuffers;
+        return (int)Math.max(2, Math.min(inputBlocks / ioBuffers, 1 << 20));
+    }
+
+
+    /**
+     * Return the ordering of record keys
+     *
+     * @return key order
+     */
+    public KeyOrder getKeyOrder() {
+        return keyOrder;
+    }
+
+
+    /**
+     * Set the ordering of record keys
+     *
+     * @param keyOrder
+     *            key order
+     * @throws IllegalArgumentException
+     *             if the key range is empty in that order
+     */
+    public void setKeyOrder(KeyOrder keyOrder) {
+        if (keyRange) {
+            checkRange(rangeLo, rangeHi, keyOrder);
+        }
+        this.keyOrder = keyOrder;
+    }
+
+
+    /**
+     * Return the number of threads that sort runs
+     *
+     * @return run generation workers
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+
+    /**
+     * Set the number of threads that sort runs. With more than one, runs
+     * are formed by sorting memory-sized chunks in parallel instead of by
+     * replacement selection.
+     *
+     * @param workers
+     *            run generation workers, at least 1, and only 1 with the
+     *            off-heap engine
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker, not "
+                + workers);
+        }
+        checkOffHeap(runEngine, workers, mapped);
+        this.workers = workers;
+    }
+
+
+    /**
+     * Return the number of threads that merge the final pass
+     *
+     * @return merge workers
+     */
+    public int getMergeWorkers() {
+        return mergeWorkers;
+    }
+
+
+    /**
+     * Set the number of threads that merge the final pass. With more than
+     * one, the runs left for the final pass are cut into that many key
+     * ranges, and each range is merged straight into its own slice of the
+     * output. Compressed runs are always merged by one thread.
+     *
+     * @param mergeWorkers
+     *            merge workers, at least 1
+     */
+    public void setMergeWorkers(int mergeWorkers) {
+        if (mergeWorkers < 1) {
+            throw new IllegalArgumentException("Need at least one merge"
+                + " worker, not " + mergeWorkers);
+        }
+        this.mergeWorkers = mergeWorkers;
+    }
+
+
+    /**
+     * Return true if files are memory-mapped instead of read and written
+     *
+     * @return true in memory-mapped mode
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+
+    /**
+     * Choose memory-mapped I/O, which the off-heap engine does not take
+     *
+     * @param mapped
+     *            true to map files in windows
+     */
+    public void setMapped(boolean mapped) {
+        checkOffHeap(runEngine, workers, mapped);
+        this.mapped = mapped;
+    }
+
+
+    /**
+     * Return the number of bytes mapped at a time, a whole number of
+     * blocks
+     *
+     * @return bytes per mapped window
+     */
+    public int getMapWindow() {
+        return Math.max(blockSize, MAP_WINDOW / blockSize * blockSize);
+    }
+
+
+    /**
+     * Return the engine that forms runs
+     *
+     * @return run engine
+     */
+    public RunEngine getRunEngine() {
+        return runEngine;
+    }
+
+
+    /**
+     * Choose the engine that forms runs. With more than one worker,
+     * replacement selection gives way to parallel chunk sorting, and the
+     * radix engine sorts its chunks in parallel. The off-heap engine
+     * reads and sorts one chunk at a time through its own buffer, so it
+     * takes one worker, one I/O buffer and no mapped files.
+     *
+     * @param runEngine
+     *            run engine
+     */
+    public void setRunEngine(RunEngine runEngine) {
+        checkOffHeap(runEngine, workers, mapped);
+        this.runEngine = runEngine;
+    }
+
+
+    /**
+     * Refuse options the off-heap engine would ignore
+     *
+     * @param engine
+     *            run engine
+     * @param threads
+     *            run generation workers
+     * @param map
+     *            true for memory-mapped I/O
+     */
+    private void checkOffHeap(RunEngine engine, int threads, boolean map) {
+        if (engine == RunEngine.OFF_HEAP && (threads > 1 || map
+            || ioBuffers > 1)) {
+            throw new IllegalArgumentException("The off-heap engine cannot be"
+                + " combined with workers, mapped files or I/O buffers");
+        }
+    }
+
+
+    /**
+     * Return true if the sort checkpoints its progress
+     *
+     * @return true in durable mode
+     */
+    public boolean isDurable() {
+        return durable;
+    }
+
+
+    /**
+     * Choose a durable sort, which forces each run and merge pass to disk,
+     * records it in a checkpoint manifest, and resumes from that manifest
+     * when it is run again on the same input. Replacement selection gives
+     * way to chunk sorting, because its runs cannot be resumed mid-input.
+     *
+     * @param durable
+     *            true to checkpoint progress
+     */
+    public void setDurable(boolean durable) {
+        if (durable && mergeInto != null) {
+            throw new IllegalArgumentException("An incremental sort cannot"
+                + " be durable");
+        }
+        this.durable = durable;
+    }
+
+
+    /**
+     * Return true if runs are written in the compressed block format
+     *
+     * @return true if runs are compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+
+    /**
+     * Choose compressed runs. Only the run file and the intermediate merge
+     * files are compressed; the sorted output is not.
+     *
+     * @param compressed
+     *            true to compress runs
+     * @throws IllegalArgumentException
+     *             if blocks are too small to hold a compressed record
+     */
+    public void setCompressed(boolean compressed) {
+        if (compressed && blockSize < RunCodec.MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Compressed runs need blocks"
+                + " of at least " + RunCodec.MIN_BLOCK_SIZE + " bytes");
+        }
+        this.compressed = compressed;
+    }
+
+
+    /**
+     * Return the number of children per node of the replacement-selection
+     * heap
+     *
+     * @return heap arity
+     */
+    public int getHeapArity() {
+        return heapArity;
+    }
+
+
+    /**
+     * Set the number of children per node of the replacement-selection
+     * heap. A 4-ary or 8-ary heap keeps a node's children in one cache
+     * line and is shallower than a binary one.
+     *
+     * @param heapArity
+     *            2, 4 or 8
+     */
+    public void setHeapArity(int heapArity) {
+        if (heapArity != 2 && heapArity != 4 && heapArity != 8) {
+            throw new IllegalArgumentException("Heap arity must be 2, 4 or 8,"
+                + " not " + heapArity);
+        }
+        this.heapArity = heapArity;
+    }
+
+
+    /**
+     * Return the sorted file the input is merged into
+     *
+     * @return file name, or null to sort the input on its own
+     */
+    public String getMergeInto() {
+        return mergeInto;
+    }
+
+
+    /**
+     * Make the sort incremental: the input is sorted into runs as usual,
+     * and the merge takes an already sorted file as one more run. The
+     * file must be sorted in this configuration's key order. A durable
+     * sort's checkpoint cannot describe such a run, so the two modes do
+     * not mix.
+     *
+     * @param sortedName
+     *            sorted file name, which may be the output itself, or null
+     *            to sort the input on its own
+     */
+    public void setMergeInto(String sortedName) {
+        if (sortedName != null && durable) {
+            throw new IllegalArgumentException("An incremental sort cannot"
+                + " be durable");
+        }
+        mergeInto = sortedName;
+    }
+
+
+    /**
+     * Return the number of smallest records a top-K sort keeps
+     *
+     * @return K, or 0 to keep every record
+     */
+    public long getTopK() {
+        return topK;
+    }
+
+
+    /**
+     * Keep only the K smallest records, in key order and then ID order,
+     * so that the output is the front of the full sort's output
+     *
+     * @param topK
+     *            K, or 0 to keep every record
+     */
+    public void setTopK(long topK) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("Top K cannot be negative, not "
+                + topK);
+        }
+        this.topK = topK;
+    }
+
+
+    /**
+     * Return true if only the keys in a range are kept
+     *
+     * @return true if there is a key range
+     */
+    public boolean hasKeyRange() {
+        return keyRange;
+    }
+
+
+    /**
+     * Return the smallest key kept
+     *
+     * @return lo, if there is a key range
+     */
+    public double getRangeLo() {
+        return rangeLo;
+    }
+
+
+    /**
+     * Return the key just past the ones kept
+     *
+     * @return hi, if there is a key range
+     */
+    public double getRangeHi() {
+        return rangeHi;
+    }
+
+
+    /**
+     * Keep only the records with keys in [lo, hi), compared in the key
+     * order
+     *
+     * @param lo
+     *            smallest key kept
+     * @param hi
+     *            key just past the ones kept
+     * @throws IllegalArgumentException
+     *             if lo is not before hi in the key order
+     */
+    public void setKeyRange(double lo, double hi) {
+        checkRange(lo, hi, keyOrder);
+        keyRange = true;
+        rangeLo = lo;
+        rangeHi = hi;
+    }
+
+
+    /**
+     * Refuse a key range that holds no keys. Under UNSIGNED_BITS every
+     * negative key sorts after every positive one, so a range such as
+     * [-5, 5) is inverted there.
+     *
+     * @param lo
+     *            smallest key kept
+     * @param hi
+     *            key just past the ones kept
+     * @param order
+     *            ordering of the keys
+     * @throws IllegalArgumentException
+     *             if lo is not before hi in the order
+     */
+    private static void checkRange(double lo, double hi, KeyOrder order) {
+        if (order.compareBits(Double.doubleToLongBits(lo), Double
+            .doubleToLongBits(hi)) >= 0) {
+            throw new IllegalArgumentException("The key range [" + lo + ", "
+                + hi + ") is empty in " + order + " order");
+        }
+    }
+
+
+    /**
+     * Return true if only part of the input is sorted
+     *
+     * @return true for a top-K or key-range sort
+     */
+    public boolean isPartial() {
+        return topK > 0 || keyRange;
+    }
+
+
+    /**
+     * Return how duplicate keys are collapsed
+     *
+     * @return the reducer, NONE to keep every record
+     */
+    public Reducer getReducer() {
+        return reducer;
+    }
+
+
+    /**
+     * Collapse duplicate keys as runs are written and merged. Merging
+     * into a sorted file with COUNT adds to the counts already in it, so
+     * that file must itself be a COUNT output.
+     *
+     * @param reducer
+     *            the reducer, NONE to keep every record
+     */
+    public void setReducer(Reducer reducer) {
+        if (reducer != Reducer.NONE && isPartial()) {
+            throw new IllegalArgumentException("A partial sort cannot be"
+                + " reduced");
+        }
+        this.reducer = reducer;
+    }
+
+
+    /**
+     * Return the buffer pool that block reads and writes go through
+     *
+     * @return the pool, or null if blocks go straight to the files
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+
+    /**
+     * Send block reads and writes through a buffer pool. Memory-mapped
+     * I/O and the off-heap engine's chunk I/O do not use it.
+     *
+     * @param bufferPool
+     *            the pool, with frames of one block, or null for none
+     * @throws IllegalArgumentException
+     *             if the pool's frames are not one block
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if (bufferPool != null && bufferPool.getFrameSize() != blockSize) {
+            throw new IllegalArgumentException("Buffer pool frames must be "
+                + blockSize + " bytes, not " + bufferPool.getFrameSize());
+        }
+        this.bufferPool = bufferPool;
+    }
+
+
+    /**
+     * Return the metrics that sorts with this configuration report to
+     *
+     * @return sort metrics
+     */
+    public SortMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,304 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// -------------------------------------------------------------------------
+/**
+ * Counters and timers for one external sort, readable through JMX while
+ * the sort runs and logged when it ends.
+ *
+ * Nothing here is touched once per record. Block readers and writers
+ * report whole blocks. Heaps and loser trees count comparisons in a plain
+ * field and hand the total over once per run or merge group. The counters
+ * are LongAdders, so the run-generation threads and the merge can update
+ * them without contention or allocation. Each phase is also a
+ * SortPhaseEvent and each run a SortRunEvent for Flight Recorder, and
+ * both cost next to nothing unless a recording enables them.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class SortMetrics implements SortMetricsMBean {
+    /**
+     * JMX name the metrics are registered under
+     */
+    public static final String OBJECT_NAME = "Externalsort:type=SortMetrics";
+
+    private static final Logger LOG = Logger.getLogger(SortMetrics.class
+        .getName());
+
+    private LongAdder recordsRead = new LongAdder();
+    private LongAdder recordsWritten = new LongAdder();
+    private LongAdder bytesRead = new LongAdder();
+    private LongAdder bytesWritten = new LongAdder();
+    private LongAdder blocksRead = new LongAdder();
+    private LongAdder blocksWritten = new LongAdder();
+    private LongAdder comparisons = new LongAdder();
+    private LongAdder runsProduced = new LongAdder();
+    private LongAdder runRecords = new LongAdder();
+    private LongAdder mergePasses = new LongAdder();
+    private LongAdder ioWaitNanos = new LongAdder();
+    private LongAdder runPhaseNanos = new LongAdder();
+    private LongAdder mergePhaseNanos = new LongAdder();
+    private LongAdder printPhaseNanos = new LongAdder();
+
+    /**
+     * Record a block read
+     *
+     * @param bytes
+     *            size of the block
+     * @param records
+     *            records in the block
+     * @param waitNanos
+     *            time the reading thread was blocked for it
+     */
+    void blockRead(int bytes, int records, long waitNanos) {
+        blocksRead.increment();
+        bytesRead.add(bytes);
+        recordsRead.add(records);
+        ioWaitNanos.add(waitNanos);
+    }
+
+
+    /**
+     * Record a block written
+     *
+     * @param bytes
+     *            size of the block
+     * @param records
+     *            records in the block
+     * @param waitNanos
+     *            time the writing thread was blocked for it
+     */
+    void blockWritten(int bytes, int records, long waitNanos) {
+        blocksWritten.increment();
+        bytesWritten.add(bytes);
+        recordsWritten.add(records);
+        ioWaitNanos.add(waitNanos);
+    }
+
+
+    /**
+     * Add a batch of comparisons
+     *
+     * @param count
+     *            comparisons made since the last report
+     */
+    void addComparisons(long count) {
+        comparisons.add(count);
+    }
+
+
+    /**
+     * Record the runs formed by the run phase, and emit one event per run
+     *
+     * @param runs
+     *            the runs, in run file order
+     */
+    void runsProduced(List<Run> runs) {
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = runs.get(i);
+            runsProduced.increment();
+            runRecords.add(run.records());
+            SortRunEvent event = new SortRunEvent();
+            if (event.isEnabled()) {
+                event.index = i;
+                event.start = run.getStart();
+                event.records = run.records();
+                event.bytes = run.bytes();
+                event.minKey = Double.longBitsToDouble(run.getMinKeyBits());
+                event.maxKey = Double.longBitsToDouble(run.getMaxKeyBits());
+                event.commit();
+            }
+        }
+    }
+
+
+    /**
+     * Record a merge pass
+     */
+    void mergePass() {
+        mergePasses.increment();
+    }
+
+
+    /**
+     * Start timing a phase
+     *
+     * @param phase
+     *            "runs", "merge" or "print"
+     * @return the phase's event, to be passed to endPhase()
+     */
+    SortPhaseEvent beginPhase(String phase) {
+        SortPhaseEvent event = new SortPhaseEvent();
+        event.phase = phase;
+        event.startRead = recordsRead.sum();
+        event.startWritten = recordsWritten.sum();
+        event.startBytesRead = bytesRead.sum();
+        event.startBytesWritten = bytesWritten.sum();
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+
+    /**
+     * Finish timing a phase
+     *
+     * @param event
+     *            what beginPhase() returned
+     */
+    void endPhase(SortPhaseEvent event) {
+        event.end();
+        long nanos = System.nanoTime() - event.startNanos;
+        switch (event.phase) {
+            case "runs":
+                runPhaseNanos.add(nanos);
+                break;
+            case "merge":
+                mergePhaseNanos.add(nanos);
+                break;
+            default:
+                printPhaseNanos.add(nanos);
+                break;
+        }
+        if (event.shouldCommit()) {
+            event.recordsRead = recordsRead.sum() - event.startRead;
+            event.recordsWritten = recordsWritten.sum() - event.startWritten;
+            event.bytesRead = bytesRead.sum() - event.startBytesRead;
+            event.bytesWritten = bytesWritten.sum() - event.startBytesWritten;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Make the metrics visible through the platform MBean server,
+     * replacing any metrics registered before
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        }
+        catch (JMException e) {
+            LOG.warning("Cannot register sort metrics: " + e);
+        }
+    }
+
+
+    /**
+     * Log a summary of the metrics
+     */
+    public void log() {
+        LOG.info(toString());
+    }
+
+
+    @Override
+    public String toString() {
+        return "Sort: " + getRecordsRead() + " records read in "
+            + getBlocksRead() + " blocks (" + getBytesRead() + " bytes), "
+            + getRecordsWritten() + " written in " + getBlocksWritten()
+            + " blocks (" + getBytesWritten() + " bytes), "
+            + getComparisons() + " comparisons, " + getRunsProduced()
+            + " runs of " + Math.round(getAverageRunLength())
+            + " records on average, " + getMergePasses() + " merge passes; "
+            + getRunPhaseMillis() + " ms forming runs, "
+            + getMergePhaseMillis() + " ms merging, " + getPrintPhaseMillis()
+            + " ms printing, " + getIOWaitMillis() + " ms waiting for I/O";
+    }
+
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+
+    @Override
+    public long getRecordsWritten() {
+        return recordsWritten.sum();
+    }
+
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+
+    @Override
+    public long getBlocksRead() {
+        return blocksRead.sum();
+    }
+
+
+    @Override
+    public long getBlocksWritten() {
+        return blocksWritten.sum();
+    }
+
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+
+    @Override
+    public long getRunsProduced() {
+        return runsProduced.sum();
+    }
+
+
+    @Override
+    public double getAverageRunLength() {
+        long runs = runsProduced.sum();
+        return runs == 0 ? 0 : (double)runRecords.sum() / runs;
+    }
+
+
+    @Override
+    public long getMergePasses() {
+        return mergePasses.sum();
+    }
+
+
+    @Override
+    public long getRunPhaseMillis() {
+        return runPhaseNanos.sum() / 1000000;
+    }
+
+
+    @Override
+    public long getMergePhaseMillis() {
+        return mergePhaseNanos.sum() / 1000000;
+    }
+
+
+    @Override
+    public long getPrintPhaseMillis() {
+        return printPhaseNanos.sum() / 1000000;
+    }
+
+
+    @Override
+    public long getIOWaitMillis() {
+        return ioWaitNanos.sum() / 1000000;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * The management interface of SortMetrics, as seen through JMX.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public interface SortMetricsMBean {
+    /**
+     * Return the records read from any file
+     *
+     * @return records read
+     */
+    long getRecordsRead();
+
+
+    /**
+     * Return the records written to any file
+     *
+     * @return records written
+     */
+    long getRecordsWritten();
+
+
+    /**
+     * Return the bytes read from any file, which is less than 16 per
+     * record for compressed runs
+     *
+     * @return bytes read
+     */
+    long getBytesRead();
+
+
+    /**
+     * Return the bytes written to any file
+     *
+     * @return bytes written
+     */
+    long getBytesWritten();
+
+
+    /**
+     * Return the blocks (or mapped windows) read
+     *
+     * @return blocks read
+     */
+    long getBlocksRead();
+
+
+    /**
+     * Return the blocks (or mapped windows) written
+     *
+     * @return blocks written
+     */
+    long getBlocksWritten();
+
+
+    /**
+     * Return the record comparisons made by heaps and loser trees
+     *
+     * @return comparisons
+     */
+    long getComparisons();
+
+
+    /**
+     * Return the runs formed by the run phase
+     *
+     * @return runs produced
+     */
+    long getRunsProduced();
+
+
+    /**
+     * Return the mean number of records in a run
+     *
+     * @return average run length, or 0 before any run
+     */
+    double getAverageRunLength();
+
+
+    /**
+     * Return the merge passes done, counting the final one
+     *
+     * @return merge passes
+     */
+    long getMergePasses();
+
+
+    /**
+     * Return the time spent forming runs
+     *
+     * @return milliseconds
+     */
+    long getRunPhaseMillis();
+
+
+    /**
+     * Return the time spent merging
+     *
+     * @return milliseconds
+     */
+    long getMergePhaseMillis();
+
+
+    /**
+     * Return the time spent printing the first records
+     *
+     * @return milliseconds
+     */
+    long getPrintPhaseMillis();
+
+
+    /**
+     * Return the time sorting threads spent waiting for reads and writes
+     *
+     * @return milliseconds
+     */
+    long getIOWaitMillis();
+}
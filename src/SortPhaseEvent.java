@@ -0,0 +1,44 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// -------------------------------------------------------------------------
+/**
+ * Flight Recorder event for one phase of a sort: forming runs, merging or
+ * printing. The event spans the phase, and it records how much data the
+ * phase moved.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@Name("externalsort.Phase")
+@Label("Sort Phase")
+@Category("External Sort")
+@Description("One phase of an external sort")
+class SortPhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Records Read")
+    long recordsRead;
+
+    @Label("Records Written")
+    long recordsWritten;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    // counters when the phase began, not part of the event
+    transient long startNanos;
+    transient long startRead;
+    transient long startWritten;
+    transient long startBytesRead;
+    transient long startBytesWritten;
+}
@@ -0,0 +1,39 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// -------------------------------------------------------------------------
+/**
+ * Flight Recorder event for one sorted run, committed when the run phase
+ * lists its runs. It gives the run's place in the run file and its key
+ * range.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+@Name("externalsort.Run")
+@Label("Sorted Run")
+@Category("External Sort")
+@Description("A sorted run formed by the run phase")
+class SortRunEvent extends jdk.jfr.Event {
+    @Label("Run Index")
+    int index;
+
+    @Label("Start Offset")
+    long start;
+
+    @Label("Records")
+    long records;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Smallest Key")
+    double minKey;
+
+    @Label("Largest Key")
+    double maxKey;
+}
@@ -0,0 +1,231 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+// -------------------------------------------------------------------------
+/**
+ * Point lookups and range scans over a sorted file, through the
+ * SparseIndex the sort saved next to it.
+ *
+ * A lookup binary-searches the index for the block where its key range
+ * starts, then reads forward from there one block at a time and stops at
+ * the first record past the range. A lookup that fits in one block reads
+ * one or two blocks, however big the file is. Keys compare in the order
+ * the file was sorted with, so a range is the same slice of the file the
+ * sort produced. With a BufferPool, blocks read by one lookup are kept
+ * for the next, so repeated lookups near the same keys stay in memory.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class SortedFile implements Closeable {
+    private RandomAccessFile file;
+    private SparseIndex index;
+    private KeyOrder order;
+    private SortMetrics metrics; // null if not counted
+    private BufferPool pool; // null to read the file directly
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new SortedFile object over a sorted file and its index.
+     *
+     * @param sortedName
+     *            sorted file name
+     * @throws IOException
+     *             if either file cannot be read, or the index was made
+     *             for another version of the file
+     */
+    public SortedFile(String sortedName) throws IOException {
+        index = SparseIndex.read(SparseIndex.fileName(sortedName));
+        order = index.getKeyOrder();
+        file = new RandomAccessFile(sortedName, "r");
+        if (file.length() != index.getFileLength()) {
+            file.close();
+            throw new IOException("The index of " + sortedName
+                + " does not match it");
+        }
+    }
+
+
+    /**
+     * Report every block read from now on
+     *
+     * @param sortMetrics
+     *            where to count blocks
+     */
+    public void setMetrics(SortMetrics sortMetrics) {
+        metrics = sortMetrics;
+    }
+
+
+    /**
+     * Read blocks through a buffer pool from now on
+     *
+     * @param bufferPool
+     *            the pool, or null to read the file directly
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        pool = bufferPool;
+    }
+
+
+    /**
+     * Return every record with a key
+     *
+     * @param key
+     *            the key
+     * @return the records, in file order
+     * @throws IOException
+     */
+    public List<Record> lookup(double key) throws IOException {
+        long bits = Double.doubleToLongBits(key);
+        return collect(new Scan(bits, bits, true));
+    }
+
+
+    /**
+     * Return every record with a key in [lo, hi)
+     *
+     * @param lo
+     *            smallest key in the range
+     * @param hi
+     *            key just past the range
+     * @return the records, in file order
+     * @throws IOException
+     */
+    public List<Record> range(double lo, double hi) throws IOException {
+        return collect(scan(lo, hi));
+    }
+
+
+    /**
+     * Start a scan of the records with a key in [lo, hi), for ranges too
+     * big to collect
+     *
+     * @param lo
+     *            smallest key in the range
+     * @param hi
+     *            key just past the range
+     * @return a scan positioned before the first record in the range
+     */
+    public Scan scan(double lo, double hi) {
+        return new Scan(Double.doubleToLongBits(lo), Double.doubleToLongBits(
+            hi), false);
+    }
+
+
+    /**
+     * Close the sorted file
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.discard(file.getChannel());
+        }
+        file.close();
+    }
+
+
+    /**
+     * Read the rest of a scan into a list
+     *
+     * @param scan
+     *            the scan
+     * @return its records
+     * @throws IOException
+     */
+    private static List<Record> collect(Scan scan) throws IOException {
+        List<Record> records = new ArrayList<>();
+        while (scan.next()) {
+            records.add(new Record(scan.id(), Double.longBitsToDouble(scan
+                .keyBits())));
+        }
+        return records;
+    }
+
+
+    /**
+     * A cursor over the records in a key range
+     */
+    public class Scan {
+        private BlockReader reader;
+        private long loBits;
+        private long hiBits;
+        private int stopAt; // stop on compareBits(key, hi) >= stopAt
+        private boolean started;
+        private boolean done;
+
+        // ----------------------------------------------------------
+        /**
+         * Create a new Scan object.
+         *
+         * @param loBits
+         *            smallest key bits in the range
+         * @param hiBits
+         *            key bits at the end of the range
+         * @param inclusive
+         *            true if hiBits itself is in the range
+         */
+        Scan(long loBits, long hiBits, boolean inclusive) {
+            this.loBits = loBits;
+            this.hiBits = hiBits;
+            stopAt = inclusive ? 1 : 0;
+            int block = index.findBlock(loBits);
+            long start = index.size() == 0 ? 0 : index.getOffset(block);
+            reader = new BlockReader(file.getChannel(), start, index
+                .getFileLength(), index.getBlockSize());
+            reader.setMetrics(metrics);
+            reader.setBufferPool(pool);
+        }
+
+
+        /**
+         * Advance to the next record in the range
+         *
+         * @return false if there are no more
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            while (!done && reader.hasNext()) {
+                reader.next();
+                if (!started) {
+                    // skip the front of the first block
+                    if (order.compareBits(reader.keyBits(), loBits) < 0) {
+                        continue;
+                    }
+                    started = true;
+                }
+                if (order.compareBits(reader.keyBits(), hiBits) >= stopAt) {
+                    break;
+                }
+                return true;
+            }
+            done = true;
+            return false;
+        }
+
+
+        /**
+         * Return the ID of the current record
+         *
+         * @return record ID
+         */
+        public long id() {
+            return reader.id();
+        }
+
+
+        /**
+         * Return the key bits of the current record
+         *
+         * @return record key bits
+         */
+        public long keyBits() {
+            return reader.keyBits();
+        }
+    }
+}
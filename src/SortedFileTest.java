@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Tests for lookups through the sparse index of a sorted file
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+public class SortedFileTest extends TestCase {
+
+    private File dir;
+    private double[] keys;
+    private String sortedName;
+
+    /**
+     * set up for tests: sort a file with many duplicate keys, so that
+     * runs of equal keys cross block boundaries
+     */
+    public void setUp() throws IOException {
+        dir = File.createTempFile("sortedfile", "");
+        dir.delete();
+        dir.mkdir();
+        Random random = new Random(11);
+        keys = new double[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(400) - 200;
+        }
+        File input = new File(dir, "input.bin");
+        try (RandomAccessFile out = new RandomAccessFile(input, "rw")) {
+            BlockWriter writer = new BlockWriter(out.getChannel(), 0, 1024);
+            for (int i = 0; i < keys.length; i++) {
+                writer.write(i, Double.doubleToLongBits(keys[i]));
+            }
+            writer.close();
+        }
+        SortConfig config = new SortConfig(4096, 256, 1);
+        config.setKeyOrder(KeyOrder.TOTAL_ORDER);
+        ByteFile byteFile = new ByteFile(input.getPath(), 0, config);
+        sortedName = Externalsort.sortedFileName(input.getPath());
+        try (RandomAccessFile in = new RandomAccessFile(input, "r");
+            RandomAccessFile runs = new RandomAccessFile(input.getPath()
+                + "_runfile.dat", "rw")) {
+            byteFile.createSortedRuns(in, runs);
+            byteFile.mergeSortedRuns(runs, sortedName);
+        }
+    }
+
+
+    /**
+     * clean up after tests
+     */
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+
+    /**
+     * Return the IDs of the input records with keys in [lo, hi), in
+     * sorted order
+     *
+     * @param lo
+     *            smallest key
+     * @param hi
+     *            key past the range
+     * @return the IDs
+     */
+    private List<Long> expected(double lo, double hi) {
+        List<Long> ids = new ArrayList<>();
+        for (double key = Math.ceil(lo); key < hi; key++) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    ids.add((long)i);
+                }
+            }
+        }
+        return ids;
+    }
+
+
+    /**
+     * Return the IDs of some records
+     *
+     * @param records
+     *            the records
+     * @return their IDs
+     */
+    private static List<Long> ids(List<Record> records) {
+        List<Long> ids = new ArrayList<>();
+        for (Record record : records) {
+            ids.add(record.getID());
+        }
+        return ids;
+    }
+
+
+    /**
+     * Lookups and ranges find exactly the right records, reading only a
+     * few blocks
+     *
+     * @throws IOException
+     */
+    public void testLookupAndRange() throws IOException {
+        try (SortedFile sorted = new SortedFile(sortedName)) {
+            SortMetrics metrics = new SortMetrics();
+            sorted.setMetrics(metrics);
+            for (double key : new double[] { -200, -17, 0, 55, 199 }) {
+                long before = metrics.getBlocksRead();
+                List<Record> found = sorted.lookup(key);
+                assertEquals(expected(key, key + 1), ids(found));
+                for (Record record : found) {
+                    assertEquals(key, record.getKey(), 0);
+                }
+                // about 25 records per key, 16 per block
+                assertTrue(metrics.getBlocksRead() - before <= 4);
+            }
+            assertEquals(0, sorted.lookup(1000).size());
+            assertEquals(0, sorted.lookup(0.5).size());
+
+            assertEquals(expected(-10, 10), ids(sorted.range(-10, 10)));
+            assertEquals(expected(-500, 500), ids(sorted.range(-500, 500)));
+            assertEquals(0, sorted.range(10, 10).size());
+            assertEquals(0, sorted.range(10, -10).size());
+
+            SortedFile.Scan scan = sorted.scan(150.5, 152);
+            List<Long> ids = new ArrayList<>();
+            while (scan.next()) {
+                ids.add(scan.id());
+                assertEquals(151, Double.longBitsToDouble(scan.keyBits()),
+                    0);
+            }
+            assertEquals(expected(151, 152), ids);
+            assertFalse(scan.next());
+        }
+    }
+
+
+    /**
+     * An index that does not match its sorted file is refused
+     *
+     * @throws IOException
+     */
+    public void testStaleIndex() throws IOException {
+        try (RandomAccessFile sorted = new RandomAccessFile(sortedName,
+            "rw")) {
+            sorted.setLength(sorted.length() - Record.BYTES);
+        }
+        try {
+            new SortedFile(sortedName).close();
+            fail("A stale index should be refused");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("does not match"));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// -------------------------------------------------------------------------
+/**
+ * A sparse index over a sorted file: the first record and the byte offset
+ * of every block. It is built while the final merge pass writes the
+ * output, and saved next to it, so that SortedFile can find a key by
+ * binary search and then read only the blocks that hold it, and so that
+ * the block summary needs no reads of the sorted file at all.
+ *
+ * The file holds a magic number, a format version, the key order, the
+ * block size, the length of the sorted file, the number of entries, and
+ * for each block its first ID, first key bits and byte offset, all
+ * big-endian.
+ *
+ * @author CS Staff
+ * @version Fall 2024
+ */
+class SparseIndex {
+    /**
+     * first four bytes of every index file
+     */
+    private static final int MAGIC = 0x53494458; // "SIDX"
+
+    /**
+     * index layout version
+     */
+    private static final int VERSION = 2;
+
+    private KeyOrder order;
+    private int blockSize;
+    private long fileLength;
+    private int size;
+    private long[] ids = new long[16]; // first ID of each block
+    private long[] keyBits = new long[16]; // first key of each block
+    private long[] offsets = new long[16]; // byte offset of each block
+
+    // ----------------------------------------------------------
+    /**
+     * Create a new, empty SparseIndex object.
+     *
+     * @param order
+     *            ordering of the keys in the sorted file
+     * @param blockSize
+     *            bytes per block of the sorted file
+     */
+    SparseIndex(KeyOrder order, int blockSize) {
+        this.order = order;
+        this.blockSize = blockSize;
+    }
+
+
+    /**
+     * Return the name of the index file for a sorted file
+     *
+     * @param sortedName
+     *            sorted file name
+     * @return index file name
+     */
+    static String fileName(String sortedName) {
+        return sortedName + ".idx";
+    }
+
+
+    /**
+     * Add the next block
+     *
+     * @param firstID
+     *            ID of the block's first record
+     * @param firstKeyBits
+     *            key bits of the block's first record
+     * @param offset
+     *            byte offset of the block
+     */
+    void add(long firstID, long firstKeyBits, long offset) {
+        if (size == keyBits.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            keyBits = Arrays.copyOf(keyBits, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        ids[size] = firstID;
+        keyBits[size] = firstKeyBits;
+        offsets[size] = offset;
+        size++;
+    }
+
+
+    /**
+     * Set the length of the sorted file once it is complete
+     *
+     * @param length
+     *            bytes in the sorted file
+     */
+    void setFileLength(long length) {
+        fileLength = length;
+    }
+
+
+    /**
+     * Return the number of blocks indexed
+     *
+     * @return number of entries
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the first ID of a block
+     *
+     * @param block
+     *            entry number
+     * @return record ID
+     */
+    long getID(int block) {
+        return ids[block];
+    }
+
+
+    /**
+     * Return the first key of a block
+     *
+     * @param block
+     *            entry number
+     * @return key bits
+     */
+    long getKeyBits(int block) {
+        return keyBits[block];
+    }
+
+
+    /**
+     * Return the byte offset of a block
+     *
+     * @param block
+     *            entry number
+     * @return file offset
+     */
+    long getOffset(int block) {
+        return offsets[block];
+    }
+
+
+    /**
+     * Return the ordering of the keys
+     *
+     * @return key order
+     */
+    KeyOrder getKeyOrder() {
+        return order;
+    }
+
+
+    /**
+     * Return the size of a block of the sorted file
+     *
+     * @return bytes per block
+     */
+    int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Return the length of the sorted file the index describes
+     *
+     * @return bytes
+     */
+    long getFileLength() {
+        return fileLength;
+    }
+
+
+    /**
+     * Find the block where records with a key would start: the last block
+     * whose first key is smaller, or the first block if there is none.
+     * Records with the key may carry on into later blocks.
+     *
+     * @param bits
+     *            key bits to look for
+     * @return entry number, or 0 if the index is empty
+     */
+    int findBlock(long bits) {
+        int low = 0;
+        int high = size - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (order.compareBits(keyBits[mid], bits) < 0) {
+                found = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Write the index to a file
+     *
+     * @param name
+     *            index file name
+     * @throws IOException
+     */
+    void write(String name) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(Paths.get(
+                name))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(order.ordinal());
+            out.writeInt(blockSize);
+            out.writeLong(fileLength);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(keyBits[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Read an index written by write()
+     *
+     * @param name
+     *            index file name
+     * @return the index
+     * @throws IOException
+     *             if the file cannot be read or is not a sparse index
+     */
+    static SparseIndex read(String name) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(Paths.get(
+                name))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(name + " is not a version " + VERSION
+                    + " sparse index");
+            }
+            SparseIndex index = new SparseIndex(KeyOrder.values()[in
+                .readInt()], in.readInt());
+            long length = in.readLong();
+            int count = in.readInt();
+            index.ids = new long[Math.max(count, 1)];
+            index.keyBits = new long[Math.max(count, 1)];
+            index.offsets = new long[Math.max(count, 1)];
+            for (int i = 0; i < count; i++) {
+                index.add(in.readLong(), in.readLong(), in.readLong());
+            }
+            index.setFileLength(length);
+            return index;
+        }
+    }
+}